@@ -0,0 +1,110 @@
+package org.whiteboard.client;
+
+import org.whiteboard.common.action.Action;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the server sequence numbers of received actions. Only used on the FX thread.
+ * <p>
+ * Actions already contained in the last sync are skipped, and every action carries the
+ * sequence of its sender's previous action, so a missing action is detected with one map
+ * lookup. Recently received actions are kept so that those newer than a sync that arrives
+ * late can be applied again on top of it.
+ */
+public class ActionSequenceTracker {
+
+    // Number of received actions kept to re-apply after a late sync
+    private static final int RECENT_CAPACITY = 4096;
+
+    // Every action up to this sequence number is part of the last sync
+    private long syncedSequence;
+
+    private final Map<String, Long> lastSequenceByUser = new HashMap<>();
+
+    private final ArrayDeque<Action> recentActions = new ArrayDeque<>();
+
+    private long missingCount;
+
+    /**
+     * Record a received action.
+     *
+     * @param action the received action
+     * @return true if the action should be rendered, false if the last sync already contains it
+     */
+    public boolean accept(Action action) {
+        long sequence = action.getSequence();
+        if (sequence == 0) {
+            // Not sequenced by the server, nothing to check
+            return true;
+        }
+        if (sequence <= syncedSequence) {
+            return false;
+        }
+
+        checkChain(action);
+
+        recentActions.addLast(action);
+        if (recentActions.size() > RECENT_CAPACITY) {
+            recentActions.removeFirst();
+        }
+        return true;
+    }
+
+    /**
+     * Record a sync of the whole canvas.
+     *
+     * @param headSequence every action up to this sequence number is contained in the sync
+     * @return actions received before the sync that are newer than it, to render again on top of it
+     */
+    public List<Action> onSync(long headSequence) {
+        syncedSequence = headSequence;
+        lastSequenceByUser.clear();
+
+        List<Action> newer = new ArrayList<>();
+        for (Action action : recentActions) {
+            if (action.getSequence() > headSequence) {
+                newer.add(action);
+            }
+        }
+
+        recentActions.clear();
+        for (Action action : newer) {
+            checkChain(action);
+            recentActions.addLast(action);
+        }
+        return newer;
+    }
+
+    /**
+     * Actions received since the last sync that are newer than it.
+     */
+    public List<Action> newerThanSync() {
+        List<Action> newer = new ArrayList<>();
+        for (Action action : recentActions) {
+            if (action.getSequence() > syncedSequence) {
+                newer.add(action);
+            }
+        }
+        return newer;
+    }
+
+    private void checkChain(Action action) {
+        String user = action.getUsername();
+        long previous = action.getPreviousSequence();
+        Long expected = lastSequenceByUser.put(user, action.getSequence());
+
+        // Without an earlier action from this user, the previous one must be part of the sync
+        boolean missing = expected == null ? previous > syncedSequence : previous != expected;
+        if (missing) {
+            missingCount++;
+            System.err.println("Warning: Missing action(s) from " + user + " before sequence "
+                    + action.getSequence() + " (expected previous " + (expected == null ? "<= " + syncedSequence : expected)
+                    + ", got " + previous + "), " + missingCount + " gap(s) so far");
+        }
+    }
+}
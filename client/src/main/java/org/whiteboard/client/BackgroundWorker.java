@@ -1,22 +1,23 @@
 package org.whiteboard.client;
 
 import javafx.concurrent.Task;
-import org.whiteboard.common.rmi.IClientCallback;
 import org.whiteboard.common.rmi.IWhiteboardServer;
 
+import java.util.List;
+
 public class BackgroundWorker {
-    public static void run(String host, int port, String username, boolean isAdmin) {
+    public static void run(List<String> servers, String boardId, String username, boolean isAdmin) {
         Task<Void> backgroundTask = new Task<>() {
             @Override
             protected Void call() throws Exception {
 
                 System.out.println("Starting RMI client in background...");
 
-                IClientCallback callback = WhiteboardClient.createClient(isAdmin, host, port, username);
-                IWhiteboardServer whiteboardServer = callback.getWhiteboardServer();
+                WhiteboardClient client = WhiteboardClient.createClient(isAdmin, servers, boardId, username);
+                IWhiteboardServer whiteboardServer = client.getWhiteboardServer();
 
-                // Initialize the connection manager with the whiteboardServer and callback
-                ConnectionManager.getInstance().init(whiteboardServer, callback, username, isAdmin);
+                // Initialize the connection manager with the whiteboardServer and client
+                ConnectionManager.getInstance().init(whiteboardServer, client, username, isAdmin);
 
                 System.out.println("RMI client started.");
                 return null;
@@ -0,0 +1,238 @@
+package org.whiteboard.client;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import org.whiteboard.common.Bounds;
+import org.whiteboard.common.TextElement;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.action.EraseAction;
+import org.whiteboard.common.action.TextAction;
+import org.whiteboard.common.action.UndoAction;
+import org.whiteboard.common.spatial.QuadTree;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * What has been painted on the canvas, so that a part of it can be painted again when a
+ * gesture is undone or redone. Only used on the FX thread.
+ * <p>
+ * Draw and erase actions are kept by the area they paint, text additions by their box.
+ * An undo names the gesture by sequence numbers, which find the actions received from the
+ * server, and by action ids, which find the user's own actions drawn before the server
+ * sequenced them.
+ */
+public class CanvasHistory {
+
+    /**
+     * An action painted on the canvas, in the order it was painted.
+     */
+    public static final class Entry {
+        private final Action action;
+        private final Bounds area;
+        private final long order;
+        private final int ownIndex;
+        private boolean hidden;
+
+        // A text removed for good, undo and redo leave it alone
+        private boolean removed;
+
+        private Entry(Action action, Bounds area, long order, int ownIndex) {
+            this.action = action;
+            this.area = area;
+            this.order = order;
+            this.ownIndex = ownIndex;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * The area the action paints.
+         */
+        public Bounds getArea() {
+            return area;
+        }
+
+        public boolean isHidden() {
+            return hidden;
+        }
+    }
+
+    /**
+     * A raster tile of the last sync, painted below every action.
+     */
+    public record Tile(Image image, double x, double y) {
+    }
+
+    private final QuadTree<Entry> index = new QuadTree<>(new Bounds(0, 0, 1200, 800));
+
+    // Actions received from the server by their sequence number
+    private final NavigableMap<Long, Entry> bySequence = new TreeMap<>();
+
+    // The user's own actions, in the order they were drawn, and by action id
+    private final List<Entry> own = new ArrayList<>();
+    private final Map<Long, Entry> ownById = new HashMap<>();
+
+    // Text additions by their element, until the text is removed
+    private final Map<TextElement, Entry> texts = new HashMap<>();
+
+    private final List<Tile> tiles = new ArrayList<>();
+
+    private long counter;
+
+    /**
+     * Record an action received from the server.
+     */
+    public void add(Action action) {
+        addReceived(action);
+    }
+
+    private Entry addReceived(Action action) {
+        Entry entry = record(action, -1);
+        if (entry != null && action.getSequence() > 0) {
+            bySequence.put(action.getSequence(), entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Record an action the user drew locally.
+     */
+    public void addOwn(Action action) {
+        Entry entry = record(action, own.size());
+        if (entry != null) {
+            own.add(entry);
+            ownById.put(action.getActionId(), entry);
+        }
+    }
+
+    private Entry record(Action action, int ownIndex) {
+        if (action instanceof TextAction text && text.getTextType() == TextAction.TextType.REMOVE) {
+            // A removed text stays removed, whatever happens to the gesture that added it
+            Entry added = texts.remove(text.getTextElement());
+            if (added != null) {
+                added.removed = true;
+            }
+            return null;
+        }
+
+        Bounds area = areaOf(action);
+        if (area == null) {
+            return null;
+        }
+        Entry entry = new Entry(action, area, ++counter, ownIndex);
+        if (action instanceof TextAction text) {
+            texts.put(text.getTextElement(), entry);
+        } else {
+            index.insert(entry, area);
+        }
+        return entry;
+    }
+
+    private static Bounds areaOf(Action action) {
+        return switch (action) {
+            case DrawAction draw -> draw.getInkBounds();
+            case EraseAction erase -> {
+                Bounds path = Bounds.enclosing(erase.getErasePath());
+                yield path == null ? null : path.inflate(erase.getEraserSize() / 2);
+            }
+            case TextAction text -> {
+                Rectangle2D box = text.getTextElement().bounds();
+                yield new Bounds(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY());
+            }
+            default -> null;
+        };
+    }
+
+    /**
+     * Record a raster tile of a sync.
+     */
+    public void addTile(Image image, double x, double y) {
+        tiles.add(new Tile(image, x, y));
+    }
+
+    /**
+     * Hide or show the actions of an undone or redone gesture.
+     *
+     * @param undo     the tombstone
+     * @param username this client's user
+     * @return the actions that changed, added ones included
+     */
+    public List<Entry> apply(UndoAction undo, String username) {
+        List<Entry> gesture = new ArrayList<>();
+        for (Entry entry : bySequence.subMap(undo.getFromSequence(), true, undo.getToSequence(), true).values()) {
+            if (entry.action.getUsername().equals(undo.getUsername())) {
+                gesture.add(entry);
+            }
+        }
+        if (undo.getUsername().equals(username)) {
+            Entry first = ownById.get(undo.getFromActionId());
+            Entry last = ownById.get(undo.getToActionId());
+            if (first != null && last != null) {
+                gesture.addAll(own.subList(first.ownIndex, last.ownIndex + 1));
+            }
+        }
+
+        if (gesture.isEmpty() && undo.isRedo()) {
+            // Hidden before this client joined, never painted here
+            for (Action action : undo.getRestored()) {
+                Entry entry = addReceived(action);
+                if (entry != null) {
+                    gesture.add(entry);
+                }
+            }
+            return gesture;
+        }
+
+        List<Entry> changed = new ArrayList<>();
+        for (Entry entry : gesture) {
+            if (entry.hidden == undo.isRedo() && !entry.removed) {
+                entry.hidden = !undo.isRedo();
+                changed.add(entry);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The shown draw and erase actions painting any part of an area, in the order they were painted.
+     */
+    public List<Entry> visibleIn(Bounds area) {
+        List<Entry> visible = new ArrayList<>();
+        for (Entry entry : index.query(area)) {
+            if (!entry.hidden) {
+                visible.add(entry);
+            }
+        }
+        visible.sort(Comparator.comparingLong(entry -> entry.order));
+        return visible;
+    }
+
+    /**
+     * The raster tiles of the last sync.
+     */
+    public List<Tile> getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Forget everything, before a sync rebuilds the canvas.
+     */
+    public void clear() {
+        index.clear();
+        bySequence.clear();
+        own.clear();
+        ownById.clear();
+        texts.clear();
+        tiles.clear();
+        counter = 0;
+    }
+}
@@ -1,5 +1,6 @@
 package org.whiteboard.client;
 
+import javafx.application.Platform;
 import org.whiteboard.client.controller.CanvasController;
 import org.whiteboard.client.controller.ChatController;
 import org.whiteboard.client.controller.MainController;
@@ -7,14 +8,29 @@ import org.whiteboard.client.controller.UsersController;
 import org.whiteboard.common.action.DrawAction;
 import org.whiteboard.common.action.EraseAction;
 import org.whiteboard.common.action.TextAction;
-import org.whiteboard.common.rmi.IClientCallback;
+import org.whiteboard.common.codec.BoardFile;
+import org.whiteboard.common.codec.CanvasDataCodec;
 import org.whiteboard.common.rmi.IWhiteboardServer;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ConnectionManager {
     // Eager singleton
@@ -23,11 +39,20 @@ public class ConnectionManager {
     private String username;
 
     private volatile boolean connected;
-    private IWhiteboardServer server;
-    private IClientCallback callback;
+    private volatile IWhiteboardServer server;
+    private WhiteboardClient client;
+
+    // How often the server is checked to still be reachable
+    private static final long HEARTBEAT_INTERVAL_MS = 1000;
+
+    // Set while the client looks for the board again after losing the connection
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
 
     private MainController mainController;
 
+    // Bytes per call when a board file is uploaded
+    private static final int IMPORT_CHUNK_BYTES = 1024 * 1024;
+
     private CanvasController canvasController;
 
     private ChatController chatController;
@@ -43,6 +68,13 @@ public class ConnectionManager {
         return t;
     });
 
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread t = Executors.defaultThreadFactory().newThread(runnable);
+        t.setName("ConnectionManager-Heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
 
     private ConnectionManager() {
     }
@@ -56,21 +88,79 @@ public class ConnectionManager {
      * Should be called after successful connection setup
      *
      * @param service  remote service stub
-     * @param callback local callback stub
+     * @param client   local callback object, reconnects when the server is lost
      * @param username the client's username
      */
-    public void init(IWhiteboardServer service, IClientCallback callback, String username, boolean isAdmin) {
+    public void init(IWhiteboardServer service, WhiteboardClient client, String username, boolean isAdmin) {
         if (service == null) {
             System.err.println("Error: IWhiteboardServer service cannot be null in ConnectionManager.init()");
             throw new IllegalArgumentException("IWhiteboardServer service cannot be null");
         }
         this.server = service;
-        this.callback = callback;
+        this.client = client;
         this.username = username;
         this.isAdmin = isAdmin;
+        heartbeatExecutor.scheduleWithFixedDelay(
+                this::heartbeat,
+                HEARTBEAT_INTERVAL_MS,
+                HEARTBEAT_INTERVAL_MS,
+                TimeUnit.MILLISECONDS
+        );
         System.out.println("ConnectionManager initialized for user: " + username);
     }
 
+    // Notice a lost server while the user is idle, not only on the next call
+    private void heartbeat() {
+        IWhiteboardServer current = server;
+        if (isConnected() || reconnecting.get()) {
+            return;
+        }
+        try {
+            current.getHeadSequence();
+        } catch (RemoteException ex) {
+            if (isConnectionLost(ex)) {
+                System.err.println("Error: Lost the connection to the server: " + ex.getMessage());
+                connectionLost();
+            }
+        }
+    }
+
+    /**
+     * Whether a failed call means the server is gone, as opposed to a refused call.
+     */
+    private static boolean isConnectionLost(Throwable ex) {
+        return ex instanceof ConnectException
+                || ex instanceof ConnectIOException
+                || ex instanceof NoSuchObjectException;
+    }
+
+    /**
+     * Find the board again after its server was lost, e.g. on a standby that took over,
+     * and swap the connection over. Gives up the board if it cannot be found.
+     */
+    public void connectionLost() {
+        if (client == null || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        networkExecutor.execute(() -> {
+            try {
+                IWhiteboardServer reconnected = client.reconnect();
+                if (reconnected == null) {
+                    setConnected(false);
+                    client.connectionFailed();
+                    return;
+                }
+                server = reconnected;
+                long elapsed = (System.nanoTime() - start) / 1_000_000;
+                System.out.println("Reconnected in " + elapsed + " ms");
+                Platform.runLater(() -> chatController.receiveMessage("System: ", "Reconnected in " + elapsed + " ms"));
+            } finally {
+                reconnecting.set(false);
+            }
+        });
+    }
+
     public void setMainController(MainController controller) {
         this.mainController = controller;
     }
@@ -138,6 +228,9 @@ public class ConnectionManager {
 //                System.out.println("Successfully sent: " + actionDescription);
             } catch (RemoteException ex) {
                 System.err.println("RMI Error during [" + actionDescription + "]: " + ex.getMessage());
+                if (isConnectionLost(ex)) {
+                    connectionLost();
+                }
 
                 // Warping the RemoteException in a RuntimeException
                 throw new RuntimeException(ex);
@@ -213,6 +306,38 @@ public class ConnectionManager {
         return performRemoteCall("kick user " + targetUsername, () -> server.kickUser(currentUser, targetUsername, "You are be kicked by Admin"));
     }
 
+    /**
+     * Undo the user's last gesture asynchronously. The server returns the tombstone instead
+     * of sending it back, it is applied to the canvas here.
+     */
+    public CompletableFuture<Void> undo() {
+        return undoOrRedo(false);
+    }
+
+    /**
+     * Redo the user's last undone gesture asynchronously.
+     */
+    public CompletableFuture<Void> redo() {
+        return undoOrRedo(true);
+    }
+
+    private CompletableFuture<Void> undoOrRedo(boolean redo) {
+        String description = redo ? "redo" : "undo";
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return redo ? server.redo(username) : server.undo(username);
+            } catch (RemoteException ex) {
+                System.err.println("RMI Error during [" + description + "]: " + ex.getMessage());
+                throw new RuntimeException(ex);
+            }
+        }, networkExecutor).thenAccept(undo -> {
+            // Null if there is nothing to undo or redo
+            if (undo != null) {
+                Platform.runLater(() -> canvasController.applyUndo(undo));
+            }
+        });
+    }
+
     public CompletableFuture<Void> closeCanvas() {
         return performRemoteCall("close canvas", () -> server.clearCanva(true));
     }
@@ -236,6 +361,144 @@ public class ConnectionManager {
         }, networkExecutor);
     }
 
+    /**
+     * Export the canvas into a file asynchronously. The server encodes the board one segment
+     * per call and each segment is written to the file as it arrives, so only one segment is
+     * held in memory at a time. An incomplete file is deleted.
+     *
+     * @param file   the file to write, replaced if it exists
+     * @param header text written before the canvas data
+     */
+    public CompletableFuture<Void> exportCanvasTo(Path file, String header) {
+        return CompletableFuture.runAsync(() -> {
+            long exportId;
+            try {
+                exportId = server.openExport();
+            } catch (RemoteException ex) {
+                System.err.println("RMI Error during [export canvas]: " + ex.getMessage());
+                throw new RuntimeException(ex);
+            }
+
+            boolean complete = false;
+            try (FileChannel channel = FileChannel.open(
+                    file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE
+            )) {
+                writeFully(channel, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+                ByteBuffer separator = ByteBuffer.wrap(new byte[]{(byte) CanvasDataCodec.SEGMENT_SEPARATOR});
+                byte[] segment;
+                boolean first = true;
+                while ((segment = server.readExport(exportId)) != null) {
+                    if (!first) {
+                        writeFully(channel, separator.rewind());
+                    }
+                    writeFully(channel, ByteBuffer.wrap(segment));
+                    first = false;
+                }
+                complete = true;
+            } catch (IOException ex) {
+                System.err.println("Error during [export canvas]: " + ex.getMessage());
+                throw new RuntimeException(ex);
+            } finally {
+                if (!complete) {
+                    abandonExport(exportId, file);
+                }
+            }
+        }, networkExecutor);
+    }
+
+    /**
+     * Export the canvas into a binary board file asynchronously, written as it arrives like
+     * {@link #exportCanvasTo(Path, String)}. An incomplete file is deleted.
+     *
+     * @param file the file to write, replaced if it exists
+     */
+    public CompletableFuture<Void> exportBoardTo(Path file) {
+        return CompletableFuture.runAsync(() -> {
+            long exportId;
+            try {
+                exportId = server.openBoardExport();
+            } catch (RemoteException ex) {
+                System.err.println("RMI Error during [export canvas]: " + ex.getMessage());
+                throw new RuntimeException(ex);
+            }
+
+            boolean complete = false;
+            try (FileChannel channel = FileChannel.open(
+                    file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE
+            )) {
+                byte[] segment;
+                while ((segment = server.readExport(exportId)) != null) {
+                    writeFully(channel, ByteBuffer.wrap(segment));
+                }
+                complete = true;
+            } catch (IOException ex) {
+                System.err.println("Error during [export canvas]: " + ex.getMessage());
+                throw new RuntimeException(ex);
+            } finally {
+                if (!complete) {
+                    abandonExport(exportId, file);
+                }
+            }
+        }, networkExecutor);
+    }
+
+    /**
+     * Open a binary board file asynchronously. The file is memory mapped and its index
+     * checked before anything is sent, then it is uploaded in chunks straight from the
+     * mapping; the server checks every record as it decodes them.
+     *
+     * @param file the board file
+     */
+    public CompletableFuture<Void> importBoardFrom(Path file) {
+        return CompletableFuture.runAsync(() -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Board file is too large: " + size + " bytes");
+                }
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                BoardFile.Reader.open(mapped);
+
+                long importId = server.openImport();
+                byte[] chunk = new byte[IMPORT_CHUNK_BYTES];
+                while (mapped.hasRemaining()) {
+                    int length = Math.min(chunk.length, mapped.remaining());
+                    mapped.get(chunk, 0, length);
+                    server.writeImport(importId, length == chunk.length ? chunk : Arrays.copyOf(chunk, length));
+                }
+                server.commitImport(importId);
+            } catch (IOException ex) {
+                System.err.println("Error during [open canvas]: " + ex.getMessage());
+                throw new RuntimeException(ex);
+            }
+        }, networkExecutor);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void abandonExport(long exportId, Path file) {
+        try {
+            server.closeExport(exportId);
+        } catch (RemoteException ex) {
+            // The server drops idle exports by itself
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            System.err.println("Error: Fail to delete incomplete export " + file + ": " + ex.getMessage());
+        }
+    }
+
     /**
      * Shuts down the network executor service. Call this when the application exits.
      */
@@ -243,6 +506,7 @@ public class ConnectionManager {
         System.out.println("Shutting down ConnectionManager network executor...");
 
         // Disable new tasks from being submitted
+        heartbeatExecutor.shutdownNow();
         networkExecutor.shutdown();
         try {
             server.unregisterClient(username);
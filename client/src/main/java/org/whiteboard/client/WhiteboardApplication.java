@@ -5,8 +5,10 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
+import org.whiteboard.common.rmi.IBoardDirectory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -15,6 +17,7 @@ public class WhiteboardApplication extends javafx.application.Application {
     private String username = UUID.randomUUID().toString().substring(0, 8);
     private String host = "127.0.0.1";
     private int port = 3000;
+    private String boardId = IBoardDirectory.DEFAULT_BOARD;
     private boolean isAdmin = false;
 
     @Override
@@ -24,8 +27,8 @@ public class WhiteboardApplication extends javafx.application.Application {
         Parameters params = getParameters();
         List<String> args = params.getUnnamed();
 
-        // <Mode> <serverIPAddress> <serverPort> <username>
-        if (args.size() == 4) {
+        // <Mode> <serverIPAddress[,standby[:port]]...> <serverPort> <username> [boardId]
+        if (args.size() == 4 || args.size() == 5) {
             String mode = args.get(0);
             this.host = args.get(1);
 
@@ -36,6 +39,9 @@ public class WhiteboardApplication extends javafx.application.Application {
             }
 
             this.username = args.get(3);
+            if (args.size() == 5) {
+                this.boardId = args.get(4);
+            }
 
             if ("CreateWhiteBoard".equalsIgnoreCase(mode)) {
                 this.isAdmin = true;
@@ -48,13 +54,14 @@ public class WhiteboardApplication extends javafx.application.Application {
                 this.isAdmin = false;
             }
 
-            System.out.println("Using command line arguments: host=" + this.host + ", port=" + this.port + ", username=" + this.username);
+            System.out.println("Using command line arguments: host=" + this.host + ", port=" + this.port
+                    + ", board=" + this.boardId + ", username=" + this.username);
 
             // Didn't provide all arguments
         } else if (!args.isEmpty()) {
-            System.err.println("Error: Usage: java -jar your-app.jar <Mode> <serverIPAddress> <serverPort> <username>");
+            System.err.println("Error: Usage: java -jar your-app.jar <Mode> <serverIPAddress[,standby[:port]]...> <serverPort> <username> [boardId]");
             System.err.println("Error: Mode can be 'CreateWhiteBoard' or 'JoinWhiteBoard'.");
-            System.err.println("Error: Incorrect number of arguments provided (" + args.size() + " instead of 4). Using default values.");
+            System.err.println("Error: Incorrect number of arguments provided (" + args.size() + " instead of 4 or 5). Using default values.");
             printDefaultValues();
 
             // No command arguments provided
@@ -65,10 +72,33 @@ public class WhiteboardApplication extends javafx.application.Application {
     }
 
     private void printDefaultValues() {
-        System.out.println("Defaults: Mode=JoinWhiteBoard (User), host=" + this.host + ", port=" + this.port + ", username=" + this.username);
+        System.out.println("Defaults: Mode=JoinWhiteBoard (User), host=" + this.host + ", port=" + this.port + ", board=" + this.boardId + ", username=" + this.username);
     }
 
 
+    /**
+     * Servers to connect to, tried in turn: a comma separated list of hosts, each with an
+     * optional port, e.g. a primary and its standby.
+     *
+     * @param hosts       the host argument
+     * @param defaultPort port of hosts without one
+     * @return the servers as host:port
+     */
+    private static List<String> parseServers(String hosts, int defaultPort) {
+        List<String> servers = new ArrayList<>();
+        for (String server : hosts.split(",")) {
+            server = server.trim();
+            if (server.isEmpty()) {
+                continue;
+            }
+            servers.add(server.indexOf(':') < 0 ? server + ":" + defaultPort : server);
+        }
+        if (servers.isEmpty()) {
+            servers.add("127.0.0.1:" + defaultPort);
+        }
+        return servers;
+    }
+
     @Override
     public void start(Stage stage) throws IOException {
         FXMLLoader fxmlLoader = new FXMLLoader(WhiteboardApplication.class.getResource("main-view.fxml"));
@@ -86,8 +116,9 @@ public class WhiteboardApplication extends javafx.application.Application {
             String host = this.host;
             int port = this.port;
 //            String username = UUID.randomUUID().toString().substring(0, 8); // Example
-            System.out.println("Attempting connection to " + host + ":" + port + " as " + username);
-            BackgroundWorker.run(host, port, username, isAdmin);
+            List<String> servers = parseServers(host, port);
+            System.out.println("Attempting connection to " + String.join(", ", servers) + " board " + boardId + " as " + username);
+            BackgroundWorker.run(servers, boardId, username, isAdmin);
         });
 
 
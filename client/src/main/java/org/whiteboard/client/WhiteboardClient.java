@@ -1,6 +1,7 @@
 package org.whiteboard.client;
 
 import javafx.application.Platform;
+import javafx.scene.image.Image;
 import org.whiteboard.client.controller.CanvasController;
 import org.whiteboard.client.controller.ChatController;
 import org.whiteboard.client.controller.MainController;
@@ -9,41 +10,80 @@ import org.whiteboard.common.action.Action;
 import org.whiteboard.common.action.DrawAction;
 import org.whiteboard.common.action.EraseAction;
 import org.whiteboard.common.action.TextAction;
+import org.whiteboard.common.action.UndoAction;
+import org.whiteboard.common.codec.ActionCodec;
+import org.whiteboard.common.codec.SyncStreamReader;
+import org.whiteboard.common.rmi.IBoardDirectory;
 import org.whiteboard.common.rmi.IClientCallback;
 import org.whiteboard.common.rmi.IWhiteboardServer;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 
 public class WhiteboardClient implements IClientCallback {
 
-    private static final String SERVICE_NAME = "WhiteboardServer";
-    private final IWhiteboardServer whiteboardServer;
+    // Attempts to find the board again once the connection is lost, about a minute in all
+    private static final int RECONNECT_RETRIES = 8;
+    private static final long RECONNECT_DELAY_MS = 500;
+
+    // Replaced when the client reconnects, e.g. to a standby that took over
+    private volatile IWhiteboardServer whiteboardServer;
+    private final boolean isAdmin;
+    private final List<String> servers;
+    private final String boardId;
     private final String username;
 
+    // Only accessed on the FX thread
+    private final ActionSequenceTracker sequenceTracker = new ActionSequenceTracker();
+
+    // Sync in progress, guarded by syncLock
+    private final Object syncLock = new Object();
+    private SyncStreamReader activeSync;
+    private long activeSyncId;
+
+    // Number of decoded sync chunks waiting for the FX thread
+    private final Semaphore syncPermits = new Semaphore(2);
+
 
-    public static WhiteboardClient createClient(boolean isAdmin, String host, int port, String username) throws RemoteException {
-        return new WhiteboardClient(isAdmin, host, port, username);
+    public static WhiteboardClient createClient(
+            boolean isAdmin,
+            List<String> servers,
+            String boardId,
+            String username
+    ) throws RemoteException {
+        return new WhiteboardClient(isAdmin, servers, boardId, username);
     }
 
     /**
      * Protected constructor contains join logic.
      *
-     * @param host     the host name of the server
-     * @param port     the port number of the server
+     * @param servers  the servers as host:port, tried in turn, e.g. a primary and its standby
+     * @param boardId  the board to join
      * @param username the username
      */
-    protected WhiteboardClient(boolean isAdmin, String host, int port, String username) throws RemoteException {
+    protected WhiteboardClient(
+            boolean isAdmin,
+            List<String> servers,
+            String boardId,
+            String username
+    ) throws RemoteException {
         // Export the client object to make it available for remote calls
         UnicastRemoteObject.exportObject(this, 0);
 
+        this.isAdmin = isAdmin;
+        this.servers = List.copyOf(servers);
+        this.boardId = boardId;
         this.username = username;
 
         // Connect to the server with retry
-        IWhiteboardServer whiteboardServer = connectWithRetry(5, 2000, host, port, SERVICE_NAME);
+        IWhiteboardServer whiteboardServer = connectWithRetry(5, 2000, this.servers, boardId, null);
 
         if (whiteboardServer == null) {
             throw new RemoteException("Could not connect to service");
@@ -60,6 +100,26 @@ public class WhiteboardClient implements IClientCallback {
         }
     }
 
+    /**
+     * Find the board again after the connection to its server was lost and register with
+     * it, e.g. once a standby took over. Blocks while retrying.
+     *
+     * @return the board's server, or null if it cannot be reached or refuses the client
+     */
+    public IWhiteboardServer reconnect() {
+        IWhiteboardServer server = connectWithRetry(
+                RECONNECT_RETRIES,
+                RECONNECT_DELAY_MS,
+                servers,
+                boardId,
+                board -> board.registerClient(isAdmin, username, this)
+        );
+        if (server != null) {
+            this.whiteboardServer = server;
+        }
+        return server;
+    }
+
     /**
      * Getter for the remote service stub
      */
@@ -96,29 +156,61 @@ public class WhiteboardClient implements IClientCallback {
 
     @Override
     public void onAction(Action action) throws RemoteException {
-        switch (action) {
-            case DrawAction draw -> Platform.runLater(() -> {
-                CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
-                if (ctrl != null) {
-                    ctrl.renderRemoteDrawAction(draw);
-                }
-            });
-            case EraseAction erase -> Platform.runLater(() -> {
-                CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
-                if (ctrl != null) {
-                    ctrl.renderRemoteEraseAction(erase);
-                }
-            });
-            case TextAction text -> Platform.runLater(() -> {
-                CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
-                if (ctrl != null) {
-                    if (text.getTextType() == TextAction.TextType.ADD) {
-                        ctrl.renderRemoteTextAction(text);
-                    } else if (text.getTextType() == TextAction.TextType.REMOVE) {
-                        ctrl.renderRemoteRemoveTextActions(text);
+        Platform.runLater(() -> {
+            CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
+            if (ctrl != null && sequenceTracker.accept(action)) {
+                renderAction(ctrl, action);
+            }
+        });
+    }
+
+    @Override
+    public void onActions(List<Action> actions) throws RemoteException {
+        // Render the whole batch in a single FX pulse
+        Platform.runLater(() -> {
+            CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
+            if (ctrl != null) {
+                for (Action action : actions) {
+                    if (sequenceTracker.accept(action)) {
+                        renderAction(ctrl, action);
                     }
                 }
-            });
+            }
+        });
+    }
+
+    @Override
+    public void onEncodedActions(List<byte[]> payloads) throws RemoteException {
+        // Decode on the RMI thread, keep the FX thread for rendering only
+        List<Action> actions = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            try {
+                actions.add(ActionCodec.decode(payload));
+            } catch (IOException e) {
+                System.err.println("Error: Failed to decode action: " + e.getMessage());
+            }
+        }
+        onActions(actions);
+    }
+
+    /**
+     * Render a remote action, must be called on the FX thread.
+     *
+     * @param ctrl   canvas controller
+     * @param action the action to render
+     */
+    private void renderAction(CanvasController ctrl, Action action) {
+        switch (action) {
+            case DrawAction draw -> ctrl.renderRemoteDrawAction(draw);
+            case EraseAction erase -> ctrl.renderRemoteEraseAction(erase);
+            case TextAction text -> {
+                if (text.getTextType() == TextAction.TextType.ADD) {
+                    ctrl.renderRemoteTextAction(text);
+                } else if (text.getTextType() == TextAction.TextType.REMOVE) {
+                    ctrl.renderRemoteRemoveTextActions(text);
+                }
+            }
+            case UndoAction undo -> ctrl.applyUndo(undo);
             default -> System.err.println("Error: Unknown action type: " + action.getClass().getName());
         }
     }
@@ -193,22 +285,119 @@ public class WhiteboardClient implements IClientCallback {
     @Override
     public void onServerShutdown(String reason) throws RemoteException {
         System.out.println("Received server shutdown notification: " + reason);
-        // Trigger client-side cleanup, similar to disconnect but without calling the server
+        Platform.runLater(() -> ConnectionManager.getInstance().getChatController().receiveMessage("Warning! ", reason));
+
+        // The board may be served elsewhere, e.g. by a standby or another node of a gateway
+        ConnectionManager.getInstance().connectionLost();
+    }
+
+    /**
+     * Give up on the board after the connection was lost and could not be found again.
+     */
+    public void connectionFailed() {
         Platform.runLater(() -> {
             ConnectionManager connectionManager = ConnectionManager.getInstance();
-            connectionManager.getChatController().receiveMessage("Warning! ", "Server shutdown");
+            connectionManager.getChatController().receiveMessage("Warning! ", "Lost the connection to the server.");
             connectionManager.getMainController().disable();
         });
+        // Trigger client-side cleanup, similar to disconnect but without calling the server
         cleanupLocalResources();
     }
 
     @Override
-    public void onSyncWhiteboard(String canvasData) throws RemoteException {
+    public void onSyncBegin(long syncId, long headSequence, int actionCount) throws RemoteException {
+        synchronized (syncLock) {
+            if (activeSync != null) {
+                activeSync.close();
+            }
+            activeSync = new SyncStreamReader();
+            activeSyncId = syncId;
+        }
+        Platform.runLater(() -> {
+            CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
+            ctrl.resetCanvas();
+            sequenceTracker.onSync(headSequence);
+        });
+    }
+
+    @Override
+    public void onSyncTile(long syncId, int x, int y, byte[] png) throws RemoteException {
+        synchronized (syncLock) {
+            if (activeSync == null || activeSyncId != syncId) {
+                return;
+            }
+        }
+        // Decode on the RMI thread, like chunks
+        Image tile = new Image(new ByteArrayInputStream(png));
+        if (tile.isError()) {
+            throw new RemoteException("Error: Failed to decode sync tile", tile.getException());
+        }
+
+        try {
+            syncPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while syncing canvas");
+        }
+        Platform.runLater(() -> {
+            try {
+                ConnectionManager.getInstance().getCanvasController().drawTile(tile, x, y);
+            } finally {
+                syncPermits.release();
+            }
+        });
+    }
+
+    @Override
+    public void onSyncChunk(long syncId, byte[] chunk) throws RemoteException {
+        List<Action> actions;
+        synchronized (syncLock) {
+            if (activeSync == null || activeSyncId != syncId) {
+                // Superseded by a newer sync
+                return;
+            }
+            try {
+                // Decode on the RMI thread, keep the FX thread for rendering only
+                actions = activeSync.readChunk(chunk);
+            } catch (IOException e) {
+                throw new RemoteException("Error: Failed to decode sync chunk", e);
+            }
+        }
+
+        // Hold the server back while the FX thread is behind, so chunks don't pile up here
+        try {
+            syncPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while syncing canvas");
+        }
+        Platform.runLater(() -> {
+            try {
+                CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
+                for (Action action : actions) {
+                    renderAction(ctrl, action);
+                }
+            } finally {
+                syncPermits.release();
+            }
+        });
+    }
+
+    @Override
+    public void onSyncEnd(long syncId) throws RemoteException {
+        synchronized (syncLock) {
+            if (activeSync == null || activeSyncId != syncId) {
+                return;
+            }
+            activeSync.close();
+            activeSync = null;
+        }
         Platform.runLater(() -> {
             CanvasController ctrl = ConnectionManager.getInstance().getCanvasController();
-            ctrl.clearCanvas();
-            if (!canvasData.isEmpty()) {
-                ctrl.importCanvas(canvasData);
+
+            // Actions newer than the sync may have been drawn before parts of it, draw them again on top
+            for (Action action : sequenceTracker.newerThanSync()) {
+                renderAction(ctrl, action);
             }
         });
     }
@@ -261,24 +450,49 @@ public class WhiteboardClient implements IClientCallback {
 
 
     /**
-     * Connect to the RMI registry and look up the service with retry logic.
+     * Registers the client with a board it connected to.
+     */
+    @FunctionalInterface
+    private interface Registration {
+        void register(IWhiteboardServer board) throws RemoteException;
+    }
+
+    /**
+     * Connect to the RMI registry, look up the board directory and open a board with retry
+     * logic. Each attempt tries the next server of the list.
      *
      * @param maxRetries   maximum number of retries
      * @param retryDelayMs initial delay between retries in milliseconds
-     * @param host         the host name of the server
-     * @param port         the port number of the server
-     * @param serviceName  the name of the service
+     * @param servers      the servers as host:port
+     * @param boardId      the board to open
+     * @param registration registers with the board as part of an attempt, or null
      */
-    private static IWhiteboardServer connectWithRetry(int maxRetries, long retryDelayMs, String host, int port, String serviceName) {
+    private static IWhiteboardServer connectWithRetry(
+            int maxRetries,
+            long retryDelayMs,
+            List<String> servers,
+            String boardId,
+            Registration registration
+    ) {
         int attempt = 1;
         while (attempt <= maxRetries) {
+            String address = servers.get((attempt - 1) % servers.size());
             try {
-                // Try to get the registry and look up the service
-                Registry registry = LocateRegistry.getRegistry(host, port);
-                return (IWhiteboardServer) registry.lookup(serviceName);
+                // Try to get the registry, look up the directory and open the board
+                int separator = address.lastIndexOf(':');
+                Registry registry = LocateRegistry.getRegistry(
+                        address.substring(0, separator),
+                        Integer.parseInt(address.substring(separator + 1))
+                );
+                IBoardDirectory directory = (IBoardDirectory) registry.lookup(IBoardDirectory.SERVICE_NAME);
+                IWhiteboardServer board = directory.openBoard(boardId);
+                if (registration != null) {
+                    registration.register(board);
+                }
+                return board;
 
             } catch (Exception ex) {
-                System.err.format("Attempt %d failed: %s%n", attempt, ex.getMessage());
+                System.err.format("Attempt %d to %s failed: %s%n", attempt, address, ex.getMessage());
                 if (attempt == maxRetries) {
                     break;
                 }
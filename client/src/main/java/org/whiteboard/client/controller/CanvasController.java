@@ -13,6 +13,7 @@ import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
+import javafx.scene.image.Image;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseEvent;
@@ -21,24 +22,25 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextBoundsType;
+import org.whiteboard.client.CanvasHistory;
 import org.whiteboard.client.ConnectionManager;
 import org.whiteboard.common.Point;
+import org.whiteboard.common.PointList;
 import org.whiteboard.common.TextElement;
-import org.whiteboard.common.action.Action;
 import org.whiteboard.common.action.DrawAction;
 import org.whiteboard.common.action.EraseAction;
 import org.whiteboard.common.action.TextAction;
+import org.whiteboard.common.action.UndoAction;
+import org.whiteboard.common.spatial.QuadTree;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 
 public class CanvasController {
 
@@ -84,8 +86,17 @@ public class CanvasController {
 
     private final List<TextElement> textElements = new ArrayList<>();
 
+    // Text elements by area for hit testing, with the order they were added in to find the topmost
+    private final QuadTree<TextElement> textIndex = new QuadTree<>(
+            new org.whiteboard.common.Bounds(0, 0, 1200, 800));
+    private final Map<TextElement, Long> textOrder = new HashMap<>();
+    private long textCounter;
+
     private TextField editingField;
 
+    // What is painted on the canvas, to paint parts of it again on undo and redo
+    private final CanvasHistory history = new CanvasHistory();
+
     private final ConnectionManager connectionManager = ConnectionManager.getInstance();
 
     @FXML
@@ -218,7 +229,7 @@ public class CanvasController {
 
                 TextElement text = hitText(curr.getX(), curr.getY());
                 if (text != null) {
-                    textElements.remove(text);
+                    removeTextElement(text);
                     sendRemoveTextAction(text);
                     reDrawText();
                 }
@@ -286,7 +297,7 @@ public class CanvasController {
 
                     TextElement text = hitText(curr.getX(), curr.getY());
                     if (text != null) {
-                        textElements.remove(text);
+                        removeTextElement(text);
                         sendRemoveTextAction(text);
                         reDrawText();
                     }
@@ -345,6 +356,11 @@ public class CanvasController {
 
     // Render a remote draw action
     public void renderRemoteDrawAction(DrawAction action) {
+        history.add(action);
+        paintDrawAction(action);
+    }
+
+    private void paintDrawAction(DrawAction action) {
         gc.setStroke(Color.web(action.getColor()));
         gc.setLineWidth(action.getStrokeWidth());
 
@@ -354,14 +370,19 @@ public class CanvasController {
 
         switch (action.getShapeType()) {
             case FREEHAND -> {
-                List<Point> pts = action.getPoints();
+                PointList pts = action.getPoints();
                 // At least 2 points are needed to draw a line
                 if (pts.size() < 2) return;
-                Point a = pts.get(0), b = pts.get(1);
-                gc.strokeLine(a.getX(), a.getY(), b.getX(), b.getY());
+                // Segments merged by the server into one stroke are drawn one by one, as
+                // they were drawn live: a polyline would join them and cap only its ends
+                for (int i = 1; i < pts.size(); i++) {
+                    gc.strokeLine(pts.getX(i - 1), pts.getY(i - 1), pts.getX(i), pts.getY(i));
+                }
+            }
+            case POINT -> {
+                gc.setFill(Color.web(action.getColor()));
+                gc.fillRect(startPoint.getX() - size / 2, startPoint.getY() - size / 2, action.getStrokeWidth(), action.getStrokeWidth());
             }
-            case POINT ->
-                    gc.fillRect(startPoint.getX() - size / 2, startPoint.getY() - size / 2, action.getStrokeWidth(), action.getStrokeWidth());
             case LINE -> drawLine(startPoint, end, gc);
             case RECTANGLE -> drawRectangle(startPoint, end, gc);
             case OVAL -> drawOval(startPoint, end, gc);
@@ -371,6 +392,11 @@ public class CanvasController {
 
     // Render a remote erase action
     public void renderRemoteEraseAction(EraseAction eraseAction) {
+        history.add(eraseAction);
+        paintEraseAction(eraseAction);
+    }
+
+    private void paintEraseAction(EraseAction eraseAction) {
         double size = eraseAction.getEraserSize();
 
         // Erase point
@@ -386,6 +412,7 @@ public class CanvasController {
                 colorPicker.getValue().toString(),
                 slider.getValue()
         );
+        history.addOwn(action);
         connectionManager.drawAction(action)
                 .exceptionally(ex -> {
                     System.err.println("Error: Async Failure sending draw action: " + ex.getMessage());
@@ -401,6 +428,7 @@ public class CanvasController {
                 DrawAction.ShapeType.FREEHAND, List.of(p1, p2),
                 color.toString(), width
         );
+        history.addOwn(action);
         connectionManager.drawAction(action)
                 .exceptionally(ex -> {
                     System.err.println("Error: Async Failure sending draw action: " + ex.getMessage());
@@ -415,6 +443,7 @@ public class CanvasController {
                 List.of(point),
                 size
         );
+        history.addOwn(action);
         connectionManager.eraseAction(action)
                 .exceptionally(ex -> {
                     System.err.println("Error: Async Failure sending erase action: " + ex.getMessage());
@@ -433,6 +462,7 @@ public class CanvasController {
                 colorPicker.getValue().toString(),
                 slider.getValue()
         );
+        history.addOwn(action);
         connectionManager.drawAction(action)
                 .exceptionally(ex -> {
                     System.err.println("Error: Async Failure sending shape action: " + ex.getMessage());
@@ -562,7 +592,7 @@ public class CanvasController {
                     scale,
                     colorPicker.getValue()
             );
-            textElements.add(textElement);
+            addTextElement(textElement);
 
             // Send the text action to the server
             sendTextAction(textElement);
@@ -578,6 +608,7 @@ public class CanvasController {
                 TextAction.TextType.ADD,
                 textElement
         );
+        history.addOwn(action);
         connectionManager.textAction(action)
                 .exceptionally(ex -> {
                     System.err.println("Error: Async Failure sending text add action: " + ex.getMessage());
@@ -592,6 +623,7 @@ public class CanvasController {
                 TextAction.TextType.REMOVE,
                 textElement
         );
+        history.addOwn(action);
         connectionManager.textAction(action)
                 .exceptionally(ex -> {
                     System.err.println("Error: Async Failure sending text remove action: " + ex.getMessage());
@@ -601,6 +633,7 @@ public class CanvasController {
     }
 
     public void renderRemoteTextAction(TextAction textAction) {
+        history.add(textAction);
         tgc.setFill(Color.web(textAction.getColor()));
         tgc.setFont(new Font(textAction.getScale() * 4));
         double textHeight = computeTextHeight(textAction.getScale());
@@ -608,11 +641,12 @@ public class CanvasController {
 
         // add the text element to the list
         TextElement textElement = textAction.getTextElement();
-        textElements.add(textElement);
+        addTextElement(textElement);
     }
 
     public void renderRemoteRemoveTextActions(TextAction textActions) {
-        textElements.remove(textActions.getTextElement());
+        history.add(textActions);
+        removeTextElement(textActions.getTextElement());
         reDrawText();
     }
 
@@ -630,16 +664,39 @@ public class CanvasController {
     }
 
     private TextElement hitText(double x, double y) {
-        // Iterate in reverse order to find the topmost text element
-        for (int i = textElements.size() - 1; i >= 0; i--) {
-            TextElement t = textElements.get(i);
-
-            // Check if the point is within the bounds of the text element
-            if (t.bounds().contains(x, y)) {
-                return t;
+        // Only look at the text elements near the point, and take the topmost
+        TextElement hit = null;
+        long hitOrder = -1;
+        for (TextElement t : textIndex.query(new org.whiteboard.common.Bounds(x, y, x, y))) {
+            long order = textOrder.getOrDefault(t, 0L);
+            if (t.bounds().contains(x, y) && order > hitOrder) {
+                hit = t;
+                hitOrder = order;
             }
         }
-        return null;
+        return hit;
+    }
+
+    private void addTextElement(TextElement textElement) {
+        textElements.add(textElement);
+        textIndex.insert(textElement, textArea(textElement));
+        textOrder.put(textElement, ++textCounter);
+    }
+
+    private void removeTextElement(TextElement textElement) {
+        if (!textElements.remove(textElement)) {
+            return;
+        }
+        org.whiteboard.common.Bounds area = textArea(textElement);
+        textIndex.remove(textElement, area);
+        if (!textIndex.query(area).contains(textElement)) {
+            textOrder.remove(textElement);
+        }
+    }
+
+    private static org.whiteboard.common.Bounds textArea(TextElement textElement) {
+        Rectangle2D bounds = textElement.bounds();
+        return new org.whiteboard.common.Bounds(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
     }
 
     private void reDrawText() {
@@ -655,54 +712,6 @@ public class CanvasController {
         }
     }
 
-    // import canvas
-    public void importCanvas(String canvasData) {
-        try {
-            // Rebuild canvas
-            parseAndRebuildCanvas(canvasData);
-
-        } catch (Exception e) {
-            System.err.println("Error: Fail to import data" + e.getMessage());
-        }
-    }
-
-    private void parseAndRebuildCanvas(String canvasData) {
-        try {
-            byte[] data = Base64.getDecoder().decode(canvasData);
-            try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
-                 ObjectInputStream ois = new ObjectInputStream(bis)) {
-
-                @SuppressWarnings("unchecked")
-                List<Action> actions = (List<Action>) ois.readObject();
-
-                // clean the current canvas
-                gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-                tgc.clearRect(0, 0, textCanvas.getWidth(), textCanvas.getHeight());
-                textElements.clear();
-
-                // use actions to rebuild canvas in local
-                for (Action action : actions) {
-                    if (action instanceof DrawAction) {
-                        renderRemoteDrawAction((DrawAction) action);
-                    } else if (action instanceof EraseAction) {
-                        renderRemoteEraseAction((EraseAction) action);
-                    } else if (action instanceof TextAction textAction) {
-                        if (Objects.equals(textAction.getType(), "Action.Text")) {
-                            renderRemoteTextAction(textAction);
-                        } else {
-                            renderRemoteRemoveTextActions(textAction);
-                        }
-                    }
-                }
-
-                System.out.println("Canvas rebuild success, rebuild: " + actions.size() + " actions");
-            }
-        } catch (Exception e) {
-            System.err.println("Error: Canvas rebuild failed" + e.getMessage());
-        }
-    }
-
-
     public void exportCanvasAsImage(String filename, String downloadDir, String type) throws IOException {
         File outputFile = new File(downloadDir, filename);
 
@@ -722,6 +731,81 @@ public class CanvasController {
         gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
     }
 
+    // Draw a raster tile of a sync, below the actions that follow it
+    public void drawTile(Image tile, double x, double y) {
+        history.addTile(tile, x, y);
+        gc.drawImage(tile, x, y);
+    }
+
+    /**
+     * Hide or show again an undone or redone gesture. Texts are taken off or put back,
+     * drawings are painted again from the history, only where the gesture painted.
+     *
+     * @param undo the tombstone
+     */
+    public void applyUndo(UndoAction undo) {
+        org.whiteboard.common.Bounds dirty = null;
+        boolean textChanged = false;
+        for (CanvasHistory.Entry entry : history.apply(undo, connectionManager.getUsername())) {
+            if (entry.getAction() instanceof TextAction text) {
+                if (entry.isHidden()) {
+                    removeTextElement(text.getTextElement());
+                } else {
+                    addTextElement(text.getTextElement());
+                }
+                textChanged = true;
+            } else {
+                dirty = dirty == null ? entry.getArea() : dirty.union(entry.getArea());
+            }
+        }
+        if (textChanged) {
+            reDrawText();
+        }
+        if (dirty != null) {
+            repaint(dirty);
+        }
+    }
+
+    // Paint an area again from the sync tiles and the shown actions
+    private void repaint(org.whiteboard.common.Bounds area) {
+        double x = Math.floor(area.minX());
+        double y = Math.floor(area.minY());
+        double w = Math.ceil(area.maxX()) - x;
+        double h = Math.ceil(area.maxY()) - y;
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(x, y, w, h);
+        gc.clip();
+        gc.clearRect(x, y, w, h);
+        for (CanvasHistory.Tile tile : history.getTiles()) {
+            org.whiteboard.common.Bounds tileArea = new org.whiteboard.common.Bounds(
+                    tile.x(), tile.y(), tile.x() + tile.image().getWidth(), tile.y() + tile.image().getHeight());
+            if (tileArea.intersects(area)) {
+                gc.drawImage(tile.image(), tile.x(), tile.y());
+            }
+        }
+        for (CanvasHistory.Entry entry : history.visibleIn(area)) {
+            switch (entry.getAction()) {
+                case DrawAction draw -> paintDrawAction(draw);
+                case EraseAction erase -> paintEraseAction(erase);
+                default -> {
+                }
+            }
+        }
+        gc.restore();
+    }
+
+    // Clear drawings and text, before a sync rebuilds the canvas
+    public void resetCanvas() {
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        tgc.clearRect(0, 0, textCanvas.getWidth(), textCanvas.getHeight());
+        textElements.clear();
+        textIndex.clear();
+        textOrder.clear();
+        history.clear();
+    }
+
     public void blockCanvas() {
         canvas.setDisable(true);
         connectionManager.getMainController().setLabelText("Canvas is closed");
@@ -16,7 +16,6 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.concurrent.CompletableFuture;
@@ -46,6 +45,15 @@ public class MainController {
     @FXML
     public MenuItem fileClose;
 
+    @FXML
+    public Menu menuEdit;
+
+    @FXML
+    public MenuItem editUndo;
+
+    @FXML
+    public MenuItem editRedo;
+
     @FXML
     public Label label;
 
@@ -66,6 +74,9 @@ public class MainController {
 
         fileSave.setOnAction(e -> saveFile());
         fileOpen.setOnAction(e -> openFile());
+
+        editUndo.setOnAction(e -> undo(false));
+        editRedo.setOnAction(e -> undo(true));
     }
 
     public void initialClient(boolean isAdmin) {
@@ -112,6 +123,15 @@ public class MainController {
         }
     }
 
+    private void undo(boolean redo) {
+        CompletableFuture<Void> future = redo ? connectionManager.redo() : connectionManager.undo();
+        future.exceptionally(ex -> {
+            System.err.println("Error: Fail to " + (redo ? "redo" : "undo") + ": " + ex.getMessage());
+
+            return null;
+        });
+    }
+
     private void closeFile() {
         try {
             connectionManager.closeCanvas()
@@ -155,8 +175,10 @@ public class MainController {
     private void openFile() {
         FileChooser chooser = new FileChooser();
         chooser.setTitle("Open Canvas File");
-        chooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("Canvas files (*.txt)", "*.txt")
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Canvas files (*.wbd, *.txt)", "*.wbd", "*.txt"),
+                new FileChooser.ExtensionFilter("Board files (*.wbd)", "*.wbd"),
+                new FileChooser.ExtensionFilter("Text canvas files (*.txt)", "*.txt")
         );
 
 
@@ -165,6 +187,12 @@ public class MainController {
             return;
         }
 
+        if (selectedFile.getName().endsWith(".wbd")) {
+            // Mapped and uploaded as is, the server decodes it
+            handleImport(connectionManager.importBoardFrom(selectedFile.toPath()));
+            return;
+        }
+
         try {
             String content = Files.readString(selectedFile.toPath(), StandardCharsets.UTF_8);
 
@@ -177,13 +205,7 @@ public class MainController {
             // Strip header
             String canvasData = content.substring("CanvasData:".length()).stripLeading();
 
-            connectionManager.openCanvas(canvasData).exceptionally(ex -> {
-                Platform.runLater(() -> {
-                    connectionManager.getChatController().receiveMessage("System: ", "Failed to import canvas, please check canvas data format is correct?");
-                });
-                System.err.println("Error: Fail to import canvas: " + ex.getMessage());
-                return null;
-            });
+            handleImport(connectionManager.openCanvas(canvasData));
 
         } catch (IOException ex) {
             connectionManager.getChatController().receiveMessage("System: ", "Unable to read selected file.");
@@ -191,48 +213,35 @@ public class MainController {
         }
     }
 
-
-    private void saveFile() {
-        CompletableFuture<String> exportFuture = connectionManager.saveCanvas();
-        exportFuture.thenAccept(canvasData -> Platform.runLater(() -> {
-            if (canvasData == null) {
-                connectionManager.getChatController()
-                        .receiveMessage("System: ", "No canvas data received from server.");
-                return;
-            }
-
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            String filename = "canvas_data_" + timestamp + ".txt";
-            Path downloadDir = Paths.get(getDownloadDirectory());
-            Path filePath = downloadDir.resolve(filename);
-
-            try {
-                // Write header + data
-                String content = "CanvasData:\n" + canvasData;
-                Files.writeString(
-                        filePath,
-                        content,
-                        StandardCharsets.UTF_8,
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.TRUNCATE_EXISTING
-                );
-
-                connectionManager.getChatController()
-                        .receiveMessage("System: ", "Canvas exported to " + filePath);
-            } catch (IOException ex) {
-                connectionManager.getChatController()
-                        .receiveMessage("System: ", "Failed to write canvas file.");
-                System.err.println("Error: Fail to write canvas file: " + ex.getMessage());
-            }
-        })).exceptionally(ex -> {
+    private void handleImport(CompletableFuture<Void> importing) {
+        importing.exceptionally(ex -> {
             Platform.runLater(() -> {
-                connectionManager.getChatController()
-                        .receiveMessage("System: ", "Failed to export canvas: " + ex.getMessage());
+                connectionManager.getChatController().receiveMessage("System: ", "Failed to import canvas, please check canvas data format is correct?");
             });
-            System.err.println("Error: Fail to export canvas: " + ex.getMessage());
+            System.err.println("Error: Fail to import canvas: " + ex.getMessage());
             return null;
         });
     }
 
 
+    private void saveFile() {
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        String filename = "canvas_data_" + timestamp + ".wbd";
+        Path filePath = Paths.get(getDownloadDirectory()).resolve(filename);
+
+        // Written to the file as it arrives, the canvas is never held in memory as a whole
+        connectionManager.exportBoardTo(filePath)
+                .thenRun(() -> Platform.runLater(() -> connectionManager.getChatController()
+                        .receiveMessage("System: ", "Canvas exported to " + filePath)))
+                .exceptionally(ex -> {
+                    Platform.runLater(() -> {
+                        connectionManager.getChatController()
+                                .receiveMessage("System: ", "Failed to export canvas: " + ex.getMessage());
+                    });
+                    System.err.println("Error: Fail to export canvas: " + ex.getMessage());
+                    return null;
+                });
+    }
+
+
 }
\ No newline at end of file
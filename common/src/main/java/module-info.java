@@ -1,7 +1,9 @@
 module org.whiteboard.common {
     exports org.whiteboard.common.rmi;
     exports org.whiteboard.common.action;
+    exports org.whiteboard.common.codec;
     exports org.whiteboard.common.event;
+    exports org.whiteboard.common.spatial;
     exports org.whiteboard.common;
     requires com.google.gson;
     requires java.rmi;
@@ -0,0 +1,143 @@
+package org.whiteboard.common;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Immutable axis-aligned rectangle in whiteboard coordinates.
+ *
+ * @param minX left edge
+ * @param minY top edge
+ * @param maxX right edge
+ * @param maxY bottom edge
+ */
+public record Bounds(double minX, double minY, double maxX, double maxY) implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Bounds of the rectangle spanned by two corners, in any order.
+     */
+    public static Bounds of(Point a, Point b) {
+        return new Bounds(
+                Math.min(a.getX(), b.getX()),
+                Math.min(a.getY(), b.getY()),
+                Math.max(a.getX(), b.getX()),
+                Math.max(a.getY(), b.getY())
+        );
+    }
+
+    /**
+     * Bounds of a square of the given size centred on a point.
+     */
+    public static Bounds square(Point center, double size) {
+        double half = size / 2;
+        return new Bounds(center.getX() - half, center.getY() - half, center.getX() + half, center.getY() + half);
+    }
+
+    /**
+     * Bounds enclosing all given points, or null if there are none.
+     */
+    public static Bounds enclosing(List<Point> points) {
+        if (points instanceof PointList packed) {
+            return packed.bounds();
+        }
+        if (points.isEmpty()) {
+            return null;
+        }
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Point p : points) {
+            minX = Math.min(minX, p.getX());
+            minY = Math.min(minY, p.getY());
+            maxX = Math.max(maxX, p.getX());
+            maxY = Math.max(maxY, p.getY());
+        }
+        return new Bounds(minX, minY, maxX, maxY);
+    }
+
+    public double width() {
+        return maxX - minX;
+    }
+
+    public double height() {
+        return maxY - minY;
+    }
+
+    public boolean isEmpty() {
+        return maxX <= minX || maxY <= minY;
+    }
+
+    /**
+     * Grow by the given margin on every side.
+     */
+    public Bounds inflate(double margin) {
+        return new Bounds(minX - margin, minY - margin, maxX + margin, maxY + margin);
+    }
+
+    /**
+     * Smallest bounds enclosing this and the other one.
+     */
+    public Bounds union(Bounds other) {
+        return new Bounds(
+                Math.min(minX, other.minX),
+                Math.min(minY, other.minY),
+                Math.max(maxX, other.maxX),
+                Math.max(maxY, other.maxY)
+        );
+    }
+
+    /**
+     * Whether both rectangles share an area, touching edges don't count.
+     */
+    public boolean intersects(Bounds other) {
+        return other.minX < maxX && other.maxX > minX && other.minY < maxY && other.maxY > minY;
+    }
+
+    /**
+     * Whether both rectangles share at least a point, touching edges count.
+     */
+    public boolean touches(Bounds other) {
+        return other.minX <= maxX && other.maxX >= minX && other.minY <= maxY && other.maxY >= minY;
+    }
+
+    /**
+     * Whether the other rectangle lies completely inside this one.
+     */
+    public boolean contains(Bounds other) {
+        return other.minX >= minX && other.maxX <= maxX && other.minY >= minY && other.maxY <= maxY;
+    }
+
+    public boolean contains(double x, double y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    /**
+     * Add the parts of this rectangle not covered by the other one, at most four rectangles.
+     *
+     * @param other the rectangle to cut away
+     * @param into  receives the remaining parts
+     */
+    public void subtract(Bounds other, List<Bounds> into) {
+        if (!intersects(other)) {
+            into.add(this);
+            return;
+        }
+        // Full-width strips above and below, then the pieces left and right of the cut
+        double top = Math.max(minY, other.minY);
+        double bottom = Math.min(maxY, other.maxY);
+        if (other.minY > minY) {
+            into.add(new Bounds(minX, minY, maxX, other.minY));
+        }
+        if (other.maxY < maxY) {
+            into.add(new Bounds(minX, other.maxY, maxX, maxY));
+        }
+        if (other.minX > minX) {
+            into.add(new Bounds(minX, top, other.minX, bottom));
+        }
+        if (other.maxX < maxX) {
+            into.add(new Bounds(other.maxX, top, maxX, bottom));
+        }
+    }
+}
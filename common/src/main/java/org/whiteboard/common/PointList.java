@@ -0,0 +1,177 @@
+package org.whiteboard.common;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of points packed into one float array, x and y interleaved.
+ * <p>
+ * A stroke of n points takes 8n bytes instead of n point objects and an array of
+ * references. Points are created on access; hot loops read the coordinates directly
+ * with {@link #getX(int)} and {@link #getY(int)}. Floats keep whiteboard coordinates to
+ * well below a thousandth of a pixel.
+ */
+public final class PointList extends AbstractList<Point> implements RandomAccess, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final PointList EMPTY = new PointList(new float[0]);
+
+    private final float[] coordinates;
+
+    private PointList(float[] coordinates) {
+        this.coordinates = coordinates;
+    }
+
+    /**
+     * Pack a list of points, returned as is if it is already packed.
+     */
+    public static PointList copyOf(List<Point> points) {
+        if (points instanceof PointList packed) {
+            return packed;
+        }
+        if (points.isEmpty()) {
+            return EMPTY;
+        }
+        float[] coordinates = new float[points.size() * 2];
+        int i = 0;
+        for (Point point : points) {
+            coordinates[i++] = (float) point.getX();
+            coordinates[i++] = (float) point.getY();
+        }
+        return new PointList(coordinates);
+    }
+
+    /**
+     * Points from interleaved coordinates, x0, y0, x1, y1, ...
+     */
+    public static PointList of(float... coordinates) {
+        if (coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of coordinates: " + coordinates.length);
+        }
+        return coordinates.length == 0 ? EMPTY : new PointList(coordinates.clone());
+    }
+
+    @Override
+    public int size() {
+        return coordinates.length >> 1;
+    }
+
+    @Override
+    public Point get(int index) {
+        Objects.checkIndex(index, size());
+        return new Point(coordinates[index * 2], coordinates[index * 2 + 1]);
+    }
+
+    public double getX(int index) {
+        Objects.checkIndex(index, size());
+        return coordinates[index * 2];
+    }
+
+    public double getY(int index) {
+        Objects.checkIndex(index, size());
+        return coordinates[index * 2 + 1];
+    }
+
+    /**
+     * Bounds enclosing all points, or null if there are none.
+     */
+    public Bounds bounds() {
+        if (coordinates.length == 0) {
+            return null;
+        }
+        float minX = coordinates[0], minY = coordinates[1];
+        float maxX = minX, maxY = minY;
+        for (int i = 2; i < coordinates.length; i += 2) {
+            minX = Math.min(minX, coordinates[i]);
+            maxX = Math.max(maxX, coordinates[i]);
+            minY = Math.min(minY, coordinates[i + 1]);
+            maxY = Math.max(maxY, coordinates[i + 1]);
+        }
+        return new Bounds(minX, minY, maxX, maxY);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof PointList other) {
+            return Arrays.equals(coordinates, other.coordinates);
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        // As for any list of the same points
+        return super.hashCode();
+    }
+
+    /**
+     * Collects points into a growing packed array, e.g. while segments are merged into a stroke.
+     * Not thread safe.
+     */
+    public static final class Builder {
+        private float[] coordinates;
+        private int length;
+
+        public Builder() {
+            this(8);
+        }
+
+        /**
+         * @param capacity number of points to make room for
+         */
+        public Builder(int capacity) {
+            coordinates = new float[Math.max(1, capacity) * 2];
+        }
+
+        public Builder add(double x, double y) {
+            ensureCapacity(length + 2);
+            coordinates[length++] = (float) x;
+            coordinates[length++] = (float) y;
+            return this;
+        }
+
+        /**
+         * Append the points of a list from an index on.
+         */
+        public Builder addAll(PointList points, int from) {
+            int count = (points.size() - from) * 2;
+            if (count <= 0) {
+                return this;
+            }
+            ensureCapacity(length + count);
+            System.arraycopy(points.coordinates, from * 2, coordinates, length, count);
+            length += count;
+            return this;
+        }
+
+        public int size() {
+            return length >> 1;
+        }
+
+        public double getX(int index) {
+            Objects.checkIndex(index, size());
+            return coordinates[index * 2];
+        }
+
+        public double getY(int index) {
+            Objects.checkIndex(index, size());
+            return coordinates[index * 2 + 1];
+        }
+
+        public PointList build() {
+            return length == 0 ? EMPTY : new PointList(Arrays.copyOf(coordinates, length));
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, Math.max(capacity, coordinates.length * 2));
+            }
+        }
+    }
+}
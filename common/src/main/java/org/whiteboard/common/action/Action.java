@@ -2,32 +2,90 @@ package org.whiteboard.common.action;
 
 import org.whiteboard.common.event.IEvent;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.io.Serial;
 import java.io.Serializable;
+import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for all whiteboard actions.
+ * <p>
+ * An action is identified by a long: a random id of the process that created it in the
+ * high 32 bits and a counter of that process in the low 32 bits, so ids are made without
+ * locks or a secure random per action. Creation time is kept as epoch milliseconds.
+ * <p>
+ * Creation times come from the clients' clocks and can go back between senders. The server
+ * also stamps when it accepted the action, which never goes back along the history.
  */
 public abstract class Action implements Serializable, IEvent {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    private final String actionId;
-    private final String username;
-    private final Instant timestamp;
+    // Histories saved before ids were packed into longs hold a UUID string and an Instant
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", long.class),
+            new ObjectStreamField("createdAt", long.class),
+            new ObjectStreamField("username", String.class),
+            new ObjectStreamField("sequence", long.class),
+            new ObjectStreamField("previousSequence", long.class),
+            new ObjectStreamField("receivedAt", long.class),
+    };
+
+    private static final long PROCESS_ID = (long) new SecureRandom().nextInt() << 32;
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    // Not final only so that readObject can restore them
+    private long actionId;
+    private String username;
+    private long timestamp;
+
+    // Assigned by the server when the action is accepted, 0 until then
+    private long sequence;
+
+    // Sequence of the previous action accepted from the same user, 0 if none
+    private long previousSequence;
+
+    // Server time the action was accepted at in epoch milliseconds, 0 until then
+    private long receivedAt;
 
     /**
      * @param username  the user who generated this action
      */
     public Action(String username) {
-        this.actionId = UUID.randomUUID().toString();
+        this.actionId = PROCESS_ID | (COUNTER.incrementAndGet() & 0xFFFFFFFFL);
+        this.username = username;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Restore a decoded action with its original identity.
+     *
+     * @param actionId  id of the original action
+     * @param username  the user who generated this action
+     * @param timestamp creation time of the original action in epoch milliseconds
+     */
+    protected Action(long actionId, String username, long timestamp) {
+        this.actionId = actionId;
         this.username = username;
-        this.timestamp = Instant.now();
+        this.timestamp = timestamp;
     }
 
-    public String getActionId() {
+    /**
+     * Fold an action id of the UUID form used before ids were packed into longs.
+     */
+    public static long legacyActionId(UUID uuid) {
+        return uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+    }
+
+    public long getActionId() {
         return actionId;
     }
 
@@ -36,16 +94,102 @@ public abstract class Action implements Serializable, IEvent {
     }
 
     public Instant getTimestamp() {
+        return Instant.ofEpochMilli(timestamp);
+    }
+
+    /**
+     * Creation time in epoch milliseconds.
+     */
+    public long getTimestampMillis() {
         return timestamp;
     }
 
+    /**
+     * Global sequence number assigned by the server, 0 if not yet sequenced.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Sequence number of the previous action accepted from the same user, 0 if none.
+     * Lets a receiver detect a missing action from that user without tracking the whole stream.
+     */
+    public long getPreviousSequence() {
+        return previousSequence;
+    }
+
+    /**
+     * Server time the action was accepted at in epoch milliseconds, 0 if not yet accepted
+     * or accepted before servers stamped it. Never decreases along a server's history.
+     */
+    public long getReceivedMillis() {
+        return receivedAt;
+    }
+
+    /**
+     * Stamp this action with the server time it was accepted at.
+     *
+     * @param receivedMillis epoch milliseconds
+     */
+    public void assignReceivedMillis(long receivedMillis) {
+        this.receivedAt = receivedMillis;
+    }
+
+    /**
+     * Stamp this action with its position in the server's total order.
+     *
+     * @param sequence         global sequence number
+     * @param previousSequence sequence of the user's previous action, 0 if none
+     */
+    public void assignSequence(long sequence, long previousSequence) {
+        this.sequence = sequence;
+        this.previousSequence = previousSequence;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", actionId);
+        fields.put("createdAt", timestamp);
+        fields.put("username", username);
+        fields.put("sequence", sequence);
+        fields.put("previousSequence", previousSequence);
+        fields.put("receivedAt", receivedAt);
+        out.writeFields();
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        ObjectStreamClass written = fields.getObjectStreamClass();
+        username = (String) fields.get("username", null);
+        sequence = fields.get("sequence", 0L);
+        previousSequence = fields.get("previousSequence", 0L);
+        receivedAt = written.getField("receivedAt") == null ? 0 : fields.get("receivedAt", 0L);
+        if (written.getField("id") != null) {
+            actionId = fields.get("id", 0L);
+            timestamp = fields.get("createdAt", 0L);
+            return;
+        }
+        String legacyId = (String) fields.get("actionId", null);
+        Instant legacyTime = (Instant) fields.get("timestamp", null);
+        try {
+            actionId = legacyId == null ? 0 : legacyActionId(UUID.fromString(legacyId));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Action id is not a UUID: " + legacyId, e);
+        }
+        timestamp = legacyTime == null ? 0 : legacyTime.toEpochMilli();
+    }
+
     @Override
     public String toString() {
         return String.format(
-                "Action[id=%s, user=%s, time=%s]",
+                "Action[id=%016x, seq=%d, user=%s, time=%s]",
                 actionId,
+                sequence,
                 username,
-                timestamp
+                getTimestamp()
         );
     }
 }
@@ -1,7 +1,11 @@
 package org.whiteboard.common.action;
 
+import org.whiteboard.common.Bounds;
 import org.whiteboard.common.Point;
+import org.whiteboard.common.PointList;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.util.List;
 
@@ -24,14 +28,16 @@ public final class DrawAction extends Action {
     }
 
     private final ShapeType shapeType;
-    private final List<Point> points;
+    // Always a PointList once constructed or read. Declared as a list, and not final, so
+    // that histories saved with lists of point objects can still be read.
+    private List<Point> points;
     private final String color;
     private final double strokeWidth;
 
     /**
      * @param username    creator username
      * @param shapeType   type of shape drawn
-     * @param points      list of points defining the shape
+     * @param points      list of points defining the shape, packed unless already a {@link PointList}
      * @param color       stroke color in hex (e.g. "#FF0000")
      * @param strokeWidth width of the stroke in pixels
      */
@@ -44,7 +50,34 @@ public final class DrawAction extends Action {
     ) {
         super(username);
         this.shapeType = shapeType;
-        this.points = List.copyOf(points);
+        this.points = PointList.copyOf(points);
+        this.color = color;
+        this.strokeWidth = strokeWidth;
+    }
+
+    /**
+     * Restore a decoded draw action.
+     *
+     * @param actionId    id of the original action
+     * @param username    creator username
+     * @param timestamp   creation time of the original action in epoch milliseconds
+     * @param shapeType   type of shape drawn
+     * @param points      list of points defining the shape
+     * @param color       stroke color
+     * @param strokeWidth width of the stroke in pixels
+     */
+    public DrawAction(
+            long actionId,
+            String username,
+            long timestamp,
+            ShapeType shapeType,
+            List<Point> points,
+            String color,
+            double strokeWidth
+    ) {
+        super(actionId, username, timestamp);
+        this.shapeType = shapeType;
+        this.points = PointList.copyOf(points);
         this.color = color;
         this.strokeWidth = strokeWidth;
     }
@@ -53,8 +86,8 @@ public final class DrawAction extends Action {
         return shapeType;
     }
 
-    public List<Point> getPoints() {
-        return points;
+    public PointList getPoints() {
+        return (PointList) points;
     }
 
     public String getColor() {
@@ -65,6 +98,28 @@ public final class DrawAction extends Action {
         return strokeWidth;
     }
 
+    /**
+     * How far the ink may reach beyond the points: square caps and miters reach half the
+     * width diagonally, antialiasing one more pixel.
+     */
+    public double getInkMargin() {
+        return strokeWidth / 2 * Math.sqrt(2) + 1;
+    }
+
+    /**
+     * Area the action may paint, null without points.
+     */
+    public Bounds getInkBounds() {
+        Bounds bounds = getPoints().bounds();
+        return bounds == null ? null : bounds.inflate(getInkMargin());
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        points = PointList.copyOf(points);
+    }
+
     @Override
     public String toString() {
         return String.format(
@@ -1,7 +1,10 @@
 package org.whiteboard.common.action;
 
 import org.whiteboard.common.Point;
+import org.whiteboard.common.PointList;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.util.List;
 
@@ -12,7 +15,8 @@ public final class EraseAction extends Action {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    private final List<Point> erasePath;
+    // Always a PointList, see DrawAction
+    private List<Point> erasePath;
     private final double eraserSize;
 
     /**
@@ -26,18 +30,45 @@ public final class EraseAction extends Action {
             double eraserSize
     ) {
         super(username);
-        this.erasePath = List.copyOf(erasePath);
+        this.erasePath = PointList.copyOf(erasePath);
         this.eraserSize = eraserSize;
     }
 
-    public List<Point> getErasePath() {
-        return erasePath;
+    /**
+     * Restore a decoded erase action.
+     *
+     * @param actionId   id of the original action
+     * @param username   creator username
+     * @param timestamp  creation time of the original action in epoch milliseconds
+     * @param erasePath  list of points that were erased
+     * @param eraserSize diameter of the eraser in pixels
+     */
+    public EraseAction(
+            long actionId,
+            String username,
+            long timestamp,
+            List<Point> erasePath,
+            double eraserSize
+    ) {
+        super(actionId, username, timestamp);
+        this.erasePath = PointList.copyOf(erasePath);
+        this.eraserSize = eraserSize;
+    }
+
+    public PointList getErasePath() {
+        return (PointList) erasePath;
     }
 
     public double getEraserSize() {
         return eraserSize;
     }
 
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        erasePath = PointList.copyOf(erasePath);
+    }
+
     @Override
     public String toString() {
         return String.format(
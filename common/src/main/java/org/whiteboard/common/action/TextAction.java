@@ -54,6 +54,26 @@ public class TextAction extends Action {
         this.height = height;
     }
 
+    /**
+     * Restore a decoded text action.
+     *
+     * @param actionId  id of the original action
+     * @param username  the user who generated this action
+     * @param timestamp creation time of the original action in epoch milliseconds
+     */
+    public TextAction(long actionId, String username, long timestamp, String text, Point position, Double scale, String color, TextType type, double minX, double minY, double width, double height) {
+        super(actionId, username, timestamp);
+        this.text = text;
+        this.position = position;
+        this.scale = scale;
+        this.color = color;
+        this.type = type;
+        this.minX = minX;
+        this.minY = minY;
+        this.width = width;
+        this.height = height;
+    }
+
     public TextAction(String username, TextType type, TextElement textElement) {
         super(username);
         this.text = textElement.text();
@@ -83,6 +103,22 @@ public class TextAction extends Action {
         return color;
     }
 
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
     public TextElement getTextElement() {
         return new TextElement(
                 text,
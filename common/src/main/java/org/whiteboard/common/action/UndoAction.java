@@ -0,0 +1,128 @@
+package org.whiteboard.common.action;
+
+import java.io.Serial;
+import java.util.List;
+
+/**
+ * Tombstone that hides, or shows again, one of the user's earlier gestures: a whole
+ * freehand stroke, a shape, a point or a text.
+ * <p>
+ * The gesture is the user's own actions from the first to the last one named here, by
+ * sequence number for receivers that got them from the server, and by action id for the
+ * sender, who drew them locally. A redo also carries the actions of the gesture, for
+ * receivers that joined while it was hidden and never saw them.
+ */
+public final class UndoAction extends Action {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final boolean redo;
+    private final long fromSequence;
+    private final long toSequence;
+    private final long fromActionId;
+    private final long toActionId;
+    private final List<Action> restored;
+
+    /**
+     * @param username     the user undoing one of their gestures
+     * @param redo         true to show the gesture again, false to hide it
+     * @param fromSequence sequence of the first action of the gesture
+     * @param toSequence   sequence of the last action of the gesture
+     * @param fromActionId id of the first action of the gesture
+     * @param toActionId   id of the last action of the gesture
+     * @param restored     the actions of the gesture for a redo, empty for an undo
+     */
+    public UndoAction(
+            String username,
+            boolean redo,
+            long fromSequence,
+            long toSequence,
+            long fromActionId,
+            long toActionId,
+            List<Action> restored
+    ) {
+        super(username);
+        this.redo = redo;
+        this.fromSequence = fromSequence;
+        this.toSequence = toSequence;
+        this.fromActionId = fromActionId;
+        this.toActionId = toActionId;
+        this.restored = List.copyOf(restored);
+    }
+
+    /**
+     * Restore a decoded undo action.
+     *
+     * @param actionId  id of the original action
+     * @param username  the user undoing one of their gestures
+     * @param timestamp creation time of the original action in epoch milliseconds
+     */
+    public UndoAction(
+            long actionId,
+            String username,
+            long timestamp,
+            boolean redo,
+            long fromSequence,
+            long toSequence,
+            long fromActionId,
+            long toActionId,
+            List<Action> restored
+    ) {
+        super(actionId, username, timestamp);
+        this.redo = redo;
+        this.fromSequence = fromSequence;
+        this.toSequence = toSequence;
+        this.fromActionId = fromActionId;
+        this.toActionId = toActionId;
+        this.restored = List.copyOf(restored);
+    }
+
+    public boolean isRedo() {
+        return redo;
+    }
+
+    public long getFromSequence() {
+        return fromSequence;
+    }
+
+    public long getToSequence() {
+        return toSequence;
+    }
+
+    public long getFromActionId() {
+        return fromActionId;
+    }
+
+    public long getToActionId() {
+        return toActionId;
+    }
+
+    /**
+     * The actions of the gesture in history order for a redo, empty for an undo.
+     */
+    public List<Action> getRestored() {
+        return restored;
+    }
+
+    /**
+     * Whether an action of the same user is part of the gesture, by its sequence number.
+     */
+    public boolean covers(long sequence) {
+        return sequence >= fromSequence && sequence <= toSequence;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "UndoAction[%s, seq=%d..%d]",
+                redo ? "redo" : "undo",
+                fromSequence,
+                toSequence
+        );
+    }
+
+    @Override
+    public String getType() {
+        return "Action.Undo";
+    }
+}
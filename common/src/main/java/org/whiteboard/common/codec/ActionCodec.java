@@ -0,0 +1,58 @@
+package org.whiteboard.common.codec;
+
+import org.whiteboard.common.action.Action;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.List;
+
+/**
+ * Encodes actions into byte payloads and back.
+ * The server encodes each broadcast action once and sends the same bytes to every
+ * recipient, so RMI only copies a byte array instead of re-serializing the action.
+ * Payloads use {@link BinaryActionCodec}; Java serialized payloads are still accepted.
+ */
+public final class ActionCodec {
+
+    private ActionCodec() {
+    }
+
+    /**
+     * Encode an action into a byte payload.
+     *
+     * @param action the action to encode
+     * @return encoded bytes
+     * @throws IOException if the action cannot be serialized
+     */
+    public static byte[] encode(Action action) throws IOException {
+        return BinaryActionCodec.encode(action);
+    }
+
+    /**
+     * Decode a byte payload produced by {@link #encode(Action)}.
+     *
+     * @param payload encoded bytes
+     * @return the decoded action
+     * @throws IOException if the payload is not a valid action
+     */
+    public static Action decode(byte[] payload) throws IOException {
+        if (BinaryActionCodec.isBinary(payload)) {
+            List<Action> actions = BinaryActionCodec.decode(payload);
+            if (actions.size() != 1) {
+                throw new IOException("Payload holds " + actions.size() + " actions");
+            }
+            return actions.getFirst();
+        }
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(payload);
+             ObjectInputStream ois = new ObjectInputStream(bis)) {
+            Object decoded = ois.readObject();
+            if (decoded instanceof Action action) {
+                return action;
+            }
+            throw new IOException("Payload is not an action: " + decoded.getClass().getName());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown action class in payload", e);
+        }
+    }
+}
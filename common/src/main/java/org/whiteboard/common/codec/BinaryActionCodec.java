@@ -0,0 +1,637 @@
+package org.whiteboard.common.codec;
+
+import org.whiteboard.common.Point;
+import org.whiteboard.common.PointList;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.action.EraseAction;
+import org.whiteboard.common.action.TextAction;
+import org.whiteboard.common.action.UndoAction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact, versioned binary format of actions.
+ * <p>
+ * A stream starts with a version byte followed by any number of actions. Each action is
+ * a type tag, its sequence numbers, user, timestamp and server receive time as varints
+ * relative to the previous action of the stream, the action id as 8 raw bytes, then the
+ * type specific fields. Streams of version 1, with 16 byte UUID ids, and of versions 2
+ * and 3, without receive times, are still read.
+ * Usernames are sent once per stream and referred to by index afterwards. Colors in
+ * "0xrrggbbaa" form are packed into an int. Draw and erase coordinates that lie on a
+ * 1/{@value #COORDINATE_SCALE} pixel grid, as mouse input mostly does, are delta encoded
+ * along the path in those units; any other path is written as raw floats, so a decoded
+ * action always equals the encoded one. The format is also how boards are saved, logged
+ * and kept off the heap, and stroke merging compares endpoints exactly, so a restored board
+ * must be the board that was drawn. Version 2 streams quantized every path to that grid.
+ * Text geometry is kept exact, since clients match text elements for removal by equality.
+ * An undo names the first and last action of the gesture relative to its own sequence; a
+ * redo is followed by the actions it restores, written like any other.
+ */
+public final class BinaryActionCodec {
+
+    public static final byte VERSION = 4;
+
+    // Action ids were UUIDs, folded into longs when read
+    private static final byte VERSION_UUID_IDS = 1;
+
+    // Draw and erase geometry was always quantized, with no exact form
+    private static final byte VERSION_QUANTIZED = 2;
+
+    // Actions had no server receive time
+    private static final byte VERSION_UNSTAMPED = 3;
+
+    // Coordinates and sizes of draw and erase actions on the grid are stored in 1/8 pixel units
+    static final int COORDINATE_SCALE = 8;
+
+    private static final int TAG_DRAW = 1;
+    private static final int TAG_ERASE = 2;
+    private static final int TAG_TEXT = 3;
+    private static final int TAG_UNDO = 4;
+    private static final int TAG_TYPE_MASK = 0x0F;
+
+    // The color doesn't fit an int and follows as a string
+    private static final int FLAG_LITERAL_COLOR = 0x10;
+
+    // The undo shows its gesture again
+    private static final int FLAG_REDO = 0x20;
+
+    // Draw or erase geometry off the 1/8 pixel grid, written as raw floats and doubles
+    private static final int FLAG_EXACT_GEOMETRY = 0x40;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final DrawAction.ShapeType[] SHAPE_TYPES = DrawAction.ShapeType.values();
+    private static final TextAction.TextType[] TEXT_TYPES = TextAction.TextType.values();
+
+    private BinaryActionCodec() {
+    }
+
+    /**
+     * Encode a single action as a stream of its own.
+     *
+     * @param action the action
+     * @return encoded bytes
+     * @throws IOException if the action cannot be encoded
+     */
+    public static byte[] encode(Action action) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+        new Writer(bos).write(action);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Encode actions as one stream, sharing the username table and deltas between them.
+     *
+     * @param actions actions in history order
+     * @return encoded bytes
+     * @throws IOException if an action cannot be encoded
+     */
+    public static byte[] encode(List<Action> actions) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(32 + actions.size() * 24);
+        Writer writer = new Writer(bos);
+        writer.writeHeader();
+        for (Action action : actions) {
+            writer.write(action);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Decode every action of a stream.
+     *
+     * @param data encoded stream
+     * @return the actions in stream order
+     * @throws IOException if the data is not a valid stream
+     */
+    public static List<Action> decode(byte[] data) throws IOException {
+        Reader reader = new Reader(new ByteArrayInputStream(data));
+        List<Action> actions = new ArrayList<>();
+        Action action;
+        while ((action = reader.read()) != null) {
+            actions.add(action);
+        }
+        return actions;
+    }
+
+    /**
+     * Whether the data starts like a stream of this format, as opposed to Java serialization.
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length > 0 && isVersion(data[0]);
+    }
+
+    /**
+     * Writes actions to one stream. Not thread safe.
+     */
+    public static final class Writer {
+        private final OutputStream out;
+
+        // Bytes of the action being written, handed to the stream once it is complete
+        private byte[] buffer = new byte[256];
+        private int count;
+        private final Map<String, Integer> users = new HashMap<>();
+        private boolean headerWritten;
+        private long lastSequence;
+        private long lastMillis;
+        private long lastReceivedMillis;
+
+        public Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Write the version byte, if not written yet. Done implicitly by the first action.
+         */
+        public void writeHeader() throws IOException {
+            if (!headerWritten) {
+                out.write(VERSION);
+                headerWritten = true;
+            }
+        }
+
+        public void write(Action action) throws IOException {
+            writeHeader();
+            writeAction(action);
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+
+        private void writeAction(Action action) throws IOException {
+            String color = null;
+            int flags = 0;
+            int tag;
+            if (action instanceof DrawAction draw) {
+                tag = TAG_DRAW;
+                color = draw.getColor();
+                flags = onGrid(draw.getStrokeWidth(), draw.getPoints()) ? 0 : FLAG_EXACT_GEOMETRY;
+            } else if (action instanceof EraseAction erase) {
+                tag = TAG_ERASE;
+                flags = onGrid(erase.getEraserSize(), erase.getErasePath()) ? 0 : FLAG_EXACT_GEOMETRY;
+            } else if (action instanceof TextAction text) {
+                tag = TAG_TEXT;
+                color = text.getColor();
+            } else if (action instanceof UndoAction undo) {
+                tag = TAG_UNDO;
+                flags = undo.isRedo() ? FLAG_REDO : 0;
+            } else {
+                throw new IOException("Unsupported action type: " + action.getClass().getName());
+            }
+            boolean literalColor = color != null && packColor(color) == null;
+            put(tag | flags | (literalColor ? FLAG_LITERAL_COLOR : 0));
+
+            // Sequence relative to the previous action, the user's previous one relative to this one
+            long sequence = action.getSequence();
+            writeSignedVarLong(sequence - lastSequence);
+            writeSignedVarLong(sequence - action.getPreviousSequence());
+            lastSequence = sequence;
+
+            writeUser(action.getUsername());
+
+            long millis = action.getTimestampMillis();
+            writeSignedVarLong(millis - lastMillis);
+            lastMillis = millis;
+
+            long receivedMillis = action.getReceivedMillis();
+            writeSignedVarLong(receivedMillis - lastReceivedMillis);
+            lastReceivedMillis = receivedMillis;
+
+            writeActionId(action.getActionId());
+
+            boolean exact = (flags & FLAG_EXACT_GEOMETRY) != 0;
+            if (action instanceof DrawAction draw) {
+                put(draw.getShapeType().ordinal());
+                writeColor(color, literalColor);
+                writeSize(draw.getStrokeWidth(), exact);
+                writePath(draw.getPoints(), exact);
+            } else if (action instanceof EraseAction erase) {
+                writeSize(erase.getEraserSize(), exact);
+                writePath(erase.getErasePath(), exact);
+            } else if (action instanceof UndoAction undo) {
+                writeSignedVarLong(sequence - undo.getFromSequence());
+                writeSignedVarLong(undo.getToSequence() - undo.getFromSequence());
+                writeActionId(undo.getFromActionId());
+                writeActionId(undo.getToActionId());
+                writeVarLong(undo.getRestored().size());
+                for (Action restored : undo.getRestored()) {
+                    writeAction(restored);
+                }
+            } else {
+                TextAction text = (TextAction) action;
+                put(text.getTextType().ordinal());
+                writeColor(color, literalColor);
+                writeString(text.getText());
+                writeDouble(text.getPosition().getX());
+                writeDouble(text.getPosition().getY());
+                writeDouble(text.getScale() == null ? Double.NaN : text.getScale());
+                writeDouble(text.getMinX());
+                writeDouble(text.getMinY());
+                writeDouble(text.getWidth());
+                writeDouble(text.getHeight());
+            }
+        }
+
+        private void writeUser(String username) throws IOException {
+            Integer index = users.get(username);
+            if (index != null) {
+                writeVarLong(index);
+                return;
+            }
+            // A new index introduces the name
+            index = users.size();
+            users.put(username, index);
+            writeVarLong(index);
+            writeString(username);
+        }
+
+        private void writeActionId(long actionId) throws IOException {
+            writeLong(actionId);
+        }
+
+        private void writeColor(String color, boolean literal) throws IOException {
+            if (literal) {
+                writeString(color);
+            } else {
+                int rgba = packColor(color);
+                writeLong32(rgba);
+            }
+        }
+
+        private void writeSize(double size, boolean exact) throws IOException {
+            if (exact) {
+                writeDouble(size);
+            } else {
+                writeVarLong(quantize(size));
+            }
+        }
+
+        private void writePath(PointList points, boolean exact) throws IOException {
+            writeVarLong(points.size());
+            if (exact) {
+                for (int i = 0; i < points.size(); i++) {
+                    writeLong32(Float.floatToIntBits((float) points.getX(i)));
+                    writeLong32(Float.floatToIntBits((float) points.getY(i)));
+                }
+                return;
+            }
+            long x = 0, y = 0;
+            for (int i = 0; i < points.size(); i++) {
+                long qx = quantize(points.getX(i));
+                long qy = quantize(points.getY(i));
+                writeSignedVarLong(qx - x);
+                writeSignedVarLong(qy - y);
+                x = qx;
+                y = qy;
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, count, bytes.length);
+            count += bytes.length;
+        }
+
+        private void writeDouble(double value) throws IOException {
+            writeLong(Double.doubleToLongBits(value));
+        }
+
+        private void writeLong(long value) throws IOException {
+            writeLong32((int) (value >>> 32));
+            writeLong32((int) value);
+        }
+
+        private void writeLong32(int value) throws IOException {
+            put(value >>> 24);
+            put(value >>> 16);
+            put(value >>> 8);
+            put(value);
+        }
+
+        private void writeSignedVarLong(long value) throws IOException {
+            // Zig-zag so small negative deltas stay small
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void put(int b) {
+            ensureCapacity(1);
+            buffer[count++] = (byte) b;
+        }
+
+        private void ensureCapacity(int more) {
+            if (count + more > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + more));
+            }
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                put((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((int) value);
+        }
+    }
+
+    /**
+     * Reads actions from one stream. Not thread safe.
+     */
+    public static final class Reader {
+        private final InputStream in;
+        private final List<String> users = new ArrayList<>();
+        private boolean headerRead;
+        private boolean uuidIds;
+        private boolean quantizedOnly;
+        private boolean unstamped;
+        private long lastSequence;
+        private long lastMillis;
+        private long lastReceivedMillis;
+
+        public Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Read the next action.
+         *
+         * @return the action, or null at the end of the stream
+         * @throws IOException if the stream is not valid
+         */
+        public Action read() throws IOException {
+            if (!headerRead) {
+                int version = in.read();
+                if (version < 0) {
+                    return null;
+                }
+                if (!isVersion((byte) version)) {
+                    throw new IOException("Unsupported action stream version: " + version);
+                }
+                uuidIds = version == VERSION_UUID_IDS;
+                quantizedOnly = version < VERSION_UNSTAMPED;
+                unstamped = version < VERSION;
+                headerRead = true;
+            }
+
+            int tag = in.read();
+            if (tag < 0) {
+                return null;
+            }
+            return readAction(tag);
+        }
+
+        private Action readAction(int tag) throws IOException {
+            boolean literalColor = (tag & FLAG_LITERAL_COLOR) != 0;
+            boolean exact = !quantizedOnly && (tag & FLAG_EXACT_GEOMETRY) != 0;
+
+            long sequence = lastSequence + readSignedVarLong();
+            long previousSequence = sequence - readSignedVarLong();
+            lastSequence = sequence;
+
+            String username = readUser();
+
+            lastMillis += readSignedVarLong();
+            long timestamp = lastMillis;
+
+            if (!unstamped) {
+                lastReceivedMillis += readSignedVarLong();
+            }
+            long receivedMillis = lastReceivedMillis;
+
+            long actionId = readActionId();
+
+            Action action = switch (tag & TAG_TYPE_MASK) {
+                case TAG_DRAW -> {
+                    DrawAction.ShapeType shapeType = SHAPE_TYPES[readEnum(SHAPE_TYPES.length)];
+                    String color = readColor(literalColor);
+                    double strokeWidth = readSize(exact);
+                    yield new DrawAction(actionId, username, timestamp, shapeType, readPath(exact), color, strokeWidth);
+                }
+                case TAG_ERASE -> {
+                    double eraserSize = readSize(exact);
+                    yield new EraseAction(actionId, username, timestamp, readPath(exact), eraserSize);
+                }
+                case TAG_TEXT -> {
+                    TextAction.TextType textType = TEXT_TYPES[readEnum(TEXT_TYPES.length)];
+                    String color = readColor(literalColor);
+                    String text = readString();
+                    Point position = new Point(readDouble(), readDouble());
+                    double scale = readDouble();
+                    yield new TextAction(
+                            actionId,
+                            username,
+                            timestamp,
+                            text,
+                            position,
+                            Double.isNaN(scale) ? null : scale,
+                            color,
+                            textType,
+                            readDouble(),
+                            readDouble(),
+                            readDouble(),
+                            readDouble()
+                    );
+                }
+                case TAG_UNDO -> {
+                    long fromSequence = sequence - readSignedVarLong();
+                    long toSequence = fromSequence + readSignedVarLong();
+                    long fromActionId = readActionId();
+                    long toActionId = readActionId();
+                    int count = readLength();
+                    List<Action> restored = new ArrayList<>(Math.min(count, 1024));
+                    for (int i = 0; i < count; i++) {
+                        restored.add(readAction(readByte()));
+                    }
+                    yield new UndoAction(
+                            actionId,
+                            username,
+                            timestamp,
+                            (tag & FLAG_REDO) != 0,
+                            fromSequence,
+                            toSequence,
+                            fromActionId,
+                            toActionId,
+                            restored
+                    );
+                }
+                default -> throw new IOException("Unknown action tag: " + tag);
+            };
+            action.assignSequence(sequence, previousSequence);
+            action.assignReceivedMillis(receivedMillis);
+            return action;
+        }
+
+        private long readActionId() throws IOException {
+            return uuidIds ? Action.legacyActionId(new UUID(readLong(), readLong())) : readLong();
+        }
+
+        private String readUser() throws IOException {
+            long index = readVarLong();
+            if (index < users.size()) {
+                return users.get((int) index);
+            }
+            if (index != users.size()) {
+                throw new IOException("Unknown user index: " + index);
+            }
+            // A board has few users, decoded actions share one copy of each name
+            String username = readString().intern();
+            users.add(username);
+            return username;
+        }
+
+        private String readColor(boolean literal) throws IOException {
+            return literal ? readString() : unpackColor(readInt()).intern();
+        }
+
+        private double readSize(boolean exact) throws IOException {
+            return exact ? readDouble() : dequantize(readVarLong());
+        }
+
+        private PointList readPath(boolean exact) throws IOException {
+            int size = readLength();
+            PointList.Builder points = new PointList.Builder(size);
+            if (exact) {
+                for (int i = 0; i < size; i++) {
+                    points.add(Float.intBitsToFloat(readInt()), Float.intBitsToFloat(readInt()));
+                }
+                return points.build();
+            }
+            long x = 0, y = 0;
+            for (int i = 0; i < size; i++) {
+                x += readSignedVarLong();
+                y += readSignedVarLong();
+                points.add(dequantize(x), dequantize(y));
+            }
+            return points.build();
+        }
+
+        private int readEnum(int count) throws IOException {
+            int ordinal = readByte();
+            if (ordinal >= count) {
+                throw new IOException("Unknown enum ordinal: " + ordinal);
+            }
+            return ordinal;
+        }
+
+        private String readString() throws IOException {
+            int length = readLength();
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length != length) {
+                throw new EOFException("Truncated action stream");
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarLong();
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Invalid length: " + length);
+            }
+            return (int) length;
+        }
+
+        private double readDouble() throws IOException {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        private long readLong() throws IOException {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        private int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated action stream");
+            }
+            return b;
+        }
+
+        private long readSignedVarLong() throws IOException {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+
+    private static boolean isVersion(byte version) {
+        return version >= VERSION_UUID_IDS && version <= VERSION;
+    }
+
+    /**
+     * Whether a size and a path survive quantization unchanged.
+     */
+    static boolean onGrid(double size, PointList points) {
+        if (dequantize(quantize(size)) != size) {
+            return false;
+        }
+        for (int i = 0; i < points.size(); i++) {
+            if (dequantize(quantize(points.getX(i))) != points.getX(i)
+                    || dequantize(quantize(points.getY(i))) != points.getY(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long quantize(double value) {
+        return Math.round(value * COORDINATE_SCALE);
+    }
+
+    static double dequantize(long value) {
+        return (double) value / COORDINATE_SCALE;
+    }
+
+    /**
+     * Pack a color string into an RGBA int, or null if unpacking wouldn't give the same string.
+     */
+    static Integer packColor(String color) {
+        if (color.length() != 10 || !color.startsWith("0x")) {
+            return null;
+        }
+        int rgba;
+        try {
+            rgba = Integer.parseUnsignedInt(color, 2, 10, 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return unpackColor(rgba).equals(color) ? rgba : null;
+    }
+
+    static String unpackColor(int rgba) {
+        char[] chars = new char[10];
+        chars[0] = '0';
+        chars[1] = 'x';
+        for (int i = 0; i < 8; i++) {
+            chars[2 + i] = HEX_DIGITS[(rgba >>> (28 - 4 * i)) & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,360 @@
+package org.whiteboard.common.codec;
+
+import org.whiteboard.common.action.Action;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary board file used by Save and Open, laid out to be read from a memory mapped buffer.
+ * <p>
+ * The file is a header, length-prefixed action records, a footer index and a fixed size
+ * trailer:
+ * <pre>
+ * header   "WBRD", int format version, int checkpoint interval, long head sequence
+ * record   int length, then the action in {@link BinaryActionCodec} form
+ * footer   "WBIX", int checkpoint count, long record count, per checkpoint:
+ *          long offset, long first record, long first sequence, int length, int CRC32
+ * trailer  long footer offset, int CRC32 of the footer, "WBND"
+ * </pre>
+ * Records are grouped into blocks starting at a checkpoint every {@code interval} records.
+ * Within a block the records continue one codec stream, the first one starting with the
+ * codec version; at a checkpoint the stream starts over. A reader only needs the trailer and
+ * the footer to know the whole file, then decodes any block on its own, checked against its
+ * CRC when it is read. Nothing before a block has to be read to decode it.
+ */
+public final class BoardFile {
+
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 4096;
+
+    private static final int MAGIC = 0x57425244;         // "WBRD"
+    private static final int FOOTER_MAGIC = 0x57424958;  // "WBIX"
+    private static final int TRAILER_MAGIC = 0x57424E44; // "WBND"
+
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8;
+    private static final int TRAILER_BYTES = 8 + 4 + 4;
+    private static final int FOOTER_BYTES = 4 + 4 + 8;
+    private static final int CHECKPOINT_BYTES = 8 + 8 + 8 + 4 + 4;
+
+    private BoardFile() {
+    }
+
+    /**
+     * A point where a block of records starts and decoding can start over.
+     *
+     * @param offset        file offset of the block's first record
+     * @param firstRecord   index of the block's first record
+     * @param firstSequence sequence number of the block's first action
+     * @param length        size of the block in bytes
+     * @param crc           CRC32 of the block's bytes
+     */
+    public record Checkpoint(long offset, long firstRecord, long firstSequence, int length, int crc) {
+    }
+
+    /**
+     * Whether the data starts like a board file, as opposed to the text format.
+     */
+    public static boolean isBoardFile(ByteBuffer data) {
+        return data.remaining() >= 4 && data.getInt(data.position()) == MAGIC;
+    }
+
+    /**
+     * Writes a board file to a stream, one action at a time. Not thread safe.
+     */
+    public static final class Writer {
+        private final DataOutputStream out;
+        private final int interval;
+        private final long headSequence;
+
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        private final List<Checkpoint> checkpoints = new ArrayList<>();
+        private final CRC32 blockCrc = new CRC32();
+
+        private BinaryActionCodec.Writer codec;
+        private boolean headerWritten;
+        private long offset;
+        private long recordCount;
+
+        // Current block
+        private long blockOffset;
+        private long blockFirstRecord;
+        private long blockFirstSequence;
+
+        /**
+         * @param out          receives the file's bytes
+         * @param interval     number of records per block
+         * @param headSequence sequence number the board is consistent with
+         */
+        public Writer(OutputStream out, int interval, long headSequence) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+            }
+            this.out = new DataOutputStream(out);
+            this.interval = interval;
+            this.headSequence = headSequence;
+        }
+
+        /**
+         * Write the header, if not written yet. Done implicitly by the first action.
+         */
+        public void writeHeader() throws IOException {
+            if (headerWritten) {
+                return;
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(interval);
+            out.writeLong(headSequence);
+            offset = HEADER_BYTES;
+            headerWritten = true;
+        }
+
+        public void write(Action action) throws IOException {
+            writeHeader();
+            if (recordCount % interval == 0) {
+                endBlock();
+                codec = new BinaryActionCodec.Writer(record);
+                blockOffset = offset;
+                blockFirstRecord = recordCount;
+                blockFirstSequence = action.getSequence();
+            }
+
+            record.reset();
+            codec.write(action);
+            int length = record.size();
+            out.writeInt(length);
+            record.writeTo(out);
+
+            blockCrc.update(length >>> 24);
+            blockCrc.update(length >>> 16);
+            blockCrc.update(length >>> 8);
+            blockCrc.update(length);
+            blockCrc.update(record.toByteArray());
+            offset += 4 + length;
+            recordCount++;
+        }
+
+        private void endBlock() {
+            if (codec != null) {
+                checkpoints.add(new Checkpoint(
+                        blockOffset,
+                        blockFirstRecord,
+                        blockFirstSequence,
+                        (int) (offset - blockOffset),
+                        (int) blockCrc.getValue()
+                ));
+            }
+            blockCrc.reset();
+        }
+
+        /**
+         * Write the footer and the trailer. Nothing can be written afterwards.
+         */
+        public void finish() throws IOException {
+            writeHeader();
+            endBlock();
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES + checkpoints.size() * CHECKPOINT_BYTES);
+            footer.putInt(FOOTER_MAGIC);
+            footer.putInt(checkpoints.size());
+            footer.putLong(recordCount);
+            for (Checkpoint checkpoint : checkpoints) {
+                footer.putLong(checkpoint.offset());
+                footer.putLong(checkpoint.firstRecord());
+                footer.putLong(checkpoint.firstSequence());
+                footer.putInt(checkpoint.length());
+                footer.putInt(checkpoint.crc());
+            }
+            CRC32 footerCrc = new CRC32();
+            footerCrc.update(footer.array());
+
+            out.write(footer.array());
+            out.writeLong(offset);
+            out.writeInt((int) footerCrc.getValue());
+            out.writeInt(TRAILER_MAGIC);
+            out.flush();
+        }
+
+        public long getRecordCount() {
+            return recordCount;
+        }
+    }
+
+    /**
+     * Reads a board file from a buffer, typically memory mapped. Opening reads only the
+     * header, the trailer and the footer; records are decoded when asked for. Not thread safe.
+     */
+    public static final class Reader {
+        private final ByteBuffer file;
+        private final long headSequence;
+        private final long recordCount;
+        private final List<Checkpoint> checkpoints;
+
+        // The action reader of a block reads each record through this
+        private ByteBuffer current;
+
+        private Reader(ByteBuffer file, long headSequence, long recordCount, List<Checkpoint> checkpoints) {
+            this.file = file;
+            this.headSequence = headSequence;
+            this.recordCount = recordCount;
+            this.checkpoints = checkpoints;
+        }
+
+        /**
+         * Open a board file and check its structure.
+         *
+         * @param data the whole file, from its position to its limit
+         * @throws IOException if the data is not a complete board file
+         */
+        public static Reader open(ByteBuffer data) throws IOException {
+            ByteBuffer file = data.slice();
+            try {
+                if (file.remaining() < HEADER_BYTES + FOOTER_BYTES + TRAILER_BYTES || file.getInt(0) != MAGIC) {
+                    throw new IOException("Not a board file");
+                }
+                int version = file.getInt(4);
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported board file version: " + version);
+                }
+                long headSequence = file.getLong(12);
+
+                int trailer = file.limit() - TRAILER_BYTES;
+                if (file.getInt(trailer + 12) != TRAILER_MAGIC) {
+                    throw new IOException("Board file is truncated");
+                }
+                long footerOffset = file.getLong(trailer);
+                if (footerOffset < HEADER_BYTES || footerOffset > trailer - FOOTER_BYTES) {
+                    throw new IOException("Board file footer is out of range: " + footerOffset);
+                }
+                ByteBuffer footer = file.slice((int) footerOffset, trailer - (int) footerOffset);
+                CRC32 footerCrc = new CRC32();
+                footerCrc.update(footer.duplicate());
+                if ((int) footerCrc.getValue() != file.getInt(trailer + 8)) {
+                    throw new IOException("Board file footer is corrupt");
+                }
+
+                if (footer.getInt() != FOOTER_MAGIC) {
+                    throw new IOException("Board file footer is corrupt");
+                }
+                int count = footer.getInt();
+                long recordCount = footer.getLong();
+                if (count < 0 || footer.remaining() != (long) count * CHECKPOINT_BYTES) {
+                    throw new IOException("Board file index has a wrong size");
+                }
+                List<Checkpoint> checkpoints = new ArrayList<>(count);
+                long expectedOffset = HEADER_BYTES;
+                for (int i = 0; i < count; i++) {
+                    Checkpoint checkpoint = new Checkpoint(
+                            footer.getLong(), footer.getLong(), footer.getLong(), footer.getInt(), footer.getInt());
+                    if (checkpoint.offset() != expectedOffset || checkpoint.length() < 0) {
+                        throw new IOException("Board file block " + i + " is out of place");
+                    }
+                    expectedOffset += checkpoint.length();
+                    checkpoints.add(checkpoint);
+                }
+                if (expectedOffset != footerOffset) {
+                    throw new IOException("Board file blocks don't end at the footer");
+                }
+                return new Reader(file, headSequence, recordCount, List.copyOf(checkpoints));
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Board file is truncated", e);
+            }
+        }
+
+        /**
+         * Sequence number the board was consistent with when saved.
+         */
+        public long getHeadSequence() {
+            return headSequence;
+        }
+
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        public List<Checkpoint> getCheckpoints() {
+            return checkpoints;
+        }
+
+        /**
+         * Decode the actions of one block, after checking its CRC.
+         *
+         * @param block    index of the block's checkpoint
+         * @param consumer receives the actions in file order
+         * @throws IOException if the block is corrupt
+         */
+        public void readBlock(int block, Consumer<Action> consumer) throws IOException {
+            Checkpoint checkpoint = checkpoints.get(block);
+            ByteBuffer bytes = file.slice((int) checkpoint.offset(), checkpoint.length());
+            CRC32 crc = new CRC32();
+            crc.update(bytes.duplicate());
+            if ((int) crc.getValue() != checkpoint.crc()) {
+                throw new IOException("Board file block " + block + " is corrupt");
+            }
+
+            BinaryActionCodec.Reader codec = new BinaryActionCodec.Reader(new InputStream() {
+                @Override
+                public int read() {
+                    return current.hasRemaining() ? current.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!current.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, current.remaining());
+                    current.get(b, off, n);
+                    return n;
+                }
+            });
+            long record = checkpoint.firstRecord();
+            while (bytes.hasRemaining()) {
+                if (bytes.remaining() < 4) {
+                    throw new IOException("Board file record " + record + " is truncated");
+                }
+                int length = bytes.getInt();
+                if (length <= 0 || length > bytes.remaining()) {
+                    throw new IOException("Board file record " + record + " has a wrong length: " + length);
+                }
+                current = bytes.slice(bytes.position(), length);
+                bytes.position(bytes.position() + length);
+
+                Action action = codec.read();
+                if (action == null || current.hasRemaining()) {
+                    throw new IOException("Board file record " + record + " is not one action");
+                }
+                consumer.accept(action);
+                record++;
+            }
+        }
+
+        /**
+         * Decode every action, block by block.
+         *
+         * @return the actions in file order
+         * @throws IOException if a block is corrupt
+         */
+        public List<Action> readAll() throws IOException {
+            List<Action> actions = new ArrayList<>((int) Math.min(recordCount, Integer.MAX_VALUE - 8));
+            for (int i = 0; i < checkpoints.size(); i++) {
+                readBlock(i, actions::add);
+            }
+            if (actions.size() != recordCount) {
+                throw new IOException("Board file holds " + actions.size() + " records, its index " + recordCount);
+            }
+            return actions;
+        }
+    }
+}
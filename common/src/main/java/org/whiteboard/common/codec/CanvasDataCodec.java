@@ -0,0 +1,119 @@
+package org.whiteboard.common.codec;
+
+import org.whiteboard.common.action.Action;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Text format of canvas data used for sync, import and export.
+ * <p>
+ * Canvas data is a sequence of segments separated by new lines. Each segment is a Base64
+ * encoded {@link BinaryActionCodec} stream, so segments can be encoded independently and
+ * cached. Segments holding a Java serialized list of actions, as written by earlier
+ * versions, are still read, and data written before segments existed is a single segment.
+ */
+public final class CanvasDataCodec {
+
+    public static final char SEGMENT_SEPARATOR = '\n';
+
+    private CanvasDataCodec() {
+    }
+
+    /**
+     * Encode a run of actions into one segment.
+     *
+     * @param actions actions in history order
+     * @return the Base64 segment, without separator
+     * @throws IOException if an action cannot be serialized
+     */
+    public static String encodeSegment(List<Action> actions) throws IOException {
+        return Base64.getEncoder().encodeToString(BinaryActionCodec.encode(actions));
+    }
+
+    /**
+     * Encode a run of actions into one segment, as many as fit a size, for streamed exports.
+     *
+     * @param actions  actions in history order
+     * @param from     index of the first action to encode
+     * @param maxBytes binary size after which no further action is added, the first one always is
+     * @param into     receives the Base64 segment as ASCII bytes, without separator
+     * @return index after the last encoded action
+     * @throws IOException if an action cannot be encoded or written
+     */
+    public static int encodeSegment(List<Action> actions, int from, int maxBytes, OutputStream into)
+            throws IOException {
+        ByteArrayOutputStream binary = new ByteArrayOutputStream(maxBytes + 256);
+        BinaryActionCodec.Writer writer = new BinaryActionCodec.Writer(binary);
+        writer.writeHeader();
+        int end = from;
+        while (end < actions.size() && (end == from || binary.size() < maxBytes)) {
+            writer.write(actions.get(end++));
+        }
+        into.write(Base64.getEncoder().encode(binary.toByteArray()));
+        return end;
+    }
+
+    /**
+     * Join encoded segments into canvas data.
+     *
+     * @param segments encoded segments in history order
+     * @return canvas data
+     */
+    public static String join(List<String> segments) {
+        return String.join(String.valueOf(SEGMENT_SEPARATOR), segments);
+    }
+
+    /**
+     * Decode canvas data into actions.
+     *
+     * @param canvasData one or more segments
+     * @return the actions of all segments in history order
+     * @throws IOException if a segment is not valid
+     */
+    public static List<Action> decode(String canvasData) throws IOException {
+        List<Action> actions = new ArrayList<>();
+        for (String segment : canvasData.split(String.valueOf(SEGMENT_SEPARATOR))) {
+            String trimmed = segment.strip();
+            if (!trimmed.isEmpty()) {
+                decodeSegment(trimmed, actions);
+            }
+        }
+        return actions;
+    }
+
+    private static void decodeSegment(String segment, List<Action> into) throws IOException {
+        byte[] data;
+        try {
+            data = Base64.getDecoder().decode(segment);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Canvas segment is not valid Base64", e);
+        }
+
+        if (BinaryActionCodec.isBinary(data)) {
+            into.addAll(BinaryActionCodec.decode(data));
+            return;
+        }
+
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
+             ObjectInputStream ois = new ObjectInputStream(bis)) {
+            Object decoded = ois.readObject();
+            if (!(decoded instanceof List<?> items)) {
+                throw new IOException("Canvas segment is not a list of actions");
+            }
+            for (Object item : items) {
+                if (item instanceof Action action) {
+                    into.add(action);
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown action class in canvas segment", e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.whiteboard.common.codec;
+
+import org.whiteboard.common.action.Action;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the chunks written by {@link SyncStreamWriter}, one at a time, in order.
+ * Every chunk ends on an action boundary, so it decodes into whole actions.
+ */
+public class SyncStreamReader implements AutoCloseable {
+
+    private final Inflater inflater = new Inflater();
+    private final byte[] buffer = new byte[16 * 1024];
+    private final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+
+    // The action reader keeps its state across chunks, it reads each chunk through this
+    private ByteArrayInputStream current = new ByteArrayInputStream(new byte[0]);
+    private final BinaryActionCodec.Reader reader = new BinaryActionCodec.Reader(new InputStream() {
+        @Override
+        public int read() {
+            return current.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return current.read(b, off, len);
+        }
+    });
+
+    /**
+     * Decode the next chunk.
+     *
+     * @param chunk the chunk as emitted by the writer
+     * @return the actions of the chunk in stream order
+     * @throws IOException if the chunk is not valid
+     */
+    public List<Action> readChunk(byte[] chunk) throws IOException {
+        inflated.reset();
+        inflater.setInput(chunk);
+        try {
+            int n;
+            while ((n = inflater.inflate(buffer)) > 0) {
+                inflated.write(buffer, 0, n);
+            }
+            if (!inflater.needsInput()) {
+                throw new IOException("Sync chunk was not fully inflated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Sync chunk is not valid deflate data", e);
+        }
+
+        current = new ByteArrayInputStream(inflated.toByteArray());
+        List<Action> actions = new ArrayList<>();
+        Action action;
+        while ((action = reader.read()) != null) {
+            actions.add(action);
+        }
+        return actions;
+    }
+
+    /**
+     * Release the inflater.
+     */
+    @Override
+    public void close() {
+        inflater.end();
+    }
+}
@@ -0,0 +1,140 @@
+package org.whiteboard.common.codec;
+
+import org.whiteboard.common.action.Action;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes actions into a deflated {@link BinaryActionCodec} stream, cut into chunks.
+ * <p>
+ * A chunk is emitted once enough actions have been written, and always ends on an action
+ * boundary: the deflater is sync-flushed there, so the receiver can inflate and apply each
+ * chunk on its own while the compression dictionary carries over. The first chunk is kept
+ * small so a joining client has something to draw quickly. Only one chunk is ever buffered.
+ */
+public class SyncStreamWriter implements AutoCloseable {
+
+    /**
+     * Receives the chunks, e.g. sends them to a client.
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(byte[] chunk) throws IOException;
+    }
+
+    // Uncompressed bytes per chunk
+    public static final int DEFAULT_FIRST_CHUNK_BYTES = 16 * 1024;
+    public static final int DEFAULT_CHUNK_BYTES = 256 * 1024;
+
+    private final ChunkSink sink;
+    private final int firstChunkBytes;
+    private final int chunkBytes;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private final CountingOutputStream counter;
+    private final DeflaterOutputStream deflaterOut;
+    private final BufferedOutputStream buffered;
+    private final BinaryActionCodec.Writer writer;
+
+    private long pendingBytes;
+    private int chunkCount;
+    private int actionCount;
+
+    public SyncStreamWriter(ChunkSink sink) {
+        this(sink, DEFAULT_FIRST_CHUNK_BYTES, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param sink            receives the chunks
+     * @param firstChunkBytes uncompressed size the first chunk is cut at
+     * @param chunkBytes      uncompressed size further chunks are cut at
+     */
+    public SyncStreamWriter(ChunkSink sink, int firstChunkBytes, int chunkBytes) {
+        if (firstChunkBytes <= 0 || chunkBytes <= 0) {
+            throw new IllegalArgumentException("Chunk sizes must be positive");
+        }
+        this.sink = sink;
+        this.firstChunkBytes = firstChunkBytes;
+        this.chunkBytes = chunkBytes;
+        this.deflaterOut = new DeflaterOutputStream(compressed, deflater, 8192, true);
+        // Buffered, the deflater stream allocates per single byte written
+        this.buffered = new BufferedOutputStream(deflaterOut, 8192);
+        this.counter = new CountingOutputStream(buffered);
+        this.writer = new BinaryActionCodec.Writer(counter);
+    }
+
+    /**
+     * Write the next action, emitting a chunk when the current one is full.
+     */
+    public void write(Action action) throws IOException {
+        writer.write(action);
+        actionCount++;
+        if (counter.count - pendingBytes >= (chunkCount == 0 ? firstChunkBytes : chunkBytes)) {
+            flushChunk();
+        }
+    }
+
+    /**
+     * Emit the actions written since the last chunk, if any.
+     */
+    public void flushChunk() throws IOException {
+        if (counter.count == pendingBytes) {
+            return;
+        }
+        pendingBytes = counter.count;
+        // Flushes the deflater with SYNC_FLUSH
+        buffered.flush();
+        byte[] chunk = compressed.toByteArray();
+        compressed.reset();
+        chunkCount++;
+        sink.accept(chunk);
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    /**
+     * Emit the last chunk and release the deflater.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushChunk();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Counts uncompressed bytes on their way into the deflater
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
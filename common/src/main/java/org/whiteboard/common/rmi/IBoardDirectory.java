@@ -0,0 +1,29 @@
+package org.whiteboard.common.rmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote directory of the boards hosted by a server process.
+ */
+public interface IBoardDirectory extends Remote {
+    /**
+     * Name the directory is bound to in the registry.
+     */
+    String SERVICE_NAME = "WhiteboardBoards";
+
+    /**
+     * Board of clients that don't ask for one.
+     */
+    String DEFAULT_BOARD = "default";
+
+    /**
+     * Open a board, creating it if it doesn't exist yet. Each board has its own users,
+     * history and admin.
+     *
+     * @param boardId id of the board, letters, digits, '-' and '_'
+     * @return the board's server
+     * @throws RemoteException on network error, invalid id or if the board cannot be created
+     */
+    IWhiteboardServer openBoard(String boardId) throws RemoteException;
+}
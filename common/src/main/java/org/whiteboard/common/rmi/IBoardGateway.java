@@ -0,0 +1,42 @@
+package org.whiteboard.common.rmi;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Gateway spreading boards over several server processes. Clients use it like the
+ * {@link IBoardDirectory} of a single process, the board they open is served by the
+ * process the gateway maps its id to.
+ */
+public interface IBoardGateway extends IBoardDirectory {
+    /**
+     * Add a server process and move the boards it now owns to it.
+     *
+     * @param address host:port of the process's registry
+     * @throws RemoteException on network error or if the process cannot be reached
+     */
+    void addNode(String address) throws RemoteException;
+
+    /**
+     * Move the boards of a server process to the others and stop using it.
+     *
+     * @param address host:port of the process's registry
+     * @throws RemoteException on network error or if it is the last process
+     */
+    void removeNode(String address) throws RemoteException;
+
+    /**
+     * Addresses of the server processes in use.
+     *
+     * @throws RemoteException on network error
+     */
+    List<String> getNodes() throws RemoteException;
+
+    /**
+     * Address of the server process serving a board.
+     *
+     * @param boardId id of the board
+     * @throws RemoteException on network error
+     */
+    String locateBoard(String boardId) throws RemoteException;
+}
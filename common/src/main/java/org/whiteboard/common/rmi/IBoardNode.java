@@ -0,0 +1,48 @@
+package org.whiteboard.common.rmi;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Board directory of one server process of a sharded deployment, with the operations a
+ * gateway uses to move boards between processes.
+ */
+public interface IBoardNode extends IBoardDirectory {
+    /**
+     * Ids of the boards hosted by this process.
+     *
+     * @throws RemoteException on network error
+     */
+    List<String> listBoards() throws RemoteException;
+
+    /**
+     * Get a board hosted by this process. Unlike {@link #openBoard(String)}, a board that
+     * is not hosted, e.g. because it was closed since it was listed, is not created.
+     *
+     * @param boardId id of the board
+     * @return the board's server, or null if the board is not hosted by this process
+     * @throws RemoteException on network error
+     */
+    IWhiteboardServer findBoard(String boardId) throws RemoteException;
+
+    /**
+     * Stop or start again accepting changes to a board, e.g. while it is copied to
+     * another process. Reading and exporting the board keep working.
+     *
+     * @param boardId id of the board
+     * @param sealed  true to reject changes, false to accept them again
+     * @return false if the board is not hosted by this process
+     * @throws RemoteException on network error
+     */
+    boolean sealBoard(String boardId, boolean sealed) throws RemoteException;
+
+    /**
+     * Shut a board down and delete its history, once it was copied to another process.
+     * Its clients are told why and have to reconnect.
+     *
+     * @param boardId id of the board
+     * @param reason  reason given to the board's clients
+     * @throws RemoteException on network error or if the board's files cannot be deleted
+     */
+    void closeBoard(String boardId, String reason) throws RemoteException;
+}
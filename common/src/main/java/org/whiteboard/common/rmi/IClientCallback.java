@@ -25,6 +25,24 @@ public interface IClientCallback extends Remote {
      */
     void onAction(Action action) throws RemoteException;
 
+    /**
+     * Invoked when a batch of actions arrives. Actions are in delivery order.
+     *
+     * @param actions the actions to render
+     * @throws RemoteException on network error
+     */
+    void onActions(List<Action> actions) throws RemoteException;
+
+    /**
+     * Invoked when a batch of encoded actions arrives.
+     * Each payload is one action encoded by {@link org.whiteboard.common.codec.ActionCodec},
+     * the client decodes them itself.
+     *
+     * @param payloads encoded actions in delivery order
+     * @throws RemoteException on network error
+     */
+    void onEncodedActions(List<byte[]> payloads) throws RemoteException;
+
     /**
      * Invoked when a chat message arrives.
      *
@@ -68,12 +86,43 @@ public interface IClientCallback extends Remote {
     void onServerShutdown(String reason) throws RemoteException;
 
     /**
-     * sync current white board client
+     * Start syncing the whole whiteboard, the client clears its canvas.
+     * The board follows as chunks, see {@link org.whiteboard.common.codec.SyncStreamWriter}.
+     *
+     * @param syncId       identifies the chunks of this sync
+     * @param headSequence every action up to this sequence number is contained in the sync
+     * @param actionCount  number of actions that will follow
+     * @throws RemoteException on network error
+     */
+    void onSyncBegin(long syncId, long headSequence, int actionCount) throws RemoteException;
+
+    /**
+     * Raster tile of a sync, drawn before the actions of the sync.
+     *
+     * @param syncId identifies the sync
+     * @param x      left edge of the tile on the canvas
+     * @param y      top edge of the tile on the canvas
+     * @param png    the tile as PNG image
+     * @throws RemoteException on network error
+     */
+    void onSyncTile(long syncId, int x, int y, byte[] png) throws RemoteException;
+
+    /**
+     * Next chunk of a sync, to be applied as it arrives.
+     *
+     * @param syncId identifies the sync
+     * @param chunk  deflated, encoded actions
+     * @throws RemoteException on network error
+     */
+    void onSyncChunk(long syncId, byte[] chunk) throws RemoteException;
+
+    /**
+     * All chunks of a sync have been sent.
      *
-     * @param canvasData Serialized actions
+     * @param syncId identifies the sync
      * @throws RemoteException on network error
      */
-    void onSyncWhiteboard(String canvasData) throws RemoteException;
+    void onSyncEnd(long syncId) throws RemoteException;
 
     /**
      * Ask admin doese user can join the whiteboard
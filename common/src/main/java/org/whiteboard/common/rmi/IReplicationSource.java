@@ -0,0 +1,96 @@
+package org.whiteboard.common.rmi;
+
+import java.io.Serializable;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Ordered stream of the changes to the boards of a primary server, pulled by a standby
+ * server to keep a replica of every board.
+ * <p>
+ * Pulling also renews the primary's lease: every batch carries a lease token, and the
+ * next pull hands it back to prove the batch arrived. Once a standby has done so, the
+ * primary only accepts changes for the lease time after the last batch a standby proved
+ * it received, and the standby waits longer than that before it takes over. A primary
+ * cut off from its standby therefore stops accepting changes before the standby starts.
+ */
+public interface IReplicationSource extends Remote {
+    /**
+     * Name the source is bound to in the primary's registry.
+     */
+    String SERVICE_NAME = "WhiteboardReplication";
+
+    /**
+     * An action sequenced on a board, in binary codec form with its sequence numbers.
+     */
+    byte KIND_ACTION = 1;
+
+    /**
+     * The board's history was cleared or replaced, later actions follow a base sequence.
+     */
+    byte KIND_RESET = 2;
+
+    /**
+     * The board was closed, e.g. moved to another server.
+     */
+    byte KIND_CLOSE = 3;
+
+    /**
+     * One change to a board.
+     *
+     * @param position     position of the change in the stream
+     * @param boardId      id of the board
+     * @param kind         {@link #KIND_ACTION}, {@link #KIND_RESET} or {@link #KIND_CLOSE}
+     * @param baseSequence sequence number the history starts at after a reset
+     * @param action       the encoded action, null unless it is one
+     * @param timeMillis   when the primary logged the change, to measure replication lag
+     */
+    record Entry(
+            long position,
+            String boardId,
+            byte kind,
+            long baseSequence,
+            byte[] action,
+            long timeMillis
+    ) implements Serializable {
+    }
+
+    /**
+     * Changes read from the stream.
+     *
+     * @param logId          id of the stream, changes whenever the primary restarts
+     * @param entries        the changes in stream order
+     * @param nextPosition   position to read from next
+     * @param headPosition   position the next change will be logged at
+     * @param snapshotNeeded the position is not in the stream (anymore); copy every board
+     *                       and read on from the head position
+     * @param lease          token to hand back with the next pull, renewing the primary's
+     *                       lease from when this batch was sent
+     * @param leaseMillis    how long the primary accepts changes after a renewal, 0 if it
+     *                       does not wait for a lease
+     */
+    record Batch(
+            long logId,
+            List<Entry> entries,
+            long nextPosition,
+            long headPosition,
+            boolean snapshotNeeded,
+            long lease,
+            long leaseMillis
+    ) implements Serializable {
+    }
+
+    /**
+     * Read changes, waiting a while for the first one if there is none yet.
+     *
+     * @param logId      id of the stream the position belongs to, 0 to start over
+     * @param position   position to read from
+     * @param lease      lease token of the last batch received from this stream, 0 if none
+     * @param maxEntries maximum number of changes to return
+     * @param waitMillis how long to wait for a change
+     * @return the changes, or a batch asking for a snapshot
+     * @throws RemoteException on network error
+     */
+    Batch pull(long logId, long position, long lease, int maxEntries, long waitMillis) throws RemoteException;
+}
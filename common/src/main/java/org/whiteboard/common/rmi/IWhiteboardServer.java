@@ -1,6 +1,7 @@
 package org.whiteboard.common.rmi;
 
 import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.UndoAction;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
@@ -78,4 +79,108 @@ public interface IWhiteboardServer extends Remote {
     void importCanvas(String canvasData) throws RemoteException;
 
     String exportCanvas() throws RemoteException;
+
+    /**
+     * Start a streamed export of the board, read with {@link #readExport(long)}.
+     *
+     * @return id of the export
+     * @throws RemoteException on network error
+     */
+    long openExport() throws RemoteException;
+
+    /**
+     * Start a streamed export of the board as a binary board file, read with
+     * {@link #readExport(long)}. The segments are consecutive bytes of the file.
+     *
+     * @return id of the export
+     * @throws RemoteException on network error
+     */
+    long openBoardExport() throws RemoteException;
+
+    /**
+     * Next segment of a streamed export. Segments joined with new lines are canvas data in
+     * the format of {@link #exportCanvas()}.
+     *
+     * @param exportId id of the export
+     * @return the segment as ASCII bytes, or null once the export is complete
+     * @throws RemoteException on network error, or if the export is unknown
+     */
+    byte[] readExport(long exportId) throws RemoteException;
+
+    /**
+     * Abandon a streamed export before it is complete.
+     *
+     * @param exportId id of the export
+     * @throws RemoteException on network error
+     */
+    void closeExport(long exportId) throws RemoteException;
+
+    /**
+     * Start uploading a binary board file to replace the board with.
+     *
+     * @return id of the upload
+     * @throws RemoteException on network error
+     */
+    long openImport() throws RemoteException;
+
+    /**
+     * Send the next bytes of an uploaded board file.
+     *
+     * @param importId id of the upload
+     * @param chunk    bytes following the previous chunk
+     * @throws RemoteException on network error, or if the upload is unknown
+     */
+    void writeImport(long importId, byte[] chunk) throws RemoteException;
+
+    /**
+     * Replace the board with a completely uploaded board file.
+     *
+     * @param importId id of the upload
+     * @throws RemoteException on network error, or if the file is not a valid board file
+     */
+    void commitImport(long importId) throws RemoteException;
+
+    /**
+     * Undo the user's last gesture. Other clients receive the returned tombstone as an action.
+     *
+     * @param username the user
+     * @return the tombstone to apply locally, or null if there is nothing to undo
+     * @throws RemoteException on network error
+     */
+    UndoAction undo(String username) throws RemoteException;
+
+    /**
+     * Redo the user's last undone gesture. Other clients receive the returned tombstone as an action.
+     *
+     * @param username the user
+     * @return the tombstone to apply locally, or null if there is nothing to redo
+     * @throws RemoteException on network error
+     */
+    UndoAction redo(String username) throws RemoteException;
+
+    /**
+     * Canvas data as the board was right after an earlier action, in the format of
+     * {@link #exportCanvas()}.
+     *
+     * @param sequence sequence number of the action
+     * @throws RemoteException on network error
+     */
+    String seekCanvas(long sequence) throws RemoteException;
+
+    /**
+     * Canvas data as the board was at an earlier time, in the format of {@link #exportCanvas()}.
+     * Actions count by the time the server received them, not the time they were drawn.
+     *
+     * @param epochMillis the time in milliseconds since the epoch
+     * @throws RemoteException on network error
+     */
+    String seekCanvasAt(long epochMillis) throws RemoteException;
+
+    /**
+     * Sequence number of the last action accepted on the board, also used by clients to
+     * check the server is still reachable.
+     *
+     * @throws RemoteException on network error
+     */
+    long getHeadSequence() throws RemoteException;
 }
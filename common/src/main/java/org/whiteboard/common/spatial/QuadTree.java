@@ -0,0 +1,201 @@
+package org.whiteboard.common.spatial;
+
+import org.whiteboard.common.Bounds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Quadtree of items with rectangular bounds, for finding the items in a region without
+ * looking at all of them.
+ * <p>
+ * The tree is loose: every node also accepts items reaching up to half its size beyond its
+ * edges. An item goes down to the quadrant holding its centre for as long as it fits in
+ * the quadrant's loose bounds, so small items sink to small nodes even when they straddle
+ * a split line, instead of piling up near the root where every query would scan them. An
+ * item is stored exactly once and can be removed by walking the same path again. Items
+ * outside the tree's area stay in the root. A node splits into four once it holds more
+ * than {@value #NODE_CAPACITY} items. Not thread safe.
+ *
+ * @param <T> item type, removal matches items with {@link Object#equals(Object)}
+ */
+public class QuadTree<T> {
+
+    private static final int NODE_CAPACITY = 16;
+    private static final int MAX_DEPTH = 12;
+
+    private record Entry<T>(T item, Bounds bounds) {
+    }
+
+    private final Node<T> root;
+    private int size;
+
+    /**
+     * @param area the area most items are expected in
+     */
+    public QuadTree(Bounds area) {
+        this.root = new Node<>(area, 0);
+    }
+
+    /**
+     * Add an item.
+     *
+     * @param item   the item
+     * @param bounds its bounds, needed again to remove it
+     */
+    public void insert(T item, Bounds bounds) {
+        root.insert(new Entry<>(item, bounds));
+        size++;
+    }
+
+    /**
+     * Remove one item equal to the given one.
+     *
+     * @param item   the item
+     * @param bounds the bounds it was inserted with
+     * @return whether an item was removed
+     */
+    public boolean remove(T item, Bounds bounds) {
+        if (root.remove(item, bounds)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Visit every item whose bounds share at least a point with the area, in no particular order.
+     *
+     * @param area     the area
+     * @param consumer receives the items
+     */
+    public void query(Bounds area, Consumer<? super T> consumer) {
+        root.query(area, consumer);
+    }
+
+    /**
+     * The items whose bounds share at least a point with the area, in no particular order.
+     */
+    public List<T> query(Bounds area) {
+        List<T> items = new ArrayList<>();
+        root.query(area, items::add);
+        return items;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        root.entries.clear();
+        root.children = null;
+        size = 0;
+    }
+
+    private static final class Node<T> {
+        private final Bounds bounds;
+
+        // Bounds the items of this node and its children lie in
+        private final Bounds loose;
+
+        private final int depth;
+        private final List<Entry<T>> entries = new ArrayList<>(0);
+        private Node<T>[] children;
+
+        private Node(Bounds bounds, int depth) {
+            this.bounds = bounds;
+            this.loose = new Bounds(
+                    bounds.minX() - bounds.width() / 2,
+                    bounds.minY() - bounds.height() / 2,
+                    bounds.maxX() + bounds.width() / 2,
+                    bounds.maxY() + bounds.height() / 2
+            );
+            this.depth = depth;
+        }
+
+        private void insert(Entry<T> entry) {
+            if (children != null) {
+                Node<T> child = childContaining(entry.bounds());
+                if (child != null) {
+                    child.insert(entry);
+                    return;
+                }
+            }
+            entries.add(entry);
+            if (children == null && entries.size() > NODE_CAPACITY && depth < MAX_DEPTH) {
+                split();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void split() {
+            double midX = (bounds.minX() + bounds.maxX()) / 2;
+            double midY = (bounds.minY() + bounds.maxY()) / 2;
+            children = new Node[]{
+                    new Node<>(new Bounds(bounds.minX(), bounds.minY(), midX, midY), depth + 1),
+                    new Node<>(new Bounds(midX, bounds.minY(), bounds.maxX(), midY), depth + 1),
+                    new Node<>(new Bounds(bounds.minX(), midY, midX, bounds.maxY()), depth + 1),
+                    new Node<>(new Bounds(midX, midY, bounds.maxX(), bounds.maxY()), depth + 1)
+            };
+
+            // Push down whatever fits in a child
+            List<Entry<T>> kept = new ArrayList<>();
+            for (Entry<T> entry : entries) {
+                Node<T> child = childContaining(entry.bounds());
+                if (child != null) {
+                    child.insert(entry);
+                } else {
+                    kept.add(entry);
+                }
+            }
+            entries.clear();
+            entries.addAll(kept);
+        }
+
+        private Node<T> childContaining(Bounds itemBounds) {
+            // The quadrant is picked by the centre alone, so removal finds the same one
+            double centerX = (itemBounds.minX() + itemBounds.maxX()) / 2;
+            double centerY = (itemBounds.minY() + itemBounds.maxY()) / 2;
+            double midX = (bounds.minX() + bounds.maxX()) / 2;
+            double midY = (bounds.minY() + bounds.maxY()) / 2;
+            Node<T> child = children[(centerX < midX ? 0 : 1) + (centerY < midY ? 0 : 2)];
+            return child.loose.contains(itemBounds) ? child : null;
+        }
+
+        private boolean remove(T item, Bounds itemBounds) {
+            if (children != null) {
+                Node<T> child = childContaining(itemBounds);
+                if (child != null) {
+                    return child.remove(item, itemBounds);
+                }
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                if (Objects.equals(entries.get(i).item(), item)) {
+                    // Order within a node doesn't matter
+                    int last = entries.size() - 1;
+                    entries.set(i, entries.get(last));
+                    entries.remove(last);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void query(Bounds area, Consumer<? super T> consumer) {
+            for (Entry<T> entry : entries) {
+                if (entry.bounds().touches(area)) {
+                    consumer.accept(entry.item());
+                }
+            }
+            if (children != null) {
+                for (Node<T> child : children) {
+                    if (child.loose.touches(area)) {
+                        child.query(area, consumer);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.whiteboard.common;
+
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.codec.BinaryActionCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Heap and encoded size of a stored stroke, with its points packed in a {@link PointList}
+ * against a list of {@link Point} objects as strokes held before. Heap sizes are measured
+ * after collections around allocating a few thousand strokes, so run it alone:
+ * <pre>
+ * mvn -P bench test-compile exec:exec -Dbench.main=org.whiteboard.common.PointListFootprint
+ * </pre>
+ */
+public class PointListFootprint {
+
+    private static final int STROKES = 2000;
+    private static final int[] POINTS = {2, 50, 500};
+
+    public static void main(String[] args) throws Exception {
+        for (int points : POINTS) {
+            long boxed = retainedPerStroke(() -> new ArrayList<>(path(points)));
+            long packed = retainedPerStroke(() -> stroke(points));
+            DrawAction stroke = stroke(points);
+            System.out.printf(
+                    "%d points: List<Point> %d bytes, DrawAction with PointList %d bytes on heap; "
+                            + "%d bytes serialized, %d bytes binary%n",
+                    points,
+                    boxed,
+                    packed,
+                    serializedSize(stroke),
+                    BinaryActionCodec.encode(stroke).length
+            );
+        }
+    }
+
+    private static long retainedPerStroke(Supplier<Object> create) throws InterruptedException {
+        List<Object> kept = new ArrayList<>(STROKES);
+        long before = usedAfterGc();
+        for (int i = 0; i < STROKES; i++) {
+            kept.add(create.get());
+        }
+        long after = usedAfterGc();
+        long perStroke = (after - before) / STROKES;
+        kept.clear();
+        return perStroke;
+    }
+
+    private static long usedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<Point> path(int points) {
+        Random random = new Random(points);
+        List<Point> path = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            path.add(new Point(random.nextDouble() * 1200, random.nextDouble() * 800));
+        }
+        return path;
+    }
+
+    private static DrawAction stroke(int points) {
+        return new DrawAction("alice", DrawAction.ShapeType.FREEHAND, path(points), "0x000000ff", 3);
+    }
+
+    private static int serializedSize(Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+            out.writeObject(value);
+        }
+        return bos.size();
+    }
+}
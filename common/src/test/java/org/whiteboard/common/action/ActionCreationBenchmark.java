@@ -0,0 +1,81 @@
+package org.whiteboard.common.action;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whiteboard.common.Point;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of creating an action, identified by a packed long and stamped with epoch
+ * milliseconds, against the random UUID string and {@link Instant} actions used to get.
+ * The identity benchmarks only make the id and time; the stroke one makes a whole two
+ * point segment, as a client does for every mouse move. Run with {@code -prof gc}
+ * for the bytes allocated per action, and {@code -t} for contention on the id counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ActionCreationBenchmark {
+
+    private static final List<Point> SEGMENT = List.of(new Point(1, 2), new Point(3, 4));
+
+    /**
+     * Identity of an action as it was made before ids were packed into longs.
+     */
+    private static final class LegacyAction {
+        private final String actionId;
+        private final String username;
+        private final Instant timestamp;
+
+        LegacyAction(String username) {
+            this.actionId = UUID.randomUUID().toString();
+            this.username = username;
+            this.timestamp = Instant.now();
+        }
+    }
+
+    /**
+     * Identity of an action alone, without the fields of a subclass.
+     */
+    private static final class BareAction extends Action {
+        BareAction(String username) {
+            super(username);
+        }
+
+        @Override
+        public String getType() {
+            return "Action.Bare";
+        }
+    }
+
+    @Benchmark
+    public Object legacyIdentity() {
+        return new LegacyAction("alice");
+    }
+
+    @Benchmark
+    public Action packedIdentity() {
+        return new BareAction("alice");
+    }
+
+    @Benchmark
+    public DrawAction stroke() {
+        return new DrawAction("alice", DrawAction.ShapeType.FREEHAND, SEGMENT, "0x000000ff", 3);
+    }
+}
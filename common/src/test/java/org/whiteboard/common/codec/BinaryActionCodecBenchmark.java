@@ -0,0 +1,102 @@
+package org.whiteboard.common.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a freehand stroke with {@link BinaryActionCodec} against Java
+ * serialization, for paths on the 1/8 pixel grid, written as deltas, and off it, written
+ * as raw floats. The encoded sizes are printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryActionCodecBenchmark {
+
+    @Param({"2", "50"})
+    public int points;
+
+    @Param({"true", "false"})
+    public boolean onGrid;
+
+    private Action action;
+    private byte[] binary;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        List<Point> path = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            double x = 100 + random.nextInt(800);
+            double y = 100 + random.nextInt(600);
+            if (!onGrid) {
+                // e.g. mouse positions on a scaled display
+                x += random.nextFloat();
+                y += random.nextFloat();
+            }
+            path.add(new Point(x, y));
+        }
+        action = new DrawAction("alice", DrawAction.ShapeType.FREEHAND, path, "0x1e90ffff", 2.0);
+        action.assignSequence(1000, 990);
+
+        binary = BinaryActionCodec.encode(action);
+        serialized = serialize();
+        System.out.printf("%nEncoded sizes: binary %d bytes, serialized %d bytes%n", binary.length, serialized.length);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws IOException {
+        return BinaryActionCodec.encode(action);
+    }
+
+    @Benchmark
+    public byte[] encodeSerialized() throws IOException {
+        return serialize();
+    }
+
+    @Benchmark
+    public List<Action> decodeBinary() throws IOException {
+        return BinaryActionCodec.decode(binary);
+    }
+
+    @Benchmark
+    public Object decodeSerialized() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+            out.writeObject(action);
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,89 @@
+package org.whiteboard.common.spatial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.whiteboard.common.Bounds;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Region queries on a {@link QuadTree} against scanning every item, for boards of 10k, 100k
+ * and 1M objects with random 0-10 px bounds on the 1200x800 canvas, queried with 20 px
+ * squares. Insert measures adding an object and removing it again, so the tree keeps its size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class QuadTreeBenchmark {
+
+    private static final Bounds CANVAS = new Bounds(0, 0, 1200, 800);
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    public int objects;
+
+    private QuadTree<Integer> tree;
+    private Bounds[] bounds;
+    private final Bounds[] queries = new Bounds[QUERIES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(objects);
+        tree = new QuadTree<>(CANVAS);
+        bounds = new Bounds[objects];
+        for (int i = 0; i < objects; i++) {
+            double x = random.nextDouble() * 1190;
+            double y = random.nextDouble() * 790;
+            bounds[i] = new Bounds(x, y, x + random.nextDouble() * 10, y + random.nextDouble() * 10);
+            tree.insert(i, bounds[i]);
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            double x = random.nextDouble() * 1180;
+            double y = random.nextDouble() * 780;
+            queries[i] = new Bounds(x, y, x + 20, y + 20);
+        }
+    }
+
+    private Bounds nextQuery() {
+        return queries[next++ & (QUERIES - 1)];
+    }
+
+    @Benchmark
+    public void query(Blackhole blackhole) {
+        tree.query(nextQuery(), blackhole::consume);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        Bounds query = nextQuery();
+        int hits = 0;
+        for (Bounds item : bounds) {
+            if (item.touches(query)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public boolean insert() {
+        Bounds area = nextQuery();
+        tree.insert(-1, area);
+        return tree.remove(-1, area);
+    }
+}
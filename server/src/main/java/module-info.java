@@ -1,4 +1,5 @@
 module org.whiteboard.server {
     requires org.whiteboard.common;
     requires java.rmi;
+    requires java.desktop;
 }
\ No newline at end of file
@@ -0,0 +1,138 @@
+package org.whiteboard.server;
+
+import org.whiteboard.server.replication.ReplicationLog;
+import org.whiteboard.server.service.ActionSequencer;
+import org.whiteboard.server.service.BoardCheckpointer;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * One board hosted by the server. Every board has its own users and admin, history,
+ * sequencer, dispatch lanes and write-ahead log, nothing is shared between boards but
+ * the process.
+ */
+public class Board {
+
+    private final String id;
+    private final WhiteboardServer server;
+    private final ActionSequencer sequencer;
+    private final BoardCheckpointer checkpointer;
+    private final Path dataDirectory;
+    private final ReplicationLog.Feed replication;
+
+    /**
+     * @param id            id of the board
+     * @param server        the board's server, handed out to its clients
+     * @param sequencer     the board's sequencer
+     * @param checkpointer  the board's checkpointer, or null without a write-ahead log
+     * @param dataDirectory directory of the board's log and checkpoints, or null
+     * @param replication   stream the board's changes are shipped to standbys in, or null
+     */
+    public Board(
+            String id,
+            WhiteboardServer server,
+            ActionSequencer sequencer,
+            BoardCheckpointer checkpointer,
+            Path dataDirectory,
+            ReplicationLog.Feed replication
+    ) {
+        this.id = id;
+        this.server = server;
+        this.sequencer = sequencer;
+        this.checkpointer = checkpointer;
+        this.dataDirectory = dataDirectory;
+        this.replication = replication;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public WhiteboardServer getServer() {
+        return server;
+    }
+
+    public ActionSequencer getSequencer() {
+        return sequencer;
+    }
+
+    /**
+     * Stop or start again accepting changes, e.g. while the board is copied to another server.
+     */
+    public void setSealed(boolean sealed) {
+        sequencer.setSealed(sealed);
+    }
+
+    /**
+     * Whether the board can be shut down while idle and recovered from its files the next
+     * time it is opened: it keeps a write-ahead log, has no clients and isn't being moved.
+     */
+    public boolean isDormant() {
+        return dataDirectory != null && server.getClientCount() == 0 && !sequencer.isSealed();
+    }
+
+    /**
+     * Stop taking checkpoints, then shut the board's server and services down.
+     */
+    public void shutdown() {
+        shutdown("Server is shutting down gracefully.");
+    }
+
+    /**
+     * Stop taking checkpoints, then shut the board's server and services down. Its log
+     * and checkpoint are kept.
+     *
+     * @param reason the reason given to connected clients
+     */
+    public void shutdown(String reason) {
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+        }
+        server.shutdown(reason);
+    }
+
+    /**
+     * Shut the board down for good and delete its log and checkpoint, e.g. once it moved
+     * to another server.
+     *
+     * @param reason the reason given to connected clients
+     * @throws IOException if the board's files cannot be deleted
+     */
+    public void close(String reason) throws IOException {
+        if (replication != null) {
+            replication.close();
+        }
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+        }
+        server.shutdown(reason);
+        if (dataDirectory == null) {
+            return;
+        }
+
+        // Only the board's own files, the default board's directory holds the other boards
+        Path wal = dataDirectory.resolve("wal");
+        if (Files.exists(wal)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(wal)) {
+                files = walk.sorted(Comparator.reverseOrder()).toList();
+            }
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(dataDirectory.resolve(BoardCheckpointer.CHECKPOINT_FILE));
+        Files.deleteIfExists(dataDirectory.resolve(BoardCheckpointer.CHECKPOINT_FILE + ".tmp"));
+        try {
+            Files.deleteIfExists(dataDirectory);
+        } catch (DirectoryNotEmptyException e) {
+            // Still holds other boards
+        }
+    }
+}
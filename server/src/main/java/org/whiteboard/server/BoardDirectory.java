@@ -0,0 +1,489 @@
+package org.whiteboard.server;
+
+import org.whiteboard.common.rmi.IBoardNode;
+import org.whiteboard.common.rmi.IWhiteboardServer;
+
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Hosts many independent boards in one server process, addressed by board id.
+ * <p>
+ * A board is created by the factory the first time it is opened, recovering its history if
+ * it has one. Boards are created outside any shared lock, so a board recovering a long log
+ * doesn't hold up clients opening other boards. The default board is also bound under the
+ * name older clients look up.
+ * <p>
+ * Behind a gateway, boards are moved away from the directory: sealed, copied by the
+ * gateway through their export, then closed.
+ * <p>
+ * Every open board costs threads and memory, so the directory hosts a bounded number of
+ * them. A board that keeps a write-ahead log and has had no clients for a while is shut
+ * down, its files kept, and recovered the next time it is opened. Opening a board beyond
+ * the limit first shuts down the board without clients the longest, and fails if every
+ * board has clients or no log to recover from. A standby doesn't evict the replicas it
+ * keeps up to date until it took over.
+ * <p>
+ * A board being closed or evicted stays in the directory until it is shut down, so
+ * opening it meanwhile waits, then creates it anew or recovers it from its files, never
+ * from files being deleted.
+ */
+public class BoardDirectory extends UnicastRemoteObject implements IBoardNode {
+
+    /**
+     * Name of the default board's server in the registry, looked up by older clients.
+     */
+    public static final String LEGACY_SERVICE_NAME = "WhiteboardServer";
+
+    public static final int DEFAULT_MAX_BOARDS = 256;
+    public static final long DEFAULT_IDLE_MILLIS = 10 * 60 * 1000;
+
+    // Board ids name the board's data directory
+    private static final Pattern BOARD_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /**
+     * Creates a board the first time it is opened.
+     */
+    @FunctionalInterface
+    public interface BoardFactory {
+        /**
+         * @param boardId a valid board id
+         * @return the new board, its server exported
+         * @throws IOException if the board's history cannot be recovered
+         */
+        Board create(String boardId) throws IOException;
+    }
+
+    private final transient Registry registry;
+    private final transient BoardFactory factory;
+    private final int maxBoards;
+    private final long idleMillis;
+
+    // A board being closed or evicted maps to a future completed with null once it is down
+    private final transient Map<String, CompletableFuture<Board>> boards = new ConcurrentHashMap<>();
+
+    // Since when each board had no clients, in System.nanoTime()
+    private final transient Map<String, Long> emptySince = new ConcurrentHashMap<>();
+
+    // Boards shut down while idle, still hosted here and recovered when next used
+    private final transient Set<String> unloaded = ConcurrentHashMap.newKeySet();
+
+    // Admits new boards one at a time, so they don't overshoot the limit together
+    private final transient Object admission = new Object();
+
+    private final transient ScheduledExecutorService evictor;
+    private volatile boolean closed;
+    private volatile boolean published;
+
+    /**
+     * Factory method to create the registry, the directory and the default board, and
+     * register them, with the default limits.
+     *
+     * @param port    the port number of the server
+     * @param factory creates the boards
+     * @throws RuntimeException if the directory or the default board cannot be created
+     */
+    public static BoardDirectory CreateDirectory(int port, BoardFactory factory) {
+        return CreateDirectory(port, factory, DEFAULT_MAX_BOARDS, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * Factory method to create the registry, the directory and the default board, and
+     * register them.
+     *
+     * @param port       the port number of the server
+     * @param factory    creates the boards
+     * @param maxBoards  number of boards hosted at most
+     * @param idleMillis time a board without clients stays open
+     * @throws RuntimeException if the directory or the default board cannot be created
+     */
+    public static BoardDirectory CreateDirectory(int port, BoardFactory factory, int maxBoards, long idleMillis) {
+        BoardDirectory directory = CreateStandby(port, factory, maxBoards, idleMillis);
+        try {
+            directory.publish();
+            System.out.println("Board directory bound to registry on port " + port);
+            return directory;
+
+        } catch (RemoteException ex) {
+            System.err.println("FATAL: Failed to create or bind board directory: " + ex.getMessage());
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Factory method to create the registry and the directory of a standby server, which
+     * is only registered once it takes over, with the default limits.
+     *
+     * @param port    the port number of the server
+     * @param factory creates the boards
+     * @throws RuntimeException if the registry or the directory cannot be created
+     */
+    public static BoardDirectory CreateStandby(int port, BoardFactory factory) {
+        return CreateStandby(port, factory, DEFAULT_MAX_BOARDS, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * Factory method to create the registry and the directory of a standby server, which
+     * is only registered once it takes over.
+     *
+     * @param port       the port number of the server
+     * @param factory    creates the boards
+     * @param maxBoards  number of boards hosted at most once registered
+     * @param idleMillis time a board without clients stays open once registered
+     * @throws RuntimeException if the registry or the directory cannot be created
+     */
+    public static BoardDirectory CreateStandby(int port, BoardFactory factory, int maxBoards, long idleMillis) {
+        try {
+            Registry registry = LocateRegistry.createRegistry(port);
+            return new BoardDirectory(registry, factory, maxBoards, idleMillis);
+
+        } catch (RemoteException ex) {
+            System.err.println("FATAL: Failed to create board directory: " + ex.getMessage());
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @param registry   RMI registry the directory is bound to
+     * @param factory    creates the boards
+     * @param maxBoards  number of boards hosted at most once registered
+     * @param idleMillis time a board without clients stays open once registered
+     * @throws RemoteException if an error occurs during remote object creation
+     */
+    protected BoardDirectory(Registry registry, BoardFactory factory, int maxBoards, long idleMillis) throws RemoteException {
+        if (maxBoards <= 0) {
+            throw new IllegalArgumentException("Board limit must be positive: " + maxBoards);
+        }
+        this.registry = registry;
+        this.factory = factory;
+        this.maxBoards = maxBoards;
+        this.idleMillis = Math.max(0, idleMillis);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BoardDirectory-Evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, this.idleMillis / 4);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Register the directory, and the default board under the name older clients look up,
+     * so clients can connect.
+     *
+     * @throws RemoteException if the default board cannot be created or the registry fails
+     */
+    public void publish() throws RemoteException {
+        Board defaultBoard = board(DEFAULT_BOARD);
+        registry.rebind(LEGACY_SERVICE_NAME, defaultBoard.getServer());
+        registry.rebind(SERVICE_NAME, this);
+        published = true;
+    }
+
+    public Registry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public IWhiteboardServer openBoard(String boardId) throws RemoteException {
+        return board(boardId).getServer();
+    }
+
+    /**
+     * Get a board, creating it if it doesn't exist yet. Concurrent callers of a board being
+     * created wait for it, others don't.
+     *
+     * @param boardId id of the board
+     * @return the board
+     * @throws RemoteException if the id is invalid, the directory is shut down or the board
+     *                         cannot be created
+     */
+    public Board board(String boardId) throws RemoteException {
+        if (boardId == null || !BOARD_ID.matcher(boardId).matches()) {
+            throw new RemoteException("Invalid board id: " + boardId);
+        }
+
+        while (true) {
+            if (closed) {
+                throw new RemoteException("Server is shutting down");
+            }
+            CompletableFuture<Board> board = boards.get(boardId);
+            if (board == null) {
+                board = admit(boardId);
+            }
+
+            Board opened;
+            try {
+                opened = board.join();
+            } catch (CompletionException e) {
+                throw new RemoteException("Fail to open board '" + boardId + "': " + e.getCause().getMessage());
+            }
+            if (opened != null) {
+                return opened;
+            }
+            // Closed or evicted meanwhile, open it again
+        }
+    }
+
+    /**
+     * Create a board that is not hosted, making room for it first if the directory is full.
+     *
+     * @return the board, or whatever took its id meanwhile
+     */
+    private CompletableFuture<Board> admit(String boardId) throws RemoteException {
+        CompletableFuture<Board> created = new CompletableFuture<>();
+        Leaving evicted = null;
+        synchronized (admission) {
+            CompletableFuture<Board> existing = boards.get(boardId);
+            if (existing != null) {
+                return existing;
+            }
+            if (published && boards.size() >= maxBoards) {
+                String idlest = idlest();
+                evicted = idlest == null ? null : retire(idlest);
+                if (evicted == null) {
+                    throw new RemoteException("Error: This server hosts " + boards.size()
+                            + " boards in use already, please try again later");
+                }
+            }
+            boards.put(boardId, created);
+        }
+        if (evicted != null) {
+            evict(evicted);
+        }
+
+        try {
+            created.complete(factory.create(boardId));
+            unloaded.remove(boardId);
+            System.out.println("Board '" + boardId + "' opened, " + boards.size() + " boards hosted");
+        } catch (IOException | RuntimeException e) {
+            // Let a later open try again
+            boards.remove(boardId, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    // The dormant board without clients the longest, or null if there is none
+    private String idlest() {
+        String idlest = null;
+        long idlestSince = Long.MAX_VALUE;
+        long now = System.nanoTime();
+        for (Map.Entry<String, CompletableFuture<Board>> entry : boards.entrySet()) {
+            Board board = entry.getValue().getNow(null);
+            if (board == null || DEFAULT_BOARD.equals(entry.getKey()) || !board.isDormant()) {
+                continue;
+            }
+            long since = emptySince.getOrDefault(entry.getKey(), now);
+            if (idlest == null || since - idlestSince < 0) {
+                idlest = entry.getKey();
+                idlestSince = since;
+            }
+        }
+        return idlest;
+    }
+
+    /**
+     * Shut down the boards that have been dormant for longer than the idle time.
+     */
+    private void evictIdle() {
+        if (!published || closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Map.Entry<String, CompletableFuture<Board>> entry : boards.entrySet()) {
+            String boardId = entry.getKey();
+            Board board = entry.getValue().getNow(null);
+            if (board == null || DEFAULT_BOARD.equals(boardId) || !board.isDormant()) {
+                emptySince.remove(boardId);
+                continue;
+            }
+            long since = emptySince.computeIfAbsent(boardId, id -> now);
+            if (now - since < TimeUnit.MILLISECONDS.toNanos(idleMillis)) {
+                continue;
+            }
+            Leaving evicted;
+            synchronized (admission) {
+                evicted = retire(boardId);
+            }
+            if (evicted != null) {
+                evict(evicted);
+            }
+        }
+    }
+
+    /**
+     * A board on its way out of the directory, in place of which those who open it wait.
+     */
+    private record Leaving(String boardId, Board board, CompletableFuture<Board> placeholder) {
+    }
+
+    /**
+     * Take a hosted board out of the directory, leaving a placeholder that makes those who
+     * open it meanwhile wait until it is shut down and {@link #forget(Leaving)} was called.
+     *
+     * @return the leaving board, or null if it is not hosted or already on its way out
+     */
+    private Leaving retire(String boardId) {
+        CompletableFuture<Board> current = boards.get(boardId);
+        Board board = current == null ? null : current.getNow(null);
+        if (board == null) {
+            return null;
+        }
+        CompletableFuture<Board> placeholder = new CompletableFuture<>();
+        return boards.replace(boardId, current, placeholder) ? new Leaving(boardId, board, placeholder) : null;
+    }
+
+    // Drop a board once it is shut down, those waiting for it open it anew
+    private void forget(Leaving leaving) {
+        boards.remove(leaving.boardId(), leaving.placeholder());
+        emptySince.remove(leaving.boardId());
+        leaving.placeholder().complete(null);
+    }
+
+    private void evict(Leaving leaving) {
+        try {
+            leaving.board().shutdown("Board was idle and has been unloaded, please reconnect");
+        } finally {
+            unloaded.add(leaving.boardId());
+            forget(leaving);
+        }
+        System.out.println("Board '" + leaving.boardId() + "' unloaded while idle, " + boards.size() + " boards open");
+    }
+
+    @Override
+    public List<String> listBoards() {
+        List<String> ids = new ArrayList<>(unloaded);
+        for (Map.Entry<String, CompletableFuture<Board>> entry : boards.entrySet()) {
+            if (entry.getValue().isDone()
+                    && !entry.getValue().isCompletedExceptionally()
+                    && entry.getValue().getNow(null) != null
+                    && !unloaded.contains(entry.getKey())) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public IWhiteboardServer findBoard(String boardId) throws RemoteException {
+        Board board = hosted(boardId);
+        return board == null ? null : board.getServer();
+    }
+
+    @Override
+    public boolean sealBoard(String boardId, boolean sealed) throws RemoteException {
+        Board board = hosted(boardId);
+        if (board == null) {
+            return false;
+        }
+        board.setSealed(sealed);
+        System.out.println("Board '" + boardId + "' " + (sealed ? "sealed" : "unsealed"));
+        return true;
+    }
+
+    @Override
+    public void closeBoard(String boardId, String reason) throws RemoteException {
+        if (hosted(boardId) == null) {
+            return;
+        }
+        Leaving leaving;
+        synchronized (admission) {
+            leaving = retire(boardId);
+        }
+        if (leaving == null) {
+            // Closed or evicted meanwhile
+            return;
+        }
+        // Opening it meanwhile waits, it must not recover from the files being deleted
+        try {
+            leaving.board().close(reason);
+        } catch (IOException e) {
+            throw new RemoteException("Fail to delete the files of board '" + boardId + "': " + e.getMessage());
+        } finally {
+            unloaded.remove(boardId);
+            forget(leaving);
+        }
+        System.out.println("Board '" + boardId + "' closed, " + boards.size() + " boards hosted");
+    }
+
+    // The board if it is hosted, recovering it if it was unloaded, without creating it
+    private Board hosted(String boardId) throws RemoteException {
+        while (boardId != null) {
+            CompletableFuture<Board> board = boards.get(boardId);
+            if (board == null) {
+                return unloaded.contains(boardId) ? board(boardId) : null;
+            }
+            try {
+                Board hosted = board.join();
+                if (hosted != null) {
+                    return hosted;
+                }
+                // Closed or evicted meanwhile, look again
+            } catch (CompletionException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of boards open, not counting those unloaded while idle.
+     */
+    public int size() {
+        return boards.size();
+    }
+
+    /**
+     * Unbind from the registry, then shut every board down.
+     */
+    public void shutdown() {
+        closed = true;
+
+        // Unbind from the registry to stop accepting new connections
+        if (published) {
+            for (String name : List.of(SERVICE_NAME, LEGACY_SERVICE_NAME)) {
+                try {
+                    registry.unbind(name);
+                } catch (Exception e) {
+                    System.err.println("Error unbinding " + name + " from registry: " + e.getMessage());
+                }
+            }
+            System.out.println("Board directory unbound from RMI registry");
+        }
+
+        evictor.shutdownNow();
+        for (CompletableFuture<Board> future : new ArrayList<>(boards.values())) {
+            try {
+                Board board = future.join();
+                if (board != null) {
+                    board.shutdown();
+                }
+            } catch (CompletionException e) {
+                // Never created, nothing to shut down
+            }
+        }
+        boards.clear();
+
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException e) {
+            System.err.println("Error unexporting board directory: " + e.getMessage());
+        }
+    }
+}
@@ -1,12 +1,32 @@
 package org.whiteboard.server;
 
+import org.whiteboard.common.rmi.IBoardDirectory;
 import org.whiteboard.common.rmi.IClientCallback;
+import org.whiteboard.common.rmi.IReplicationSource;
+import org.whiteboard.server.event.AsyncActionBroadcaster;
+import org.whiteboard.server.gateway.BoardGateway;
+import org.whiteboard.server.replication.ReplicationLog;
+import org.whiteboard.server.replication.ReplicationSource;
+import org.whiteboard.server.replication.StandbyReplica;
+import org.whiteboard.server.service.ActionIngest;
+import org.whiteboard.server.service.ActionSequencer;
+import org.whiteboard.server.service.BoardCheckpointer;
+import org.whiteboard.server.service.DirectActionIngest;
 import org.whiteboard.server.service.FileService;
+import org.whiteboard.server.service.RingBufferActionIngest;
 import org.whiteboard.server.service.UserService;
 import org.whiteboard.server.service.WhiteboardService;
+import org.whiteboard.server.storage.ActionLog;
+import org.whiteboard.server.storage.BoardTimeline;
+import org.whiteboard.server.storage.OffHeapActionLog;
+import org.whiteboard.server.storage.WriteAheadLog;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
 
 public class Main {
     public static void main(String[] args) {
@@ -22,26 +42,63 @@ public class Main {
         try {
             System.out.println("Starting Whiteboard server on port " + port + "...");
 
-            Map<String, IClientCallback> clients = new ConcurrentHashMap<>();
-
-            UserService userService = new UserService(clients);
-            WhiteboardService whiteboardService = new WhiteboardService(clients);
-            FileService fileService = new FileService();
+            // The board raster is painted without a display
+            System.setProperty("java.awt.headless", "true");
+            LongFunction<ActionLog> historyFactory = createHistoryFactory();
+            BiFunction<FileService, WhiteboardService, ActionIngest> ingestFactory = createIngestFactory();
+            Path dataDirectory = dataDirectory();
+            if (dataDirectory != null) {
+                System.out.println("Using write-ahead logs in " + dataDirectory.toAbsolutePath());
+            }
 
-            // Create and start the server
-            WhiteboardServer server = WhiteboardServer.CreateServer(
-                    port,
-                    whiteboardService,
-                    fileService,
-                    userService
+            ReplicationLog replicationLog = createReplicationLog();
+            String primary = System.getProperty("whiteboard.replication.primary");
+            BoardDirectory.BoardFactory factory = boardId -> createBoard(
+                    boardId,
+                    boardDirectory(dataDirectory, boardId),
+                    historyFactory,
+                    ingestFactory,
+                    replicationLog == null ? null : replicationLog.feed(boardId)
             );
 
-            System.out.println("Server started successfully on port " + port);
+            // Boards without clients are unloaded after a while, and opening one beyond the
+            // limit unloads the one idle the longest
+            int maxBoards = Integer.getInteger("whiteboard.boards.max", BoardDirectory.DEFAULT_MAX_BOARDS);
+            long idleMillis = Long.getLong("whiteboard.boards.idleMillis", BoardDirectory.DEFAULT_IDLE_MILLIS);
+
+            // A standby keeps a replica of the primary's boards and only registers them once
+            // the primary is gone, otherwise create the directory and the default board
+            BoardDirectory directory;
+            StandbyReplica standby = null;
+            if (primary != null && !primary.isBlank()) {
+                String[] hostAndPort = BoardGateway.parseAddress(primary);
+                directory = BoardDirectory.CreateStandby(port, factory, maxBoards, idleMillis);
+                standby = new StandbyReplica(
+                        directory,
+                        hostAndPort[0],
+                        Integer.parseInt(hostAndPort[1]),
+                        Long.getLong("whiteboard.replication.failoverMillis", StandbyReplica.DEFAULT_FAILOVER_MILLIS),
+                        replicationLog
+                );
+                standby.start();
+                System.out.println("Standby of " + primary + " started on port " + port);
+            } else {
+                directory = BoardDirectory.CreateDirectory(port, factory, maxBoards, idleMillis);
+                if (replicationLog != null) {
+                    directory.getRegistry().rebind(IReplicationSource.SERVICE_NAME, new ReplicationSource(replicationLog));
+                    System.out.println("Serving the replication stream to standbys");
+                }
+                System.out.println("Server started successfully on port " + port);
+            }
 
             // Add Shutdown Hook for graceful termination
+            StandbyReplica replica = standby;
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutdown hook triggered. Shutting down server...");
-                server.shutdown();
+                if (replica != null) {
+                    replica.shutdown();
+                }
+                directory.shutdown();
                 System.out.println("Server shutdown process finished.");
             }, "ServerShutdownHook"));
 
@@ -52,4 +109,191 @@ public class Main {
             System.exit(1);
         }
     }
+
+    /**
+     * Create one board with its own users, history, sequencer and dispatch lanes, recovering
+     * its last state from its directory first.
+     *
+     * @param boardId        id of the board
+     * @param dataDirectory  directory of the board's write-ahead log and checkpoints, or null
+     * @param historyFactory creates the board's history store
+     * @param ingestFactory  creates the board's ingest path
+     * @param replication    stream the board's changes are shipped to standbys in, or null
+     */
+    private static Board createBoard(
+            String boardId,
+            Path dataDirectory,
+            LongFunction<ActionLog> historyFactory,
+            BiFunction<FileService, WhiteboardService, ActionIngest> ingestFactory,
+            ReplicationLog.Feed replication
+    ) throws IOException {
+        Map<String, IClientCallback> clients = new ConcurrentHashMap<>();
+
+        UserService userService = new UserService(clients);
+        // One lane per board keeps threads growing with boards rather than boards times cores,
+        // -Dwhiteboard.dispatch.lanes gives every board more when a few boards carry the load
+        int dispatchLanes = Integer.getInteger("whiteboard.dispatch.lanes", 1);
+        WhiteboardService whiteboardService = new WhiteboardService(clients, createBroadcaster(), dispatchLanes);
+        FileService fileService = new FileService(Integer.getInteger(
+                "whiteboard.raster.foldThreshold",
+                FileService.DEFAULT_RASTER_FOLD_THRESHOLD
+        ), Integer.getInteger(
+                "whiteboard.checkpoint.interval",
+                BoardTimeline.DEFAULT_CHECKPOINT_INTERVAL
+        ), historyFactory);
+        // Recover the last board before new records are appended to the log
+        WriteAheadLog wal = null;
+        WriteAheadLog.Recovery recovery = null;
+        long recoveryStart = System.nanoTime();
+        if (dataDirectory != null) {
+            Path walDirectory = dataDirectory.resolve("wal");
+            BoardCheckpointer.Checkpoint checkpoint = BoardCheckpointer.load(dataDirectory);
+            recovery = checkpoint == null
+                    ? WriteAheadLog.recover(walDirectory)
+                    : WriteAheadLog.recover(walDirectory, checkpoint.headSequence(), checkpoint.actions());
+            wal = new WriteAheadLog(walDirectory, Long.getLong(
+                    "whiteboard.wal.segmentBytes",
+                    WriteAheadLog.DEFAULT_SEGMENT_BYTES
+            ));
+        }
+        ActionSequencer sequencer = new ActionSequencer(
+                fileService,
+                whiteboardService,
+                ingestFactory.apply(fileService, whiteboardService),
+                wal,
+                replication
+        );
+        BoardCheckpointer checkpointer = null;
+        if (recovery != null) {
+            sequencer.restore(recovery.baseSequence(), recovery.actions());
+            if (!recovery.actions().isEmpty()) {
+                System.out.printf(
+                        "Board '%s': recovered %d actions from %d log segments in %d ms%n",
+                        boardId,
+                        recovery.actions().size(),
+                        recovery.segments(),
+                        (System.nanoTime() - recoveryStart) / 1_000_000
+                );
+            }
+            checkpointer = new BoardCheckpointer(sequencer, wal, dataDirectory, Long.getLong(
+                    "whiteboard.wal.checkpointActions",
+                    BoardCheckpointer.DEFAULT_EVERY_ACTIONS
+            ), Long.getLong(
+                    "whiteboard.wal.checkpointSeconds",
+                    BoardCheckpointer.DEFAULT_EVERY_SECONDS
+            ));
+            checkpointer.start(sequencer.getLastSequence());
+        }
+
+        WhiteboardServer server = new WhiteboardServer(whiteboardService, fileService, userService, sequencer);
+        return new Board(boardId, server, sequencer, checkpointer, dataDirectory, replication);
+    }
+
+    /**
+     * Directory of a board's write-ahead log and checkpoints. The default board keeps the
+     * data directory itself, so a single board server's data is still found, the others
+     * have one under boards/.
+     */
+    private static Path boardDirectory(Path dataDirectory, String boardId) {
+        if (dataDirectory == null) {
+            return null;
+        }
+        if (IBoardDirectory.DEFAULT_BOARD.equals(boardId)) {
+            return dataDirectory;
+        }
+        return dataDirectory.resolve("boards").resolve(boardId);
+    }
+
+    /**
+     * Directory of the write-ahead log and checkpoints from system properties,
+     * e.g. -Dwhiteboard.data.dir=data. Without it the history is kept in memory only.
+     */
+    private static Path dataDirectory() {
+        String dataDir = System.getProperty("whiteboard.data.dir");
+        if (dataDir == null || dataDir.isBlank()) {
+            return null;
+        }
+        return Path.of(dataDir);
+    }
+
+    /**
+     * Create the stream of changes standbys replicate from system properties,
+     * -Dwhiteboard.replication=primary serves it under
+     * {@link IReplicationSource#SERVICE_NAME}. A standby, started with
+     * -Dwhiteboard.replication.primary=host:port, always keeps one to serve after it took over.
+     * Once a standby pulled, boards only accept changes for -Dwhiteboard.replication.leaseMillis
+     * after its last pull, 0 to accept them regardless.
+     */
+    private static ReplicationLog createReplicationLog() {
+        boolean primary = "primary".equalsIgnoreCase(System.getProperty("whiteboard.replication", "none"));
+        String standbyOf = System.getProperty("whiteboard.replication.primary");
+        if (!primary && (standbyOf == null || standbyOf.isBlank())) {
+            return null;
+        }
+        return new ReplicationLog(
+                Long.getLong("whiteboard.replication.retainBytes", ReplicationLog.DEFAULT_RETAIN_BYTES),
+                Long.getLong("whiteboard.replication.leaseMillis", ReplicationLog.DEFAULT_LEASE_MILLIS)
+        );
+    }
+
+    /**
+     * Create the history store from system properties, -Dwhiteboard.history=offheap keeps
+     * the history in temporary chunk files under -Dwhiteboard.history.dir, the temporary
+     * directory by default.
+     */
+    private static LongFunction<ActionLog> createHistoryFactory() {
+        if ("offheap".equalsIgnoreCase(System.getProperty("whiteboard.history", "heap"))) {
+            Path directory = Path.of(System.getProperty(
+                    "whiteboard.history.dir",
+                    System.getProperty("java.io.tmpdir")
+            ));
+            int chunkBytes = Integer.getInteger(
+                    "whiteboard.history.chunkBytes",
+                    OffHeapActionLog.DEFAULT_CHUNK_BYTES
+            );
+            System.out.println("Keeping the history off heap in " + directory.toAbsolutePath());
+            return baseSequence -> new OffHeapActionLog(baseSequence, directory, chunkBytes);
+        }
+        return ActionLog::new;
+    }
+
+    /**
+     * Create the boards' ingest path from system properties,
+     * -Dwhiteboard.ingest=ring switches to the pre-allocated ring buffer.
+     */
+    private static BiFunction<FileService, WhiteboardService, ActionIngest> createIngestFactory() {
+        if ("ring".equalsIgnoreCase(System.getProperty("whiteboard.ingest", "direct"))) {
+            int capacity = Integer.getInteger(
+                    "whiteboard.ingest.ringCapacity",
+                    RingBufferActionIngest.DEFAULT_CAPACITY
+            );
+            System.out.println("Using ring buffer ingest with " + capacity + " slots per board");
+            return (fileService, whiteboardService) ->
+                    new RingBufferActionIngest(fileService, whiteboardService, capacity);
+        }
+        return DirectActionIngest::new;
+    }
+
+    /**
+     * Create the action broadcaster from system properties,
+     * e.g. -Dwhiteboard.broadcast.queueCapacity=2048
+     */
+    private static AsyncActionBroadcaster createBroadcaster() {
+        int queueCapacity = Integer.getInteger(
+                "whiteboard.broadcast.queueCapacity",
+                AsyncActionBroadcaster.DEFAULT_QUEUE_CAPACITY
+        );
+        AsyncActionBroadcaster.OverflowPolicy overflowPolicy = AsyncActionBroadcaster.OverflowPolicy.valueOf(
+                System.getProperty("whiteboard.broadcast.overflowPolicy", "DROP_NEWEST")
+        );
+        int maxBatchSize = Integer.getInteger(
+                "whiteboard.broadcast.maxBatchSize",
+                AsyncActionBroadcaster.DEFAULT_MAX_BATCH_SIZE
+        );
+        long flushWindowMs = Long.getLong(
+                "whiteboard.broadcast.flushWindowMs",
+                AsyncActionBroadcaster.DEFAULT_FLUSH_WINDOW_MS
+        );
+        return new AsyncActionBroadcaster(queueCapacity, overflowPolicy, maxBatchSize, flushWindowMs);
+    }
 }
\ No newline at end of file
@@ -1,17 +1,18 @@
 package org.whiteboard.server;
 
 import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.UndoAction;
 import org.whiteboard.common.rmi.IClientCallback;
 import org.whiteboard.common.rmi.IWhiteboardServer;
+import org.whiteboard.server.service.ActionSequencer;
 import org.whiteboard.server.service.FileService;
 import org.whiteboard.server.service.UserService;
 import org.whiteboard.server.service.WhiteboardService;
 
 import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -22,64 +23,29 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
     private final WhiteboardService whiteboardService;
     private final FileService fileService;
     private final UserService userService;
-    private final transient Registry registry;
+    private final ActionSequencer sequencer;
 
 
     /**
-     * Factory method to create and register a new server instance.
+     * Constructor for the server of one board, exported but not bound to a registry,
+     * the board directory hands it out.
      *
-     * @param port the port number of the server
-     * @param whiteboardService the whiteboard service
-     * @param fileService       the file service
-     * @param userService       the user service
-     * @throws RuntimeException if server creation fails.
-     */
-    public static WhiteboardServer CreateServer(
-            int port,
-            WhiteboardService whiteboardService,
-            FileService fileService,
-            UserService userService
-    ) {
-        try {
-            Registry registry = LocateRegistry.createRegistry(port);
-
-            WhiteboardServer server = new WhiteboardServer(
-                    registry,
-                    whiteboardService,
-                    fileService,
-                    userService
-            );
-
-            registry.rebind("WhiteboardServer", server);
-
-            System.out.println("WhiteboardServer bound to registry on port " + port);
-            return server;
-
-        } catch (RemoteException ex) {
-            System.err.println("FATAL: Failed to create or bind server: " + ex.getMessage());
-            throw new RuntimeException(ex);
-        }
-    }
-
-    /**
-     * Constructor for the server.
-     *
-     * @param registry          RMI registry instance
      * @param whiteboardService the whiteboard service
      * @param fileService       the file service
      * @param userService       the user service
+     * @param sequencer         the sequencer ordering accepted actions
      * @throws RemoteException if an error occurs during remote object creation
      */
     protected WhiteboardServer(
-            Registry registry,
             WhiteboardService whiteboardService,
             FileService fileService,
-            UserService userService
+            UserService userService,
+            ActionSequencer sequencer
     ) throws RemoteException {
-        this.registry = registry;
         this.fileService = fileService;
         this.whiteboardService = whiteboardService;
         this.userService = userService;
+        this.sequencer = sequencer;
     }
 
     @Override
@@ -90,8 +56,7 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
     @Override
     public void acceptUserJoin(String username) throws RemoteException {
         IClientCallback userCallback = userService.userJoin(username);
-        String canvasData = fileService.getCanvasData();
-        userCallback.onSyncWhiteboard(canvasData);
+        fileService.streamSync(userCallback);
     }
 
     @Override
@@ -104,11 +69,8 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
 
             userService.registerClient(username, callback, true);
 
-            // file service get current canvas storage
-            String canvasData = fileService.getCanvasData();
-
-            // whiteboard service import canvas storage
-            callback.onSyncWhiteboard(canvasData);
+            // stream the current canvas to the admin
+            fileService.streamSync(callback);
         } else if (isAdmin && userService.hasAdmin()) {
             throw new RemoteException("Only one admin can be registered at a time");
         } else if (!isAdmin && !userService.hasAdmin()) {
@@ -126,7 +88,7 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
 
             System.out.println("Admin '" + username + "' has left whiteboard");
             // clean canvas storage
-            fileService.cleanData();
+            sequencer.clear();
 
             // kick all user
             for (Map.Entry<String, IClientCallback> entry : userService.getClients().entrySet()) {
@@ -144,9 +106,8 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
 
     @Override
     public void broadcastAction(String username, Action action) throws RemoteException {
-        // file service store action in canvas storage
-        fileService.addAction(action);
-        whiteboardService.broadcastAction(username, action);
+        // sequence the action, store it in canvas storage and broadcast it in one order
+        sequencer.accept(username, action);
     }
 
     @Override
@@ -172,10 +133,10 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
 
     @Override
     public void clearCanva(boolean isClose) throws RemoteException {
-        fileService.cleanData();
+        sequencer.clear();
         for (Map.Entry<String, IClientCallback> entry : userService.getClients().entrySet()) {
             IClientCallback client = entry.getValue();
-            client.onSyncWhiteboard("");
+            fileService.streamSync(client);
             if (isClose) {
                 client.blockCanvas();
                 client.onSendMessage("System: ", "Canvas has been closed by admin,\n" +
@@ -190,36 +151,114 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
     // Import canvas
     @Override
     public void importCanvas(String canvasData) throws RemoteException {
-        fileService.cleanData();
         try {
-            for (Map.Entry<String, IClientCallback> entry : userService.getClients().entrySet()) {
-                IClientCallback client = entry.getValue();
-                try {
-                    client.blockCanvas();
-                    fileService.importCanvas(canvasData);
-                    client.onSyncWhiteboard(canvasData);
-                    client.onSendMessage("System: ", "Admin import a canvas");
-                } catch (Exception e) {
-                    throw new RemoteException("Error: Failed to import canvas: " + e.getMessage());
-                } finally {
-                    client.unblockCanvas();
-                }
-            }
+            sequencer.importCanvas(canvasData);
+            syncImported();
         } catch (Exception e) {
             throw new RemoteException("Error: Failed to import canvas: " + e.getMessage());
         }
     }
 
+    @Override
+    public long openImport() throws RemoteException {
+        return fileService.openImport();
+    }
+
+    @Override
+    public void writeImport(long importId, byte[] chunk) throws RemoteException {
+        fileService.writeImport(importId, chunk);
+    }
+
+    @Override
+    public void commitImport(long importId) throws RemoteException {
+        try {
+            sequencer.importBoard(fileService.finishImport(importId));
+            syncImported();
+        } catch (Exception e) {
+            throw new RemoteException("Error: Failed to import canvas: " + e.getMessage());
+        }
+    }
+
+    // send the re-sequenced history so clients and server agree on sequence numbers
+    private void syncImported() throws RemoteException {
+        for (Map.Entry<String, IClientCallback> entry : userService.getClients().entrySet()) {
+            IClientCallback client = entry.getValue();
+            try {
+                client.blockCanvas();
+                fileService.streamSync(client);
+                client.onSendMessage("System: ", "Admin import a canvas");
+            } catch (Exception e) {
+                throw new RemoteException("Error: Failed to import canvas: " + e.getMessage());
+            } finally {
+                client.unblockCanvas();
+            }
+        }
+    }
+
     // Export canvas
     @Override
     public String exportCanvas() throws RemoteException {
         return fileService.getCanvasData();
     }
 
+    @Override
+    public long openExport() throws RemoteException {
+        return fileService.openExport();
+    }
+
+    @Override
+    public long openBoardExport() throws RemoteException {
+        return fileService.openBoardExport(sequencer.markCheckpoint());
+    }
+
+    @Override
+    public byte[] readExport(long exportId) throws RemoteException {
+        return fileService.readExport(exportId);
+    }
+
+    @Override
+    public void closeExport(long exportId) throws RemoteException {
+        fileService.closeExport(exportId);
+    }
+
+    @Override
+    public UndoAction undo(String username) throws RemoteException {
+        return sequencer.undo(username, false);
+    }
+
+    @Override
+    public UndoAction redo(String username) throws RemoteException {
+        return sequencer.undo(username, true);
+    }
+
+    @Override
+    public String seekCanvas(long sequence) throws RemoteException {
+        return fileService.seek(sequence).canvasData();
+    }
+
+    @Override
+    public String seekCanvasAt(long epochMillis) throws RemoteException {
+        return fileService.seek(Instant.ofEpochMilli(epochMillis)).canvasData();
+    }
+
+    @Override
+    public long getHeadSequence() {
+        return sequencer.getLastSequence();
+    }
+
+    /**
+     * Number of clients registered on the board.
+     */
+    public int getClientCount() {
+        return userService.getClients().size();
+    }
+
     /**
      * Notifies all connected clients that the server is shutting down.
+     *
+     * @param reason the reason given to the clients
      */
-    private void notifyClientsOfShutdown() {
+    private void notifyClientsOfShutdown(String reason) {
         System.out.println("Notifying clients of server shutdown...");
 
         // Create a copy of the client list to avoid ConcurrentModificationException
@@ -231,7 +270,7 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
             String username = entry.getKey();
             IClientCallback client = entry.getValue();
             try {
-                client.onServerShutdown("Server is shutting down gracefully.");
+                client.onServerShutdown(reason);
                 System.out.println("Notified client: " + username);
             } catch (RemoteException ex) {
                 // Handle the case where the client is no longer reachable
@@ -245,25 +284,24 @@ public class WhiteboardServer extends UnicastRemoteObject implements IWhiteboard
      * Gracefully shuts down the server, services, and RMI components.
      */
     public void shutdown() {
-        System.out.println("Initiating server shutdown sequence...");
-
-        // Unbind from the registry to stop accepting new connections
-        if (this.registry != null) {
-            try {
-                registry.unbind("WhiteboardServer");
-                System.out.println("Server unbound from RMI registry");
-            } catch (Exception e) {
-                System.err.println("Error unbinding server from registry: " + e.getMessage());
-            }
-        } else {
-            System.err.println("Warning: Registry reference is null, cannot unbind");
-        }
+        shutdown("Server is shutting down gracefully.");
+    }
 
+    /**
+     * Gracefully shuts down the server, services, and RMI components.
+     *
+     * @param reason the reason given to connected clients
+     */
+    public void shutdown(String reason) {
+        System.out.println("Initiating server shutdown sequence...");
 
         // Notify connected clients
-        notifyClientsOfShutdown();
+        notifyClientsOfShutdown(reason);
 
         // Shutdown internal services
+        if (sequencer != null) {
+            sequencer.shutdown();
+        }
         if (whiteboardService != null) {
             whiteboardService.shutdown();
         }
@@ -0,0 +1,226 @@
+package org.whiteboard.server.event;
+
+import org.whiteboard.common.action.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pre-allocated ring of action slots with a single producer and a chain of consumers,
+ * in the style of the LMAX Disruptor.
+ * <p>
+ * Publishing an action only writes a slot and advances the cursor: the ring allocates no
+ * task, lambda or queue node per action, though its consumers may. Each consumer runs on its own thread and handles
+ * everything published since its last run as one batch. A consumer can be gated behind
+ * another one, so it only sees actions the upstream consumer has finished with.
+ * The producer waits when it would overwrite a slot the slowest consumer hasn't reached.
+ * Once every consumer has passed a slot it is cleared, so an idle ring holds no actions.
+ */
+public class ActionRingBuffer {
+
+    /**
+     * Handles actions taken from the ring, on the consumer's own thread.
+     */
+    @FunctionalInterface
+    public interface Consumer {
+        /**
+         * @param action     the next action in publish order
+         * @param endOfBatch true for the last action currently available
+         */
+        void onAction(Action action, boolean endOfBatch);
+    }
+
+    // Spin, then yield, then park when a thread has nothing to do
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final AtomicReferenceArray<Action> slots;
+    private final int mask;
+
+    // Last published position, written by the producer only
+    private volatile long cursor = -1;
+
+    private final List<ConsumerWorker> workers = new ArrayList<>();
+    private volatile ConsumerWorker[] gatingWorkers = new ConsumerWorker[0];
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public ActionRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add a consumer that sees every published action.
+     *
+     * @param name     thread name
+     * @param consumer the consumer
+     * @return the worker, to gate further consumers behind this one
+     */
+    public synchronized ConsumerWorker addConsumer(String name, Consumer consumer) {
+        return addConsumer(name, consumer, null);
+    }
+
+    /**
+     * Add a consumer that only sees actions the upstream consumer has already handled.
+     *
+     * @param name     thread name
+     * @param consumer the consumer
+     * @param upstream worker of the upstream consumer, or null
+     * @return the worker, to gate further consumers behind this one
+     */
+    public synchronized ConsumerWorker addConsumer(String name, Consumer consumer, ConsumerWorker upstream) {
+        ConsumerWorker worker = new ConsumerWorker(name, consumer, upstream);
+        worker.sequence = cursor;
+        workers.add(worker);
+        gatingWorkers = workers.toArray(new ConsumerWorker[0]);
+        worker.thread.start();
+        return worker;
+    }
+
+    /**
+     * Publish an action. Must only be called by one thread at a time.
+     *
+     * @param action the action to publish
+     */
+    public void publish(Action action) {
+        long next = cursor + 1;
+        long wrapPoint = next - slots.length();
+
+        // Back-pressure: wait until the slowest consumer has freed the slot
+        int idle = 0;
+        while (wrapPoint > minimumConsumed()) {
+            idle = idle(idle);
+        }
+
+        slots.lazySet((int) (next & mask), action);
+        cursor = next;
+    }
+
+    /**
+     * Wait until every consumer has handled everything published so far.
+     */
+    public void drain() {
+        long target = cursor;
+        int idle = 0;
+        while (minimumConsumed() < target) {
+            idle = idle(idle);
+        }
+    }
+
+    /**
+     * Stop all consumer threads. Actions still in the ring are not handled.
+     */
+    public synchronized void shutdown() {
+        for (ConsumerWorker worker : workers) {
+            worker.running = false;
+            worker.thread.interrupt();
+        }
+        workers.clear();
+        gatingWorkers = new ConsumerWorker[0];
+    }
+
+    private long minimumConsumed() {
+        long minimum = cursor;
+        for (ConsumerWorker worker : gatingWorkers) {
+            minimum = Math.min(minimum, worker.sequence);
+        }
+        return minimum;
+    }
+
+    private static int idle(int idleCount) {
+        if (idleCount < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+            return idleCount;
+        }
+        return idleCount + 1;
+    }
+
+    /**
+     * Thread running one consumer over the ring.
+     */
+    public final class ConsumerWorker implements Runnable {
+        private final String name;
+        private final Consumer consumer;
+        private final ConsumerWorker upstream;
+        private final Thread thread;
+
+        // Last position this consumer has fully handled
+        private volatile long sequence;
+        private volatile boolean running = true;
+
+        // Actions of the current batch by slot, to clear exactly those once all consumers passed
+        private final Action[] handled = new Action[slots.length()];
+
+        private ConsumerWorker(String name, Consumer consumer, ConsumerWorker upstream) {
+            this.name = name;
+            this.consumer = consumer;
+            this.upstream = upstream;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = sequence + 1;
+            int idle = 0;
+            while (running) {
+                long available = upstream == null ? cursor : Math.min(cursor, upstream.sequence);
+                if (available < next) {
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+
+                // Hand over everything available as one batch
+                for (long position = next; position <= available; position++) {
+                    int slot = (int) (position & mask);
+                    Action action = slots.get(slot);
+                    handled[slot] = action;
+                    try {
+                        consumer.onAction(action, position == available);
+                    } catch (Exception e) {
+                        System.err.println("Error: Ring consumer " + name + " failed: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+                sequence = available;
+                clearPassed(next, available);
+                next = available + 1;
+            }
+        }
+
+        /**
+         * Clear the slots of a batch every consumer has passed. Whichever consumer passes a
+         * slot last sees all the others past it, as each reads the others after moving its
+         * own sequence. A slot the producer has already reused holds another action and is
+         * left alone.
+         */
+        private void clearPassed(long from, long to) {
+            long passed = minimumConsumed();
+            for (long position = from; position <= to; position++) {
+                int slot = (int) (position & mask);
+                Action action = handled[slot];
+                handled[slot] = null;
+                if (position <= passed) {
+                    slots.compareAndSet(slot, action, null);
+                }
+            }
+        }
+    }
+}
@@ -4,55 +4,262 @@ import org.whiteboard.common.action.Action;
 import org.whiteboard.common.event.IEventListener;
 import org.whiteboard.common.rmi.IClientCallback;
 
-import java.rmi.RemoteException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Listens for Action events and broadcasts them asynchronously to clients.
+ * Every connected client owns a bounded outbound queue drained by a single worker,
+ * so actions reach each client in order and the number of threads grows with
+ * the number of clients rather than with the number of actions. Pending actions
+ * are flushed to a client in batches to save RMI round trips. Each action is encoded
+ * once and the same bytes are shared by every recipient.
+ * <p>
+ * When actions arrive from several event bus lanes at once, they must still reach every
+ * queue in sequence order: draw and erase do not commute, so clients applying them in
+ * different orders end up with different canvases. Actions announced with
+ * {@link #expect(Action)} are encoded on whichever lane delivers them, but are only
+ * enqueued once every action announced before them has been, so lanes share the encoding
+ * work while the fan-out stays in publish order.
+ * <p>
+ * That order is global, not per client: the fan-out of every lane runs under one lock,
+ * one action after the other. Extra lanes therefore only parallelize encoding; enqueueing
+ * an action for each client is serialized across the board. Enqueueing never waits on a
+ * client, each client's worker delivers, so the lock is held for one cheap enqueue per
+ * client and action.
  */
 public class AsyncActionBroadcaster implements IEventListener<Action> {
 
-    // Use a cached thread pool for potentially numerous short-lived broadcast tasks
-    private final ExecutorService broadcastExecutor = Executors.newCachedThreadPool();
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final long DEFAULT_FLUSH_WINDOW_MS = 8;
+
+    /**
+     * What to do with an action when a client's outbound queue is full.
+     */
+    public enum OverflowPolicy {
+        DROP_NEWEST,
+        DROP_OLDEST
+    }
+
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxBatchSize;
+    private final long flushWindowMs;
+
+    // One outbound queue per connected client, keyed by username
+    private final Map<String, ClientOutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+
+    // Snapshot of the queues above, iterated per action without allocating
+    private volatile ClientOutboundQueue[] activeQueues = new ClientOutboundQueue[0];
+
+    /**
+     * An announced action, waiting for its lane to encode it and for its turn to fan out.
+     */
+    private static final class Pending {
+        private final Action action;
+        private EncodedAction encoded;
+        private boolean ready;
+
+        private Pending(Action action) {
+            this.action = action;
+        }
+    }
+
+    // Guards the announced actions below and serializes their fan-out
+    private final Object fanOutLock = new Object();
+    private final ArrayDeque<Pending> fanOutOrder = new ArrayDeque<>();
+    private final Map<Action, Pending> expected = new IdentityHashMap<>();
+
+    public AsyncActionBroadcaster() {
+        this(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_NEWEST, DEFAULT_MAX_BATCH_SIZE, DEFAULT_FLUSH_WINDOW_MS);
+    }
+
+    /**
+     * @param queueCapacity  maximum number of pending actions per client
+     * @param overflowPolicy what to do when a client's queue is full
+     * @param maxBatchSize   maximum number of actions delivered in one RMI call
+     * @param flushWindowMs  maximum time a batch waits for more actions
+     */
+    public AsyncActionBroadcaster(int queueCapacity, OverflowPolicy overflowPolicy, int maxBatchSize, long flushWindowMs) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+        }
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.maxBatchSize = maxBatchSize;
+        this.flushWindowMs = Math.max(0, flushWindowMs);
+    }
+
+    /**
+     * Announce an action before it is published on a bus with several lanes, so it is
+     * fanned out after the actions announced before it and before the ones after it.
+     * Call in sequence order, e.g. under the sequencer's lock.
+     *
+     * @param action the action about to be published
+     */
+    public void expect(Action action) {
+        Pending pending = new Pending(action);
+        synchronized (fanOutLock) {
+            fanOutOrder.add(pending);
+            expected.put(action, pending);
+        }
+    }
 
     @Override
     public void onEventReceived(Action action, Map<String, IClientCallback> clients) {
-        System.out.println("Async Broadcaster received action from " + action.getUsername() + ". Broadcasting...");
+        Pending pending;
+        synchronized (fanOutLock) {
+            pending = expected.remove(action);
+        }
+        if (pending == null) {
+            // A single caller in order, fan out right away
+            fanOut(action, encode(action, clients), clients);
+            return;
+        }
 
-        // Iterate over a snapshot of the client entries to avoid ConcurrentModificationException
-        // if the map is modified elsewhere (though ConcurrentHashMap handles gets safely)
-        for (Map.Entry<String, IClientCallback> entry : clients.entrySet()) {
-            String clientName = entry.getKey();
-            IClientCallback clientCallback = entry.getValue();
-
-            System.out.println("Checking client: " + clientName);
-
-            if (!clientName.equals(action.getUsername())) {
-                // Submit the RMI call to the broadcast executor pool
-                broadcastExecutor.submit(() -> {
-                    try {
-                        System.out.println("Sending action via RMI to client: " + clientName);
-                        clientCallback.onAction(action);
-                    } catch (RemoteException e) {
-                        System.err.println("Failed to send action to client " + clientName + ": " + e.getMessage());
-                        // Optional: Implement logic to remove unresponsive clients
-                        // clients.remove(clientName); // Be careful with removal logic
-                    } catch (Exception e) {
-                        System.err.println("Unexpected error broadcasting to " + clientName + ": " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                });
+        // Encode in parallel with the other lanes, then take turns in announce order
+        EncodedAction encoded = null;
+        try {
+            encoded = encode(action, clients);
+        } finally {
+            synchronized (fanOutLock) {
+                pending.encoded = encoded;
+                pending.ready = true;
+                fanOutReady(clients);
+            }
+        }
+    }
+
+    /**
+     * Drop an announced action that will never be delivered, e.g. because its lane was
+     * shut down, so the actions announced after it are not held up behind it.
+     *
+     * @param action  the announced action
+     * @param clients the connected clients
+     */
+    public void cancel(Action action, Map<String, IClientCallback> clients) {
+        synchronized (fanOutLock) {
+            Pending pending = expected.remove(action);
+            if (pending != null) {
+                pending.ready = true;
+                fanOutReady(clients);
             }
         }
+    }
+
+    // Fan out the ready actions at the head of the announce order, under fanOutLock
+    private void fanOutReady(Map<String, IClientCallback> clients) {
+        Pending head;
+        while ((head = fanOutOrder.peek()) != null && head.ready) {
+            fanOutOrder.poll();
+            fanOut(head.action, head.encoded, clients);
+        }
+    }
+
+    /**
+     * Encode an action, or return null if there is nobody but the sender to deliver to
+     * or it cannot be encoded.
+     */
+    private EncodedAction encode(Action action, Map<String, IClientCallback> clients) {
+        if (currentQueues(clients).length < 2) {
+            return null;
+        }
+        try {
+            return EncodedAction.of(action);
+        } catch (IOException e) {
+            System.err.println("Error: Failed to encode action from " + action.getUsername() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void fanOut(Action action, EncodedAction encoded, Map<String, IClientCallback> clients) {
+        if (encoded == null) {
+            return;
+        }
+        String sender = action.getUsername();
+        for (ClientOutboundQueue queue : currentQueues(clients)) {
+            if (!queue.getClientName().equals(sender)) {
+                queue.enqueue(encoded);
+            }
+        }
+    }
+
+    private ClientOutboundQueue[] currentQueues(Map<String, IClientCallback> clients) {
+        ClientOutboundQueue[] queues = activeQueues;
+        if (!isCurrent(queues, clients)) {
+            queues = refreshQueues(clients);
+        }
+        return queues;
+    }
 
+    /**
+     * Check whether the cached queues match the connected clients, without allocating.
+     */
+    private static boolean isCurrent(ClientOutboundQueue[] queues, Map<String, IClientCallback> clients) {
+        if (queues.length != clients.size()) {
+            return false;
+        }
+        for (ClientOutboundQueue queue : queues) {
+            if (clients.get(queue.getClientName()) != queue.getCallback()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuild the queue array after clients joined or left.
+     */
+    private synchronized ClientOutboundQueue[] refreshQueues(Map<String, IClientCallback> clients) {
+        // Another lane may have refreshed already
+        if (isCurrent(activeQueues, clients)) {
+            return activeQueues;
+        }
+
+        // Drop queues of clients that have left the whiteboard
+        outboundQueues.entrySet().removeIf(entry -> {
+            if (clients.get(entry.getKey()) != entry.getValue().getCallback()) {
+                entry.getValue().close();
+                return true;
+            }
+            return false;
+        });
+
+        for (Map.Entry<String, IClientCallback> entry : clients.entrySet()) {
+            outboundQueues.computeIfAbsent(entry.getKey(), name ->
+                    new ClientOutboundQueue(
+                            name,
+                            entry.getValue(),
+                            queueCapacity,
+                            overflowPolicy,
+                            maxBatchSize,
+                            flushWindowMs
+                    ));
+        }
+
+        activeQueues = outboundQueues.values().toArray(new ClientOutboundQueue[0]);
+        return activeQueues;
     }
 
     /**
-     * Shuts down the broadcast executor service. Call this on server shutdown.
+     * Shuts down all outbound queues. Call this on server shutdown.
      */
-    public void shutdown() {
-        broadcastExecutor.shutdown();
+    public synchronized void shutdown() {
+        for (ClientOutboundQueue queue : outboundQueues.values()) {
+            queue.close();
+        }
+        outboundQueues.clear();
+        activeQueues = new ClientOutboundQueue[0];
+        synchronized (fanOutLock) {
+            fanOutOrder.clear();
+            expected.clear();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,171 @@
+package org.whiteboard.server.event;
+
+import org.whiteboard.common.rmi.IClientCallback;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded outbound queue for a single connected client.
+ * A dedicated drain worker delivers queued actions in batches, so a client
+ * always receives actions in the order they were enqueued. A batch is flushed
+ * once it reaches the maximum batch size or the flush window has elapsed since
+ * its first action, whichever comes first.
+ */
+class ClientOutboundQueue {
+
+    // Report every n-th dropped action while a client keeps overflowing
+    private static final long OVERFLOW_REPORT_INTERVAL = 500;
+
+    private final String clientName;
+    private final IClientCallback callback;
+    private final BlockingQueue<EncodedAction> queue;
+    private final AsyncActionBroadcaster.OverflowPolicy overflowPolicy;
+    private final int maxBatchSize;
+    private final long flushWindowNanos;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread drainWorker;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param clientName     the client this queue delivers to
+     * @param callback       the client callback stub
+     * @param capacity       maximum number of pending actions
+     * @param overflowPolicy what to do when the queue is full
+     * @param maxBatchSize   maximum number of actions per delivery
+     * @param flushWindowMs  maximum time a batch waits for more actions
+     */
+    ClientOutboundQueue(
+            String clientName,
+            IClientCallback callback,
+            int capacity,
+            AsyncActionBroadcaster.OverflowPolicy overflowPolicy,
+            int maxBatchSize,
+            long flushWindowMs
+    ) {
+        this.clientName = clientName;
+        this.callback = callback;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.maxBatchSize = maxBatchSize;
+        this.flushWindowNanos = TimeUnit.MILLISECONDS.toNanos(flushWindowMs);
+
+        this.drainWorker = new Thread(this::drain);
+        this.drainWorker.setName("ActionBroadcaster-" + clientName);
+        this.drainWorker.setDaemon(true);
+        this.drainWorker.start();
+    }
+
+    String getClientName() {
+        return clientName;
+    }
+
+    IClientCallback getCallback() {
+        return callback;
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Enqueue an action for delivery, applying the overflow policy if the queue is full.
+     *
+     * @param action the encoded action to deliver
+     */
+    void enqueue(EncodedAction action) {
+        if (!running) {
+            return;
+        }
+
+        if (queue.offer(action)) {
+            return;
+        }
+
+        if (overflowPolicy == AsyncActionBroadcaster.OverflowPolicy.DROP_OLDEST) {
+            // Make room by discarding the oldest pending action, then retry once
+            queue.poll();
+            queue.offer(action);
+        }
+        reportOverflow();
+    }
+
+    /**
+     * Stop the drain worker. Pending actions are discarded.
+     */
+    void close() {
+        running = false;
+        drainWorker.interrupt();
+        queue.clear();
+    }
+
+    private void reportOverflow() {
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % OVERFLOW_REPORT_INTERVAL == 0) {
+            System.err.println("Warning: Outbound queue for client " + clientName + " is full ("
+                    + queue.size() + " pending), " + overflowPolicy + " dropped " + dropped + " action(s) so far");
+        }
+    }
+
+    private void drain() {
+        List<EncodedAction> batch = new ArrayList<>(maxBatchSize);
+        List<byte[]> payloads = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                collectBatch(batch);
+                for (EncodedAction action : batch) {
+                    payloads.add(action.payload());
+                }
+                callback.onEncodedActions(payloads);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RemoteException e) {
+                System.err.println("Failed to send action to client " + clientName + ": " + e.getMessage());
+            } catch (Exception e) {
+                System.err.println("Unexpected error broadcasting to " + clientName + ": " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+                payloads.clear();
+            }
+        }
+    }
+
+    /**
+     * Block for the first action, then keep collecting until the batch is full
+     * or the flush window has elapsed.
+     *
+     * @param batch the list to fill, expected to be empty
+     * @throws InterruptedException if the worker is closed while waiting
+     */
+    private void collectBatch(List<EncodedAction> batch) throws InterruptedException {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + flushWindowNanos;
+
+        while (batch.size() < maxBatchSize) {
+            // Take whatever is already pending without waiting
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            if (batch.size() >= maxBatchSize) {
+                break;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+
+            EncodedAction next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+}
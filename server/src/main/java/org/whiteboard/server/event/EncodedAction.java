@@ -0,0 +1,36 @@
+package org.whiteboard.server.event;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.codec.ActionCodec;
+
+import java.io.IOException;
+
+/**
+ * An action encoded once and shared, read-only, by every recipient's outbound queue.
+ */
+final class EncodedAction {
+
+    private final byte[] payload;
+
+    private EncodedAction(byte[] payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * Encode an action for broadcasting.
+     *
+     * @param action the action to encode
+     * @return the encoded action
+     * @throws IOException if the action cannot be encoded
+     */
+    static EncodedAction of(Action action) throws IOException {
+        return new EncodedAction(ActionCodec.encode(action));
+    }
+
+    /**
+     * The encoded bytes. Shared between recipients, must not be modified.
+     */
+    byte[] payload() {
+        return payload;
+    }
+}
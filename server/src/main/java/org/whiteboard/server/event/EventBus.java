@@ -4,26 +4,60 @@ import org.whiteboard.common.event.IEvent;
 import org.whiteboard.common.event.IEventListener;
 import org.whiteboard.common.rmi.IClientCallback;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 /**
  * A simple event bus to decouple event producers and consumers.
  * Handles event dispatching asynchronously.
+ * <p>
+ * Events are spread over a number of dispatch lanes by a partition key, e.g. the sender's
+ * username or {@link IEvent#getType()}. Each lane is a single thread, so events with the
+ * same key are dispatched in publish order while different keys are dispatched in parallel.
  */
 public class EventBus<E extends IEvent> {
 
-    private final List<IEventListener<E>> eventListeners = new ArrayList<>();
+    // Copy-on-write so listeners can be changed while lanes are dispatching
+    private final List<IEventListener<E>> eventListeners = new CopyOnWriteArrayList<>();
 
-    // Executor for dispatching events to listeners orderly
-    private final ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor();
+    // One single-thread executor per lane, dispatching its events orderly
+    private final ExecutorService[] dispatchLanes;
+    private final Function<? super E, ?> partitionKey;
     private final Map<String, IClientCallback> clients;
 
+    /**
+     * Create an event bus with a single dispatch lane.
+     *
+     * @param clients connected clients passed to listeners
+     */
     public EventBus(Map<String, IClientCallback> clients) {
+        this(clients, 1, IEvent::getType);
+    }
+
+    /**
+     * @param clients      connected clients passed to listeners
+     * @param laneCount    number of dispatch lanes
+     * @param partitionKey maps an event to the key choosing its lane
+     */
+    public EventBus(Map<String, IClientCallback> clients, int laneCount, Function<? super E, ?> partitionKey) {
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("Lane count must be positive: " + laneCount);
+        }
         this.clients = clients;
+        this.partitionKey = partitionKey;
+        this.dispatchLanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String laneName = "EventBus-Lane-" + i;
+            dispatchLanes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread t = new Thread(runnable, laneName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
     }
 
     /**
@@ -35,13 +69,22 @@ public class EventBus<E extends IEvent> {
         eventListeners.add(listener);
     }
 
+    /**
+     * Removes a previously registered listener.
+     *
+     * @param listener The listener to remove.
+     */
+    public void unregister(IEventListener<E> listener) {
+        eventListeners.remove(listener);
+    }
+
     /**
      * Publishes an event to all registered listeners asynchronously.
      *
      * @param event The event to publish.
      */
     public void publish(E event) {
-        dispatchExecutor.submit(() -> {
+        laneFor(event).submit(() -> {
             for (IEventListener<E> listener : eventListeners) {
                 try {
                     // Pass the current state of the clients map to the listener
@@ -54,10 +97,24 @@ public class EventBus<E extends IEvent> {
         });
     }
 
+    private ExecutorService laneFor(E event) {
+        if (dispatchLanes.length == 1) {
+            return dispatchLanes[0];
+        }
+        Object key = partitionKey.apply(event);
+        int hash = key == null ? 0 : key.hashCode();
+
+        // Spread the high bits so similar keys don't pile up in one lane
+        hash ^= hash >>> 16;
+        return dispatchLanes[Math.floorMod(hash, dispatchLanes.length)];
+    }
+
     /**
      * Shuts down the dispatcher executor service. Call this on server shutdown.
      */
     public void shutdown() {
-        dispatchExecutor.shutdown();
+        for (ExecutorService lane : dispatchLanes) {
+            lane.shutdown();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,377 @@
+package org.whiteboard.server.gateway;
+
+import org.whiteboard.common.rmi.IBoardDirectory;
+import org.whiteboard.common.rmi.IBoardGateway;
+import org.whiteboard.common.rmi.IBoardNode;
+import org.whiteboard.common.rmi.IWhiteboardServer;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gateway spreading boards over several server processes, the nodes.
+ * <p>
+ * Clients look the gateway up like the board directory of a single server and open a board
+ * through it. The gateway maps the board id onto a node with a {@link ConsistentHashRing} and
+ * returns the stub of the board on that node, so clients then talk to the node directly; the
+ * gateway isn't on the drawing path.
+ * <p>
+ * When a node is added or removed, the boards whose owner changes are moved: sealed on the
+ * old node, copied to the new one through the board export, then closed on the old node,
+ * whose clients are told to reconnect. Opening a board waits while it is moved. A board
+ * that fails to move stays on its old node, pinned there until the next change of nodes,
+ * even if that node was removed.
+ * <p>
+ * A node that cannot be reached doesn't hold up a change of nodes: the new ring applies,
+ * the boards pinned to that node stay pinned, and its other boards, which the gateway
+ * cannot list, open empty on their new owner until the node is back and the next change
+ * of nodes moves them over it.
+ */
+public class BoardGateway extends UnicastRemoteObject implements IBoardGateway {
+
+    private static final String MOVED_REASON = "Board moved to another server, please reconnect";
+
+    private record Move(String boardId, String from, String to) {
+    }
+
+    private final transient Registry registry;
+
+    // Changed under membershipLock only
+    private final transient Object membershipLock = new Object();
+    private transient volatile ConsistentHashRing ring;
+
+    // Boards that failed to move, by the node still hosting them
+    private final transient Map<String, String> pinned = new ConcurrentHashMap<>();
+
+    // Nodes whose boards could not be listed, listed again on the next change of nodes
+    private final transient Set<String> unlisted = ConcurrentHashMap.newKeySet();
+
+    // Boards being moved, opened once they are
+    private final transient Map<String, CompletableFuture<Void>> moving = new ConcurrentHashMap<>();
+
+    // Directory stubs of the nodes, looked up again after a failure
+    private final transient Map<String, IBoardNode> stubs = new ConcurrentHashMap<>();
+
+    /**
+     * Factory method to create the registry and the gateway and register it, then move the
+     * boards not hosted by their node yet, e.g. of a server used on its own before.
+     *
+     * @param port         the port number of the gateway
+     * @param nodes        addresses of the nodes, host:port of their registry
+     * @param virtualNodes number of points per node on the ring
+     * @throws RuntimeException if the gateway cannot be created or bound
+     */
+    public static BoardGateway CreateGateway(int port, Collection<String> nodes, int virtualNodes) {
+        try {
+            for (String node : nodes) {
+                parseAddress(node);
+            }
+            Registry registry = LocateRegistry.createRegistry(port);
+            BoardGateway gateway = new BoardGateway(registry, new ConsistentHashRing(nodes, virtualNodes));
+            registry.rebind(SERVICE_NAME, gateway);
+            System.out.println("Board gateway bound to registry on port " + port + " with nodes " + gateway.getNodes());
+
+            synchronized (gateway.membershipLock) {
+                gateway.rebalance(gateway.ring);
+            }
+            return gateway;
+
+        } catch (RemoteException ex) {
+            System.err.println("FATAL: Failed to create or bind board gateway: " + ex.getMessage());
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @param registry RMI registry the gateway is bound to
+     * @param ring     the initial nodes
+     * @throws RemoteException if an error occurs during remote object creation
+     */
+    protected BoardGateway(Registry registry, ConsistentHashRing ring) throws RemoteException {
+        this.registry = registry;
+        this.ring = ring;
+    }
+
+    @Override
+    public IWhiteboardServer openBoard(String boardId) throws RemoteException {
+        CompletableFuture<Void> move = moving.get(boardId == null ? "" : boardId);
+        if (move != null) {
+            move.join();
+        }
+        String address = locateBoard(boardId);
+        try {
+            return node(address).openBoard(boardId);
+        } catch (RemoteException e) {
+            stubs.remove(address);
+            throw new RemoteException("Fail to open board '" + boardId + "' on " + address + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String locateBoard(String boardId) throws RemoteException {
+        String address = boardId == null ? null : pinned.get(boardId);
+        if (address == null) {
+            address = ring.nodeFor(boardId == null ? "" : boardId);
+        }
+        if (address == null) {
+            throw new RemoteException("No server available");
+        }
+        return address;
+    }
+
+    @Override
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    @Override
+    public void addNode(String address) throws RemoteException {
+        parseAddress(address);
+        synchronized (membershipLock) {
+            if (ring.getNodes().contains(address)) {
+                return;
+            }
+            // Fail before routing anything to a node that cannot be reached
+            node(address).listBoards();
+            rebalance(ring.withNode(address));
+            System.out.println("Node " + address + " added, nodes " + ring.getNodes());
+        }
+    }
+
+    @Override
+    public void removeNode(String address) throws RemoteException {
+        synchronized (membershipLock) {
+            if (!ring.getNodes().contains(address)) {
+                return;
+            }
+            if (ring.getNodes().size() == 1) {
+                throw new RemoteException("Cannot remove the last node " + address);
+            }
+            rebalance(ring.withoutNode(address));
+            System.out.println("Node " + address + " removed, nodes " + ring.getNodes());
+            long left = pinned.values().stream().filter(address::equals).count();
+            if (left > 0) {
+                System.err.println("Warning: " + left + " boards are still served by " + address + ", they move on the next change of nodes");
+            }
+        }
+    }
+
+    /**
+     * Route boards by a new ring and move those whose owner changes. Boards opened on their
+     * old node while the routing changed are moved by a second round. Nodes that cannot be
+     * reached are skipped and reported.
+     */
+    private void rebalance(ConsistentHashRing next) {
+        long start = System.nanoTime();
+        Set<String> addresses = new LinkedHashSet<>(ring.getNodes());
+        addresses.addAll(next.getNodes());
+        addresses.addAll(pinned.values());
+        addresses.addAll(unlisted);
+        List<Move> moves = plan(addresses, next);
+
+        for (Move move : moves) {
+            moving.put(move.boardId(), new CompletableFuture<>());
+        }
+        ring = next;
+        int moved = execute(moves);
+
+        List<Move> strays = plan(addresses, next);
+        for (Move move : strays) {
+            moving.put(move.boardId(), new CompletableFuture<>());
+        }
+        moved += execute(strays);
+
+        for (String address : unlisted) {
+            long stuck = pinned.values().stream().filter(address::equals).count();
+            System.err.println("Warning: Node " + address + " is unreachable, its boards are not moved"
+                    + (stuck > 0 ? " and " + stuck + " boards pinned to it cannot be opened" : "")
+                    + " until it is back and the nodes change again");
+        }
+
+        int planned = moves.size() + strays.size();
+        if (planned > 0) {
+            System.out.printf(
+                    "Moved %d of %d boards in %d ms%n",
+                    moved,
+                    planned,
+                    (System.nanoTime() - start) / 1_000_000
+            );
+        }
+    }
+
+    // Boards hosted by a node that isn't their owner on the ring, of the nodes that can be reached
+    private List<Move> plan(Collection<String> addresses, ConsistentHashRing next) {
+        Map<String, String> hosts = new LinkedHashMap<>();
+        for (String address : addresses) {
+            List<String> boards;
+            try {
+                boards = node(address).listBoards();
+                unlisted.remove(address);
+            } catch (RemoteException e) {
+                stubs.remove(address);
+                unlisted.add(address);
+                System.err.println("Error: Fail to list the boards of " + address + ": " + e.getMessage());
+                continue;
+            }
+            for (String boardId : boards) {
+                String owner = next.nodeFor(boardId);
+                // A board on its owner stays there, even if a copy is left elsewhere
+                if (!hosts.containsKey(boardId) || address.equals(owner)) {
+                    hosts.put(boardId, address);
+                }
+            }
+        }
+
+        List<Move> moves = new ArrayList<>();
+        for (Map.Entry<String, String> host : hosts.entrySet()) {
+            String owner = next.nodeFor(host.getKey());
+            if (!host.getValue().equals(owner)) {
+                moves.add(new Move(host.getKey(), host.getValue(), owner));
+            }
+        }
+        return moves;
+    }
+
+    private int execute(List<Move> moves) {
+        int moved = 0;
+        for (Move move : moves) {
+            try {
+                moveBoard(move);
+                pinned.remove(move.boardId());
+                moved++;
+            } catch (RemoteException e) {
+                pinned.put(move.boardId(), move.from());
+                System.err.println("Error: Fail to move board '" + move.boardId() + "' from "
+                        + move.from() + " to " + move.to() + ": " + e.getMessage());
+            } finally {
+                moving.remove(move.boardId()).complete(null);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Move one board: seal it so its history is final, stream its board file from the old
+     * node into an import on the new one, then close it on the old node.
+     */
+    private void moveBoard(Move move) throws RemoteException {
+        IBoardNode from = node(move.from());
+        IBoardNode to = node(move.to());
+        if (!from.sealBoard(move.boardId(), true)) {
+            // Closed in the meantime, nothing to move
+            return;
+        }
+
+        try {
+            IWhiteboardServer source = from.openBoard(move.boardId());
+            IWhiteboardServer target = to.openBoard(move.boardId());
+            long exportId = source.openBoardExport();
+            long importId = target.openImport();
+            byte[] chunk;
+            while ((chunk = source.readExport(exportId)) != null) {
+                target.writeImport(importId, chunk);
+            }
+            target.commitImport(importId);
+        } catch (RemoteException e) {
+            // Keep serving the board where it was, drop the partial copy
+            try {
+                from.sealBoard(move.boardId(), false);
+                to.closeBoard(move.boardId(), MOVED_REASON);
+            } catch (RemoteException ignored) {
+                // Reported with the failed move
+            }
+            throw e;
+        }
+
+        try {
+            from.closeBoard(move.boardId(), MOVED_REASON);
+        } catch (RemoteException e) {
+            boolean hosted;
+            try {
+                hosted = from.sealBoard(move.boardId(), false);
+            } catch (RemoteException unreachable) {
+                // The copy is complete and the old one sealed, serve the board from its new node
+                System.err.println("Warning: Board '" + move.boardId() + "' moved, but " + move.from()
+                        + " could not close its sealed copy: " + e.getMessage());
+                return;
+            }
+            if (!hosted) {
+                // Shut down on the old node even though deleting its files failed
+                System.err.println("Warning: Board '" + move.boardId() + "' moved, but " + move.from()
+                        + " failed to delete its files: " + e.getMessage());
+                return;
+            }
+            // Still served by the old node, unsealed again: keep it there and drop the copy
+            try {
+                to.closeBoard(move.boardId(), MOVED_REASON);
+            } catch (RemoteException ignored) {
+                // Reported with the failed move
+            }
+            throw e;
+        }
+    }
+
+    private IBoardNode node(String address) throws RemoteException {
+        IBoardNode node = stubs.get(address);
+        if (node != null) {
+            return node;
+        }
+        String[] hostAndPort = parseAddress(address);
+        try {
+            Registry nodeRegistry = LocateRegistry.getRegistry(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+            node = (IBoardNode) nodeRegistry.lookup(IBoardDirectory.SERVICE_NAME);
+        } catch (NotBoundException | ClassCastException e) {
+            throw new RemoteException("No board server at " + address);
+        }
+        stubs.put(address, node);
+        return node;
+    }
+
+    /**
+     * Split a host:port address.
+     *
+     * @throws RemoteException if the address is malformed
+     */
+    public static String[] parseAddress(String address) throws RemoteException {
+        int colon = address == null ? -1 : address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new RemoteException("Invalid node address, expected host:port: " + address);
+        }
+        try {
+            Integer.parseInt(address.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new RemoteException("Invalid node port: " + address);
+        }
+        return new String[]{address.substring(0, colon), address.substring(colon + 1)};
+    }
+
+    /**
+     * Unbind from the registry and stop routing. The nodes keep serving their boards.
+     */
+    public void shutdown() {
+        try {
+            registry.unbind(SERVICE_NAME);
+            System.out.println("Board gateway unbound from RMI registry");
+        } catch (Exception e) {
+            System.err.println("Error unbinding board gateway from registry: " + e.getMessage());
+        }
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException e) {
+            System.err.println("Error unexporting board gateway: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.whiteboard.server.gateway;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring mapping board ids onto server processes.
+ * <p>
+ * Every node is placed at many points of the ring, a board belongs to the node of the first
+ * point at or after the hash of its id. Adding or removing one of n nodes only changes the
+ * owner of the boards next to its points, about 1/n of them; the others stay where they are.
+ * The ring only depends on the set of nodes, so every gateway knowing the same nodes routes
+ * the same way. Immutable.
+ */
+public final class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final int virtualNodes;
+    private final List<String> nodes;
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    /**
+     * @param nodes        addresses of the nodes
+     * @param virtualNodes number of points per node, more spread the boards more evenly
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Number of virtual nodes must be positive: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+        this.nodes = List.copyOf(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // Equal points go to the same node whatever the order the nodes were added in
+                points.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    /**
+     * The ring with one more node.
+     */
+    public ConsistentHashRing withNode(String node) {
+        List<String> next = new ArrayList<>(nodes);
+        next.add(node);
+        return new ConsistentHashRing(next, virtualNodes);
+    }
+
+    /**
+     * The ring without a node.
+     */
+    public ConsistentHashRing withoutNode(String node) {
+        List<String> next = new ArrayList<>(nodes);
+        next.remove(node);
+        return new ConsistentHashRing(next, virtualNodes);
+    }
+
+    /**
+     * Node owning a key.
+     *
+     * @param key the key, e.g. a board id
+     * @return the node's address, or null if the ring is empty
+     */
+    public String nodeFor(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Addresses of the nodes, sorted.
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    // First 8 bytes of the MD5 digest, spread evenly whatever the keys look like
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
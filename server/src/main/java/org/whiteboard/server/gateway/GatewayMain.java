@@ -0,0 +1,97 @@
+package org.whiteboard.server.gateway;
+
+import org.whiteboard.common.rmi.IBoardDirectory;
+import org.whiteboard.common.rmi.IBoardGateway;
+
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a board gateway in front of several servers, or changes the nodes of a running one.
+ * <pre>
+ * GatewayMain &lt;port&gt; &lt;node host:port&gt;...           run a gateway
+ * GatewayMain add &lt;gateway host:port&gt; &lt;node host:port&gt;     add a node
+ * GatewayMain remove &lt;gateway host:port&gt; &lt;node host:port&gt;  remove a node
+ * GatewayMain nodes &lt;gateway host:port&gt;                    list the nodes
+ * GatewayMain locate &lt;gateway host:port&gt; &lt;board id&gt;        show a board's node
+ * </pre>
+ * Clients connect to the gateway's port as to a single server.
+ */
+public class GatewayMain {
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            printUsage();
+            System.exit(1);
+        }
+
+        if (args[0].chars().allMatch(Character::isDigit)) {
+            serve(Integer.parseInt(args[0]), Arrays.asList(args).subList(1, args.length));
+            return;
+        }
+
+        try {
+            String command = args[0];
+            IBoardGateway gateway = lookup(args[1]);
+            switch (command) {
+                case "add" -> {
+                    gateway.addNode(args[2]);
+                    System.out.println("Nodes: " + gateway.getNodes());
+                }
+                case "remove" -> {
+                    gateway.removeNode(args[2]);
+                    System.out.println("Nodes: " + gateway.getNodes());
+                }
+                case "nodes" -> System.out.println("Nodes: " + gateway.getNodes());
+                case "locate" -> System.out.println(args[2] + " is served by " + gateway.locateBoard(args[2]));
+                default -> {
+                    printUsage();
+                    System.exit(1);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            printUsage();
+            System.exit(1);
+        } catch (Exception ex) {
+            System.err.println("Error: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void serve(int port, List<String> nodes) {
+        if (nodes.isEmpty()) {
+            System.err.println("Error: At least one node is needed");
+            System.exit(1);
+        }
+        try {
+            System.out.println("Starting board gateway on port " + port + "...");
+            int virtualNodes = Integer.getInteger(
+                    "whiteboard.gateway.virtualNodes",
+                    ConsistentHashRing.DEFAULT_VIRTUAL_NODES
+            );
+            BoardGateway gateway = BoardGateway.CreateGateway(port, nodes, virtualNodes);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(gateway::shutdown, "GatewayShutdownHook"));
+
+        } catch (Exception ex) {
+            System.err.println("FATAL: Error during gateway startup: " + ex.getMessage());
+
+            // Exit if gateway failed to start
+            System.exit(1);
+        }
+    }
+
+    private static IBoardGateway lookup(String address) throws Exception {
+        String[] hostAndPort = BoardGateway.parseAddress(address);
+        Registry registry = LocateRegistry.getRegistry(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+        return (IBoardGateway) registry.lookup(IBoardDirectory.SERVICE_NAME);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: GatewayMain <port> <node host:port>...");
+        System.err.println("       GatewayMain add|remove <gateway host:port> <node host:port>");
+        System.err.println("       GatewayMain nodes <gateway host:port>");
+        System.err.println("       GatewayMain locate <gateway host:port> <board id>");
+    }
+}
@@ -0,0 +1,234 @@
+package org.whiteboard.server.replication;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.codec.BinaryActionCodec;
+import org.whiteboard.common.rmi.IReplicationSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory stream of the changes to every board of the process, in the order each
+ * board's sequencer made them, read by standby servers.
+ * <p>
+ * Sequencers log through a {@link Feed} per board while they hold their lock, so the
+ * changes of a board are in sequence order; changes of different boards interleave. The
+ * most recent changes are kept up to a number of bytes. A standby that falls further
+ * behind, or connects for the first time, copies the boards instead and reads on from
+ * the head of the stream. Nothing waits for standbys to read a change, see
+ * {@link StandbyReplica} for what that means on failover.
+ * <p>
+ * The log also holds the lease that fences a primary cut off from its standby. Until a
+ * standby hands back the lease token of a batch, changes are accepted as usual. From then
+ * on, a board only accepts changes until the lease time has passed since the last batch a
+ * standby proved it received, see {@link IReplicationSource}. A primary whose standby is
+ * gone, crashed or partitioned away, thus turns read-only rather than keep taking changes
+ * the standby, once it took over, would never see. It accepts changes again as soon as a
+ * standby renews the lease.
+ */
+public class ReplicationLog {
+
+    public static final long DEFAULT_RETAIN_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_LEASE_MILLIS = 2000;
+
+    // Rough size of an entry besides the encoded action
+    private static final int ENTRY_BYTES = 96;
+
+    // Tells the streams of two runs of the process apart
+    private final long logId = 1 + (new SecureRandom().nextLong() >>> 1);
+    private final long retainBytes;
+    private final long leaseMillis;
+
+    // Lease tokens are nanoseconds since the log was created, never 0
+    private final long originNanos = System.nanoTime() - 1;
+
+    // When the last batch a standby proved it received was sent, 0 before any was
+    private volatile long leaseFrom;
+
+    // Retained entries in a circular buffer, guarded by this
+    private IReplicationSource.Entry[] entries = new IReplicationSource.Entry[1024];
+    private int head;
+    private int size;
+    private long firstPosition = 1;
+    private long bytes;
+
+    /**
+     * @param retainBytes bytes of changes kept for standbys that are behind
+     */
+    public ReplicationLog(long retainBytes) {
+        this(retainBytes, DEFAULT_LEASE_MILLIS);
+    }
+
+    /**
+     * @param retainBytes bytes of changes kept for standbys that are behind
+     * @param leaseMillis how long changes are accepted after a standby last renewed the
+     *                    lease, 0 to accept them whether or not a standby keeps up; must be
+     *                    shorter than the failover time of the standbys
+     */
+    public ReplicationLog(long retainBytes, long leaseMillis) {
+        this.retainBytes = Math.max(1, retainBytes);
+        this.leaseMillis = Math.max(0, leaseMillis);
+    }
+
+    /**
+     * Changes to one board.
+     */
+    public final class Feed {
+        private final String boardId;
+
+        private Feed(String boardId) {
+            this.boardId = boardId;
+        }
+
+        /**
+         * Whether the board may accept changes, see {@link ReplicationLog#isLeased()}.
+         */
+        public boolean isLeased() {
+            return ReplicationLog.this.isLeased();
+        }
+
+        /**
+         * Log a sequenced action.
+         */
+        public void append(Action action) {
+            try {
+                add(boardId, IReplicationSource.KIND_ACTION, 0, BinaryActionCodec.encode(action));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Fail to encode action " + action, e);
+            }
+        }
+
+        /**
+         * Log that the history was cleared or replaced, later actions follow the base sequence.
+         */
+        public void reset(long baseSequence) {
+            add(boardId, IReplicationSource.KIND_RESET, baseSequence, null);
+        }
+
+        /**
+         * Log that the board was closed.
+         */
+        public void close() {
+            add(boardId, IReplicationSource.KIND_CLOSE, 0, null);
+        }
+    }
+
+    /**
+     * The feed of a board.
+     */
+    public Feed feed(String boardId) {
+        return new Feed(boardId);
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    /**
+     * Renew the lease with a token a standby handed back. Tokens of another stream, e.g.
+     * of a previous run of the process, are ignored.
+     *
+     * @param logId id of the stream the token belongs to
+     * @param lease the token of the last batch the standby received
+     */
+    public synchronized void renew(long logId, long lease) {
+        if (logId == this.logId && lease > leaseFrom && lease <= leaseToken()) {
+            leaseFrom = lease;
+        }
+    }
+
+    /**
+     * Whether changes may be accepted: always while no standby renewed the lease yet or
+     * leases are off, afterwards only until the lease time since the last renewal passed.
+     */
+    public boolean isLeased() {
+        long from = leaseFrom;
+        return leaseMillis == 0 || from == 0 || leaseToken() - from < leaseMillis * 1_000_000;
+    }
+
+    private long leaseToken() {
+        return System.nanoTime() - originNanos;
+    }
+
+    private IReplicationSource.Batch batch(
+            List<IReplicationSource.Entry> entries,
+            long nextPosition,
+            long headPosition,
+            boolean snapshotNeeded
+    ) {
+        return new IReplicationSource.Batch(
+                logId, entries, nextPosition, headPosition, snapshotNeeded, leaseToken(), leaseMillis);
+    }
+
+    private synchronized void add(String boardId, byte kind, long baseSequence, byte[] action) {
+        if (size == entries.length) {
+            IReplicationSource.Entry[] grown = new IReplicationSource.Entry[entries.length * 2];
+            for (int i = 0; i < size; i++) {
+                grown[i] = entries[(head + i) % entries.length];
+            }
+            entries = grown;
+            head = 0;
+        }
+        IReplicationSource.Entry entry = new IReplicationSource.Entry(
+                firstPosition + size, boardId, kind, baseSequence, action, System.currentTimeMillis());
+        entries[(head + size) % entries.length] = entry;
+        size++;
+        bytes += ENTRY_BYTES + (action == null ? 0 : action.length);
+
+        while (bytes > retainBytes && size > 1) {
+            IReplicationSource.Entry dropped = entries[head];
+            entries[head] = null;
+            head = (head + 1) % entries.length;
+            size--;
+            firstPosition++;
+            bytes -= ENTRY_BYTES + (dropped.action() == null ? 0 : dropped.action().length);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Read changes, waiting a while for the first one if there is none yet.
+     *
+     * @param logId      id of the stream the position belongs to
+     * @param position   position to read from
+     * @param maxEntries maximum number of changes to return
+     * @param waitMillis how long to wait for a change
+     * @return the changes, or a batch asking for a snapshot if the position is not retained
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized IReplicationSource.Batch read(
+            long logId,
+            long position,
+            int maxEntries,
+            long waitMillis
+    ) throws InterruptedException {
+        long headPosition = firstPosition + size;
+        if (logId != this.logId || position < firstPosition || position > headPosition) {
+            return batch(List.of(), headPosition, headPosition, true);
+        }
+
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long remaining = waitMillis;
+        while (position == firstPosition + size && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        // Entries may have been dropped while waiting
+        if (position < firstPosition) {
+            headPosition = firstPosition + size;
+            return batch(List.of(), headPosition, headPosition, true);
+        }
+
+        headPosition = firstPosition + size;
+        int count = (int) Math.min(Math.max(0, maxEntries), headPosition - position);
+        List<IReplicationSource.Entry> batch = new ArrayList<>(count);
+        int offset = (int) (position - firstPosition);
+        for (int i = 0; i < count; i++) {
+            batch.add(entries[(head + offset + i) % entries.length]);
+        }
+        return batch(batch, position + count, headPosition, false);
+    }
+}
@@ -0,0 +1,36 @@
+package org.whiteboard.server.replication;
+
+import org.whiteboard.common.rmi.IReplicationSource;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Serves the {@link ReplicationLog} of a primary server to standby servers.
+ */
+public class ReplicationSource extends UnicastRemoteObject implements IReplicationSource {
+
+    // Longest a pull may wait, so a standby notices a lost primary in time
+    private static final long MAX_WAIT_MILLIS = 5000;
+
+    private final transient ReplicationLog log;
+
+    /**
+     * @param log the stream served
+     * @throws RemoteException if an error occurs during remote object creation
+     */
+    public ReplicationSource(ReplicationLog log) throws RemoteException {
+        this.log = log;
+    }
+
+    @Override
+    public Batch pull(long logId, long position, long lease, int maxEntries, long waitMillis) throws RemoteException {
+        log.renew(logId, lease);
+        try {
+            return log.read(logId, position, maxEntries, Math.min(Math.max(0, waitMillis), MAX_WAIT_MILLIS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for changes");
+        }
+    }
+}
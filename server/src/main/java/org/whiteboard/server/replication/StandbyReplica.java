@@ -0,0 +1,320 @@
+package org.whiteboard.server.replication;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.codec.BinaryActionCodec;
+import org.whiteboard.common.codec.BoardFile;
+import org.whiteboard.common.rmi.IBoardDirectory;
+import org.whiteboard.common.rmi.IBoardNode;
+import org.whiteboard.common.rmi.IReplicationSource;
+import org.whiteboard.common.rmi.IWhiteboardServer;
+import org.whiteboard.server.BoardDirectory;
+import org.whiteboard.server.service.ActionSequencer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the boards of a standby server a replica of a primary server's, and takes over
+ * once the primary is gone.
+ * <p>
+ * The standby copies every board of the primary first, then applies the primary's
+ * {@link IReplicationSource} stream in order from the position it read before copying.
+ * Each copy holds at least every change sequenced before that position, the primary
+ * drains its ingest before exporting a board, and changes the copy already holds are
+ * skipped by their sequence numbers. Once the primary cannot be reached for the failover
+ * time, the standby registers its boards, so clients retrying their connection find it.
+ * A standby that never completed a copy does not take over.
+ * <p>
+ * Nothing but time tells a lost primary from one the standby is cut off from. Without
+ * fencing, a partitioned primary would keep taking changes from the clients that still
+ * reach it while the standby takes changes from the others, and the boards would diverge
+ * for good. Every pull therefore renews the primary's lease, see
+ * {@link IReplicationSource}: the primary stops accepting changes once the lease time
+ * passed since the last batch this standby received, and the standby only takes over
+ * once it heard nothing for longer than both its failover time and the primary's lease
+ * time plus a margin. The lease is renewed while copying the boards too. The price is
+ * that a primary whose standby crashed is read-only until a standby pulls again.
+ * <p>
+ * Replication is asynchronous. The primary acknowledges an action once its own
+ * write-ahead log has it on disk, without waiting for any standby, so the actions still
+ * on their way when the primary is lost, up to the lag the replication report shows, are
+ * missing after the standby took over even though their senders were told they were
+ * stored. They are only on the primary's disk.
+ */
+public class StandbyReplica implements Runnable {
+
+    public static final long DEFAULT_FAILOVER_MILLIS = 3000;
+
+    private static final int BATCH_ENTRIES = 4096;
+    private static final long PULL_WAIT_MILLIS = 1000;
+    private static final long RETRY_DELAY_MILLIS = 200;
+    private static final long REPORT_INTERVAL_MILLIS = 10_000;
+
+    // Extra wait past the primary's lease before taking over, for the two clocks' drift
+    private static final long LEASE_MARGIN_MILLIS = 500;
+
+    private final BoardDirectory directory;
+    private final String primaryHost;
+    private final int primaryPort;
+    private final long failoverMillis;
+    private final ReplicationLog log;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    // Lease token of the last batch received, the primary's lease time and when it was
+    private long lease;
+    private long leaseMillis;
+    private long lastContact;
+
+    // Replication metrics since the last report
+    private long appliedEntries;
+    private long maxLagMillis;
+    private long totalLagMillis;
+
+    /**
+     * @param directory      the standby's boards
+     * @param primaryHost    host of the primary server
+     * @param primaryPort    registry port of the primary server
+     * @param failoverMillis how long the primary must be unreachable before taking over
+     * @param log            stream served to a new standby after taking over, or null
+     */
+    public StandbyReplica(
+            BoardDirectory directory,
+            String primaryHost,
+            int primaryPort,
+            long failoverMillis,
+            ReplicationLog log
+    ) {
+        this.directory = directory;
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+        this.failoverMillis = failoverMillis;
+        this.log = log;
+        this.thread = new Thread(this, "StandbyReplica");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop replicating, without taking over.
+     */
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(PULL_WAIT_MILLIS * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        IReplicationSource source = null;
+        IBoardNode primary = null;
+        long logId = 0;
+        long position = 0;
+        boolean synced = false;
+        lastContact = System.currentTimeMillis();
+        long lastReport = lastContact;
+
+        while (running) {
+            try {
+                if (source == null) {
+                    Registry registry = LocateRegistry.getRegistry(primaryHost, primaryPort);
+                    source = (IReplicationSource) registry.lookup(IReplicationSource.SERVICE_NAME);
+                    primary = (IBoardNode) registry.lookup(IBoardDirectory.SERVICE_NAME);
+                }
+
+                IReplicationSource.Batch batch = received(source.pull(logId, position, lease, BATCH_ENTRIES, PULL_WAIT_MILLIS));
+                if (batch.snapshotNeeded()) {
+                    long start = System.nanoTime();
+                    int boards = copyBoards(primary, source, batch);
+                    logId = batch.logId();
+                    position = batch.headPosition();
+                    synced = true;
+                    System.out.printf(
+                            "Standby copied %d boards from %s:%d in %d ms%n",
+                            boards,
+                            primaryHost,
+                            primaryPort,
+                            (System.nanoTime() - start) / 1_000_000
+                    );
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                for (IReplicationSource.Entry entry : batch.entries()) {
+                    apply(entry);
+                    long lag = Math.max(0, now - entry.timeMillis());
+                    appliedEntries++;
+                    totalLagMillis += lag;
+                    maxLagMillis = Math.max(maxLagMillis, lag);
+                }
+                position = batch.nextPosition();
+
+                if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                    report(batch.headPosition() - position, now - lastReport);
+                    lastReport = now;
+                }
+
+            } catch (RemoteException | NotBoundException e) {
+                source = null;
+                primary = null;
+                long unreachable = System.currentTimeMillis() - lastContact;
+                if (synced && unreachable >= failoverMillis && unreachable >= leaseMillis + LEASE_MARGIN_MILLIS) {
+                    promote(unreachable);
+                    return;
+                }
+                if (!synced && unreachable >= failoverMillis) {
+                    System.err.println("Standby cannot reach the primary and has no copy yet: " + e.getMessage());
+                    lastContact = System.currentTimeMillis();
+                }
+                pause();
+
+            } catch (IOException | RuntimeException e) {
+                // A change could not be applied, copy the boards again
+                System.err.println("Standby failed to apply a change, copying the boards again: " + e.getMessage());
+                logId = 0;
+                position = 0;
+                pause();
+            }
+        }
+    }
+
+    private void apply(IReplicationSource.Entry entry) throws IOException {
+        switch (entry.kind()) {
+            case IReplicationSource.KIND_ACTION -> {
+                Action action = BinaryActionCodec.decode(entry.action()).get(0);
+                board(entry.boardId()).replicate(action);
+            }
+            case IReplicationSource.KIND_RESET ->
+                    board(entry.boardId()).replicateReset(entry.baseSequence());
+            case IReplicationSource.KIND_CLOSE -> closeBoard(entry.boardId());
+            default -> throw new IOException("Unknown change kind " + entry.kind());
+        }
+    }
+
+    // Note that the primary was reached, and keep the lease token to hand back
+    private IReplicationSource.Batch received(IReplicationSource.Batch batch) {
+        lastContact = System.currentTimeMillis();
+        lease = batch.lease();
+        leaseMillis = batch.leaseMillis();
+        return batch;
+    }
+
+    /**
+     * Replace every board with a copy of the primary's, and close the boards the primary
+     * no longer has. Boards closed on the primary while copying are skipped, and the
+     * primary's lease is renewed after every segment so it keeps accepting changes.
+     */
+    private int copyBoards(
+            IBoardNode primary,
+            IReplicationSource source,
+            IReplicationSource.Batch snapshot
+    ) throws IOException {
+        List<String> boardIds = new ArrayList<>();
+        for (String boardId : primary.listBoards()) {
+            IWhiteboardServer server = primary.findBoard(boardId);
+            if (server == null) {
+                // Closed meanwhile, its close follows in the stream
+                continue;
+            }
+            long exportId = server.openBoardExport();
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            byte[] segment;
+            while ((segment = server.readExport(exportId)) != null) {
+                file.write(segment);
+                received(source.pull(snapshot.logId(), snapshot.headPosition(), lease, 0, 0));
+            }
+            BoardFile.Reader reader = BoardFile.Reader.open(ByteBuffer.wrap(file.toByteArray()));
+            board(boardId).replicateSnapshot(reader.getHeadSequence(), reader.readAll());
+            boardIds.add(boardId);
+        }
+
+        Set<String> kept = new HashSet<>(boardIds);
+        for (String boardId : directory.listBoards()) {
+            if (!kept.contains(boardId)) {
+                closeBoard(boardId);
+            }
+        }
+        return boardIds.size();
+    }
+
+    // Local failures are not a lost primary, so they must not surface as remote exceptions
+    private ActionSequencer board(String boardId) throws IOException {
+        try {
+            return directory.board(boardId).getSequencer();
+        } catch (RemoteException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void closeBoard(String boardId) throws IOException {
+        try {
+            directory.closeBoard(boardId, "Board was closed on the primary server");
+        } catch (RemoteException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void report(long behindEntries, long intervalMillis) {
+        System.out.printf(
+                "Replication: %d changes applied in %d s, lag avg %.1f ms max %d ms, %d changes behind%n",
+                appliedEntries,
+                intervalMillis / 1000,
+                appliedEntries == 0 ? 0.0 : (double) totalLagMillis / appliedEntries,
+                maxLagMillis,
+                behindEntries
+        );
+        appliedEntries = 0;
+        totalLagMillis = 0;
+        maxLagMillis = 0;
+    }
+
+    /**
+     * Register the boards so clients connect here, and serve the stream to a new standby.
+     */
+    private void promote(long unreachableMillis) {
+        long start = System.nanoTime();
+        try {
+            directory.publish();
+            if (log != null) {
+                directory.getRegistry().rebind(IReplicationSource.SERVICE_NAME, new ReplicationSource(log));
+            }
+        } catch (RemoteException e) {
+            System.err.println("FATAL: Standby failed to take over: " + e.getMessage());
+            return;
+        }
+        System.out.printf(
+                "Primary %s:%d unreachable for %d ms, standby took over %d boards in %d ms%n",
+                primaryHost,
+                primaryPort,
+                unreachableMillis,
+                directory.size(),
+                (System.nanoTime() - start) / 1_000_000
+        );
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
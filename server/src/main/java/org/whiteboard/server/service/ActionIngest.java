@@ -0,0 +1,27 @@
+package org.whiteboard.server.service;
+
+import org.whiteboard.common.action.Action;
+
+/**
+ * Takes sequenced actions from the {@link ActionSequencer}, appends them to the history
+ * and hands them to the broadcaster, both in sequence order.
+ */
+public interface ActionIngest {
+
+    /**
+     * Ingest an action. Called by the sequencer in sequence order, one action at a time.
+     *
+     * @param action the sequenced action
+     */
+    void ingest(Action action);
+
+    /**
+     * Wait until every ingested action has been appended to the history and handed to the broadcaster.
+     */
+    void drain();
+
+    /**
+     * Release threads and resources. Call this on server shutdown.
+     */
+    void shutdown();
+}
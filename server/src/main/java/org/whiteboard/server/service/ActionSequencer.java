@@ -0,0 +1,474 @@
+package org.whiteboard.server.service;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.UndoAction;
+import org.whiteboard.common.codec.BoardFile;
+import org.whiteboard.server.replication.ReplicationLog;
+import org.whiteboard.server.storage.ActionLog;
+import org.whiteboard.server.storage.BoardTimeline;
+import org.whiteboard.server.storage.UndoHistory;
+import org.whiteboard.server.storage.WriteAheadLog;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single point that puts accepted actions into one total order.
+ * Each action gets a monotonically increasing sequence number and is handed to the
+ * {@link ActionIngest} in that order, which appends it to the history and broadcasts it,
+ * so the history a new joiner syncs is in the same order as the actions published to
+ * connected clients. It also keeps every user's undo and redo stacks, to turn an undo
+ * request into a tombstone naming the gesture.
+ * <p>
+ * With a {@link WriteAheadLog}, each action is queued to the log in the same order, and
+ * the sender's call returns once the log has it on disk. The wait happens outside the
+ * sequencer's lock, so concurrent senders share the log's fsyncs. Once the log failed,
+ * changes are rejected before they get a sequence number.
+ */
+public class ActionSequencer {
+
+    private final FileService fileService;
+    private final WhiteboardService whiteboardService;
+    private final ActionIngest ingest;
+
+    // Null if the history is kept in memory only
+    private final WriteAheadLog wal;
+
+    // Null if no standby replicates the board
+    private final ReplicationLog.Feed replication;
+
+    // Ticket of the last record queued to the log, guarded by this
+    private long walTicket;
+
+    // Last sequence number handed out, never reset so numbers stay unique per server run
+    private long lastSequence;
+
+    // Last receive time stamped, so stamps never go back when the clock does
+    private long lastReceivedMillis;
+
+    // Last sequence accepted from each user, used to chain a user's actions
+    private final Map<String, Long> lastSequenceByUser = new HashMap<>();
+
+    // Fed with the same actions as the projections, so they agree on every gesture
+    private final UndoHistory<Void> undoHistory = new UndoHistory<>(UndoHistory.DEFAULT_DEPTH);
+
+    // No more changes are accepted while the board moves to another server, guarded by this
+    private boolean sealed;
+
+    /**
+     * @param fileService       the file service holding the history
+     * @param whiteboardService the whiteboard service checking senders
+     * @param ingest            appends and broadcasts sequenced actions
+     */
+    public ActionSequencer(FileService fileService, WhiteboardService whiteboardService, ActionIngest ingest) {
+        this(fileService, whiteboardService, ingest, null);
+    }
+
+    /**
+     * @param fileService       the file service holding the history
+     * @param whiteboardService the whiteboard service checking senders
+     * @param ingest            appends and broadcasts sequenced actions
+     * @param wal               log the history is made durable in, null for none
+     */
+    public ActionSequencer(
+            FileService fileService,
+            WhiteboardService whiteboardService,
+            ActionIngest ingest,
+            WriteAheadLog wal
+    ) {
+        this(fileService, whiteboardService, ingest, wal, null);
+    }
+
+    /**
+     * @param fileService       the file service holding the history
+     * @param whiteboardService the whiteboard service checking senders
+     * @param ingest            appends and broadcasts sequenced actions
+     * @param wal               log the history is made durable in, null for none
+     * @param replication       stream the changes are shipped to standbys in, null for none
+     */
+    public ActionSequencer(
+            FileService fileService,
+            WhiteboardService whiteboardService,
+            ActionIngest ingest,
+            WriteAheadLog wal,
+            ReplicationLog.Feed replication
+    ) {
+        this.fileService = fileService;
+        this.whiteboardService = whiteboardService;
+        this.ingest = ingest;
+        this.wal = wal;
+        this.replication = replication;
+    }
+
+    /**
+     * A consistent point of the history to checkpoint.
+     *
+     * @param sequence  sequence number of the last action sequenced, or the history's base
+     * @param walTicket ticket of the last record queued to the log, 0 if none
+     * @param timeline  the history the actions up to the sequence number are appended to
+     */
+    public record CheckpointMark(long sequence, long walTicket, BoardTimeline timeline) {
+    }
+
+    /**
+     * Mark the current point of the history for a checkpoint. Only waits for the ingest
+     * to append what was sequenced; the board at the mark is built afterwards from the
+     * timeline, while new actions keep being accepted.
+     */
+    public synchronized CheckpointMark markCheckpoint() {
+        ingest.drain();
+        return new CheckpointMark(lastSequence, walTicket, fileService.getTimeline());
+    }
+
+    /**
+     * Stop or start again accepting changes. Sealing waits for the ingest to append what
+     * was sequenced, so the history is final until the board is unsealed, e.g. while it
+     * is copied to another server.
+     *
+     * @param sealed true to reject changes, false to accept them again
+     */
+    public synchronized void setSealed(boolean sealed) {
+        this.sealed = sealed;
+        if (sealed) {
+            ingest.drain();
+        }
+    }
+
+    public synchronized boolean isSealed() {
+        return sealed;
+    }
+
+    private void assertNotSealed() throws RemoteException {
+        if (sealed) {
+            throw new RemoteException("Board is moving to another server, please reconnect");
+        }
+    }
+
+    /**
+     * Reject changes while the standby may have taken over, see {@link ReplicationLog}.
+     */
+    private void assertLeased() throws RemoteException {
+        if (replication != null && !replication.isLeased()) {
+            throw new RemoteException("Board is read-only: the standby server cannot be reached");
+        }
+    }
+
+    /**
+     * Reject changes once the log can no longer store them, before they are sequenced,
+     * so they are neither appended to the history nor published.
+     */
+    private void assertLogWritable() throws RemoteException {
+        if (wal == null) {
+            return;
+        }
+        try {
+            wal.ensureWritable();
+        } catch (IOException e) {
+            throw new RemoteException("Error: Fail to store action", e);
+        }
+    }
+
+    /**
+     * Restore a history recovered on startup, keeping its sequence numbers. Call this
+     * before any action is accepted.
+     *
+     * @param baseSequence sequence number the history starts at
+     * @param actions      the sequenced actions in history order
+     */
+    public synchronized void restore(long baseSequence, List<Action> actions) {
+        lastSequence = baseSequence;
+        lastSequenceByUser.clear();
+        undoHistory.clear();
+        for (Action action : actions) {
+            lastSequence = Math.max(lastSequence, action.getSequence());
+            lastReceivedMillis = Math.max(lastReceivedMillis, action.getReceivedMillis());
+            lastSequenceByUser.put(action.getUsername(), action.getSequence());
+            undoHistory.record(action);
+        }
+        fileService.replaceHistory(actions, baseSequence);
+    }
+
+    /**
+     * Accept an action: assign its sequence number, append it to the history and publish it.
+     *
+     * @param username the sender
+     * @param action   the action to accept
+     * @return the assigned sequence number
+     * @throws RemoteException if the sender is not registered or the board is sealed
+     */
+    public long accept(String username, Action action) throws RemoteException {
+        long sequence;
+        long ticket;
+        synchronized (this) {
+            assertNotSealed();
+            assertLeased();
+            assertLogWritable();
+            whiteboardService.assertRegistered(username);
+            sequence = sequence(action);
+            ticket = walTicket;
+        }
+        awaitDurable(ticket);
+        return sequence;
+    }
+
+    private long sequence(Action action) {
+        long sequence = ++lastSequence;
+        Long previous = lastSequenceByUser.put(action.getUsername(), sequence);
+        action.assignSequence(sequence, previous == null ? 0 : previous);
+        action.assignReceivedMillis(receivedNow());
+        undoHistory.record(action);
+
+        if (wal != null) {
+            walTicket = wal.append(action);
+        }
+        if (replication != null) {
+            replication.append(action);
+        }
+        ingest.ingest(action);
+        return sequence;
+    }
+
+    private long receivedNow() {
+        lastReceivedMillis = Math.max(lastReceivedMillis, System.currentTimeMillis());
+        return lastReceivedMillis;
+    }
+
+    private void awaitDurable(long ticket) throws RemoteException {
+        if (wal == null) {
+            return;
+        }
+        try {
+            wal.awaitDurable(ticket);
+        } catch (IOException e) {
+            throw new RemoteException("Error: Fail to store action", e);
+        }
+    }
+
+    /**
+     * Undo or redo the user's last gesture: accept a tombstone for it like any other action.
+     *
+     * @param username the user
+     * @param redo     true to redo the last undone gesture, false to undo the last one
+     * @return the accepted tombstone, or null if there is nothing to undo or redo
+     * @throws RemoteException if the user is not registered or the board is sealed
+     */
+    public UndoAction undo(String username, boolean redo) throws RemoteException {
+        UndoAction tombstone;
+        long ticket;
+        synchronized (this) {
+            assertNotSealed();
+            assertLeased();
+            assertLogWritable();
+            whiteboardService.assertRegistered(username);
+
+            UndoHistory.Gesture<Void> gesture = redo ? undoHistory.peekRedo(username) : undoHistory.peekUndo(username);
+            if (gesture == null) {
+                return null;
+            }
+            tombstone = gesture.toUndoAction(username, redo);
+            sequence(tombstone);
+            ticket = walTicket;
+        }
+        awaitDurable(ticket);
+        return tombstone;
+    }
+
+    /**
+     * Replace the history with imported actions, re-sequencing them after everything accepted so far.
+     *
+     * @param canvasData uploaded canvas data
+     * @throws RemoteException if the canvas data cannot be decoded
+     */
+    public synchronized void importCanvas(String canvasData) throws RemoteException {
+        importActions(fileService.decodeCanvasData(canvasData));
+    }
+
+    /**
+     * Replace the history with decoded actions, which are sequenced again after the
+     * current history.
+     *
+     * @param imported the actions in history order
+     */
+    public synchronized void importActions(List<Action> imported) throws RemoteException {
+        assertNotSealed();
+        assertLeased();
+        assertLogWritable();
+        ingest.drain();
+        ActionLog log = fileService.newHistory(lastSequence);
+        Map<String, Long> lastByUser = new HashMap<>();
+        long importedAt = receivedNow();
+        for (Action action : imported) {
+            appendImported(log, lastByUser, importedAt, action);
+        }
+        commitImport(log);
+    }
+
+    /**
+     * Replace the history with an uploaded board file, sequenced again after the current
+     * history. The file is decoded one block at a time, each checked against its CRC,
+     * straight into the new history; the current one is only replaced once every block
+     * was read, so a corrupt file leaves the board as it was.
+     *
+     * @param board reader of the board file
+     * @throws RemoteException if a block is corrupt or the board is sealed
+     */
+    public synchronized void importBoard(BoardFile.Reader board) throws RemoteException {
+        assertNotSealed();
+        assertLeased();
+        assertLogWritable();
+        ingest.drain();
+        ActionLog log = fileService.newHistory(lastSequence);
+        Map<String, Long> lastByUser = new HashMap<>();
+        long importedAt = receivedNow();
+        try {
+            for (int block = 0; block < board.getCheckpoints().size(); block++) {
+                board.readBlock(block, action -> appendImported(log, lastByUser, importedAt, action));
+            }
+            if (log.size() != board.getRecordCount()) {
+                throw new IOException("Board file holds " + log.size() + " records, its index " + board.getRecordCount());
+            }
+        } catch (IOException e) {
+            log.close();
+            throw new RemoteException("Error: Fail to import canvas data: " + e.getMessage(), e);
+        }
+        commitImport(log);
+    }
+
+    private void appendImported(ActionLog log, Map<String, Long> lastByUser, long importedAt, Action action) {
+        long sequence = log.getBaseSequence() + log.size() + 1;
+        Long previous = lastByUser.put(action.getUsername(), sequence);
+        action.assignSequence(sequence, previous == null ? 0 : previous);
+        action.assignReceivedMillis(importedAt);
+        log.append(action);
+    }
+
+    /**
+     * Log an imported history, starting at the last sequence number, and put it in place
+     * of the current one.
+     */
+    private void commitImport(ActionLog log) throws RemoteException {
+        if (wal != null) {
+            walTicket = wal.reset(lastSequence);
+        }
+        if (replication != null) {
+            replication.reset(lastSequence);
+        }
+        lastSequenceByUser.clear();
+        undoHistory.clear();
+        for (long i = 0; i < log.size(); i++) {
+            Action action = log.get(i);
+            lastSequence = action.getSequence();
+            lastSequenceByUser.put(action.getUsername(), lastSequence);
+            undoHistory.record(action);
+            if (wal != null) {
+                walTicket = wal.append(action);
+            }
+            if (replication != null) {
+                replication.append(action);
+            }
+        }
+        fileService.replaceHistory(log);
+        awaitDurable(walTicket);
+    }
+
+    /**
+     * Clear the history. Sequence numbers keep increasing, per-user chains start over.
+     *
+     * @return the sequence number the empty history is consistent with
+     */
+    public synchronized long clear() throws RemoteException {
+        assertNotSealed();
+        assertLeased();
+        assertLogWritable();
+        ingest.drain();
+        if (wal != null) {
+            walTicket = wal.reset(lastSequence);
+        }
+        if (replication != null) {
+            replication.reset(lastSequence);
+        }
+        lastSequenceByUser.clear();
+        undoHistory.clear();
+        fileService.replaceHistory(List.of(), lastSequence);
+        awaitDurable(walTicket);
+        return lastSequence;
+    }
+
+    /**
+     * Apply an action sequenced by the primary server, keeping its sequence numbers.
+     * Actions the history already holds are skipped, so changes can be applied on top of
+     * a snapshot they overlap.
+     *
+     * @param action the sequenced action
+     */
+    public synchronized void replicate(Action action) {
+        if (action.getSequence() <= lastSequence) {
+            return;
+        }
+        lastSequence = action.getSequence();
+        lastReceivedMillis = Math.max(lastReceivedMillis, action.getReceivedMillis());
+        lastSequenceByUser.put(action.getUsername(), lastSequence);
+        undoHistory.record(action);
+        if (wal != null) {
+            walTicket = wal.append(action);
+        }
+        if (replication != null) {
+            replication.append(action);
+        }
+        ingest.ingest(action);
+    }
+
+    /**
+     * Apply a clear or import of the primary server. A reset older than the history is
+     * skipped, like an action it already holds.
+     *
+     * @param baseSequence sequence number the history starts at after the reset
+     */
+    public synchronized void replicateReset(long baseSequence) {
+        if (baseSequence < lastSequence) {
+            return;
+        }
+        replicateSnapshot(baseSequence, List.of());
+    }
+
+    /**
+     * Replace the history with a copy of the primary server's board, keeping its sequence
+     * numbers. The copy is logged like an import, so it is recovered after a restart.
+     *
+     * @param headSequence sequence number the copy is consistent with
+     * @param actions      the board's actions
+     */
+    public synchronized void replicateSnapshot(long headSequence, List<Action> actions) {
+        ingest.drain();
+        if (wal != null) {
+            walTicket = wal.reset(headSequence);
+            for (Action action : actions) {
+                walTicket = wal.append(action);
+            }
+        }
+        if (replication != null) {
+            replication.reset(headSequence);
+            for (Action action : actions) {
+                replication.append(action);
+            }
+        }
+        restore(headSequence, actions);
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Shut down the ingest path and close the log. Call this on server shutdown.
+     */
+    public void shutdown() {
+        ingest.shutdown();
+        if (wal != null) {
+            wal.close();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.whiteboard.server.service;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.codec.BoardFile;
+import org.whiteboard.server.storage.BoardProjection;
+import org.whiteboard.server.storage.WriteAheadLog;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the board to a checkpoint file in the background and truncates the
+ * {@link WriteAheadLog} behind it, so recovery replays at most one checkpoint interval.
+ * <p>
+ * A checkpoint is taken every {@code everyActions} actions or {@code everySeconds} seconds
+ * after a change, whichever comes first. The sequencer marks a consistent point, the board
+ * at that point is built from the timeline off the ingest path and written as a
+ * {@link BoardFile} to a temporary file, which is forced to disk and renamed over the last
+ * checkpoint. Only then are the log segments it covers deleted.
+ */
+public class BoardCheckpointer {
+
+    public static final String CHECKPOINT_FILE = "checkpoint.wbd";
+
+    public static final long DEFAULT_EVERY_ACTIONS = 50_000;
+    public static final long DEFAULT_EVERY_SECONDS = 300;
+
+    /**
+     * The board held by a checkpoint file.
+     *
+     * @param headSequence sequence number the board is consistent with
+     * @param actions      the board's actions
+     */
+    public record Checkpoint(long headSequence, List<Action> actions) {
+    }
+
+    private final ActionSequencer sequencer;
+    private final WriteAheadLog wal;
+    private final Path directory;
+    private final long everyActions;
+    private final long everySeconds;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread t = new Thread(runnable, "BoardCheckpointer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Worker thread only
+    private long checkpointedSequence;
+    private long checkpointedTicket;
+    private long checkpointedAt = System.nanoTime();
+
+    /**
+     * @param sequencer    the sequencer marking consistent points
+     * @param wal          the log truncated behind each checkpoint
+     * @param directory    directory of the checkpoint file
+     * @param everyActions number of actions between checkpoints
+     * @param everySeconds seconds between checkpoints of a changed board
+     */
+    public BoardCheckpointer(
+            ActionSequencer sequencer,
+            WriteAheadLog wal,
+            Path directory,
+            long everyActions,
+            long everySeconds
+    ) {
+        this.sequencer = sequencer;
+        this.wal = wal;
+        this.directory = directory;
+        this.everyActions = Math.max(1, everyActions);
+        this.everySeconds = Math.max(1, everySeconds);
+    }
+
+    /**
+     * Start checking once a second whether a checkpoint is due.
+     *
+     * @param recoveredSequence sequence number of the recovered board, not checkpointed again
+     */
+    public void start(long recoveredSequence) {
+        checkpointedSequence = recoveredSequence;
+        worker.scheduleWithFixedDelay(this::checkpointIfDue, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void checkpointIfDue() {
+        try {
+            long sequence = sequencer.getLastSequence();
+            boolean changed = sequence != checkpointedSequence;
+            boolean due = sequence - checkpointedSequence >= everyActions
+                    || System.nanoTime() - checkpointedAt >= TimeUnit.SECONDS.toNanos(everySeconds);
+            if (changed && due) {
+                checkpoint();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Retried on the next round, the log still holds everything
+            System.err.println("Error: Fail to write checkpoint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Take a checkpoint now, on the calling thread.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        ActionSequencer.CheckpointMark mark = sequencer.markCheckpoint();
+        if (mark.walTicket() == checkpointedTicket && mark.sequence() == checkpointedSequence) {
+            return;
+        }
+        BoardProjection.State board = mark.timeline().seek(mark.sequence());
+
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(
+                temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            BoardFile.Writer writer = new BoardFile.Writer(out, BoardFile.DEFAULT_CHECKPOINT_INTERVAL, mark.sequence());
+            for (Action action : board.actions()) {
+                writer.write(action);
+            }
+            writer.finish();
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+
+        int truncated = wal.truncate(mark.walTicket());
+        checkpointedSequence = mark.sequence();
+        checkpointedTicket = mark.walTicket();
+        checkpointedAt = System.nanoTime();
+        System.out.printf(
+                "Checkpoint at sequence %d: %d actions in %d ms, %d log segments deleted%n",
+                mark.sequence(),
+                board.actions().size(),
+                (System.nanoTime() - start) / 1_000_000,
+                truncated
+        );
+    }
+
+    // Make the rename durable, not supported on every platform
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The rename still happened, it may only be lost with the directory entry on power loss
+        }
+    }
+
+    /**
+     * Read the checkpoint file of a directory.
+     *
+     * @param directory directory of the checkpoint file
+     * @return the checkpoint, or null if there is none
+     * @throws IOException if the checkpoint file is corrupt
+     */
+    public static Checkpoint load(Path directory) throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            BoardFile.Reader reader = BoardFile.Reader.open(mapped);
+            return new Checkpoint(reader.getHeadSequence(), reader.readAll());
+        }
+    }
+
+    /**
+     * Stop taking checkpoints, waiting for one in progress.
+     */
+    public void shutdown() {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.whiteboard.server.service;
+
+/**
+ * Canvas data together with the sequence number it is consistent with.
+ *
+ * @param canvasData   Base64 encoded, serialized actions
+ * @param headSequence every action up to this sequence number is contained in the data
+ */
+public record CanvasSnapshot(String canvasData, long headSequence) {
+}
@@ -0,0 +1,37 @@
+package org.whiteboard.server.service;
+
+import org.whiteboard.common.action.Action;
+
+/**
+ * Default ingest: append to the history on the calling thread, then publish to the event bus.
+ */
+public class DirectActionIngest implements ActionIngest {
+
+    private final FileService fileService;
+    private final WhiteboardService whiteboardService;
+
+    /**
+     * @param fileService       the file service holding the history
+     * @param whiteboardService the whiteboard service publishing actions
+     */
+    public DirectActionIngest(FileService fileService, WhiteboardService whiteboardService) {
+        this.fileService = fileService;
+        this.whiteboardService = whiteboardService;
+    }
+
+    @Override
+    public void ingest(Action action) {
+        fileService.addAction(action);
+        whiteboardService.publishAction(action);
+    }
+
+    @Override
+    public void drain() {
+        // The history is appended synchronously, nothing is pending
+    }
+
+    @Override
+    public void shutdown() {
+        // No resources of its own, the event bus is shut down by the whiteboard service
+    }
+}
@@ -1,23 +1,182 @@
 package org.whiteboard.server.service;
 
+import org.whiteboard.common.Bounds;
 import org.whiteboard.common.action.Action;
+import org.whiteboard.common.codec.BoardFile;
+import org.whiteboard.common.codec.CanvasDataCodec;
+import org.whiteboard.common.codec.SyncStreamWriter;
+import org.whiteboard.common.rmi.IClientCallback;
+import org.whiteboard.server.storage.ActionLog;
+import org.whiteboard.server.storage.BoardProjection;
+import org.whiteboard.server.storage.BoardRaster;
+import org.whiteboard.server.storage.BoardTimeline;
 
-import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.Base64;
-import java.util.Collections;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
 
 /**
  * File service used to manage file uploads, downloads and Update.
  */
 public class FileService extends Service {
 
-    private final List<Action> actionHistory = Collections.synchronizedList(new ArrayList<>());
+    // Creates the history for a base sequence, on or off the heap
+    private final LongFunction<ActionLog> historyFactory;
+
+    // Replaced as a whole on clear or import, appended to without locks otherwise
+    private volatile ActionLog actionHistory;
+
+    // Old draw and erase objects are folded into a raster beyond this many, 0 keeps them all
+    public static final int DEFAULT_RASTER_FOLD_THRESHOLD = 2048;
+
+    private final int rasterFoldThreshold;
+
+    // What is currently on the board, replaced together with the history
+    private volatile BoardProjection projection;
+
+    private final int checkpointInterval;
+
+    // Checkpoints along the history for export and seeking, replaced together with the history
+    private volatile BoardTimeline timeline;
+
+    // Takes the timeline's checkpoints off the ingest path
+    private final ExecutorService checkpointWorker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread t = new Thread(runnable, "FileService-Checkpoints");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Last exported snapshot, guarded by snapshotLock, reused while the history is unchanged
+    private final Object snapshotLock = new Object();
+    private ActionLog cachedLog;
+    private long cachedSize = -1;
+    private CanvasSnapshot cachedSnapshot;
+
+    private final AtomicLong syncIds = new AtomicLong();
+
+    // Binary bytes per segment of a streamed export, about 4/3 of that after Base64
+    public static final int EXPORT_SEGMENT_BYTES = 256 * 1024;
+
+    // Streamed exports not read from for this long are dropped, e.g. when the client went away
+    private static final long EXPORT_IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // Streamed exports in progress by id
+    private final Map<Long, Export> exports = new ConcurrentHashMap<>();
+    private final AtomicLong exportIds = new AtomicLong();
+
+    // Uploaded board files not written to for this long are dropped
+    private static final long IMPORT_IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // Board file uploads in progress by id
+    private final Map<Long, Import> imports = new ConcurrentHashMap<>();
+    private final AtomicLong importIds = new AtomicLong();
+
+    /**
+     * A streamed export: the actions of the board when it was opened, encoded one
+     * segment per read.
+     */
+    private static final class Export {
+        private final List<Action> actions;
+        private int position;
+
+        // At least one segment was read, an empty board is one empty segment
+        private boolean started;
+
+        // Board file exports only: the writer and the bytes it wrote since the last read
+        private final BoardFile.Writer board;
+        private final ByteArrayOutputStream pending;
+        private boolean finished;
+
+        private volatile long lastRead = System.nanoTime();
+
+        private Export(List<Action> actions) {
+            this.actions = actions;
+            this.board = null;
+            this.pending = null;
+        }
+
+        private Export(List<Action> actions, long headSequence) {
+            this.actions = actions;
+            this.pending = new ByteArrayOutputStream(EXPORT_SEGMENT_BYTES + 64 * 1024);
+            this.board = new BoardFile.Writer(pending, BoardFile.DEFAULT_CHECKPOINT_INTERVAL, headSequence);
+        }
+    }
+
+    /**
+     * A board file being uploaded into a temporary file.
+     */
+    private static final class Import {
+        private final Path file;
+        private final FileChannel channel;
+
+        private volatile long lastWrite = System.nanoTime();
+
+        private Import(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        private void discard() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("Error: Fail to delete upload " + file + ": " + e.getMessage());
+            }
+        }
+    }
 
     public FileService() {
+        this(DEFAULT_RASTER_FOLD_THRESHOLD, BoardTimeline.DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param rasterFoldThreshold number of draw and erase objects kept as actions before
+     *                            the oldest are folded into a raster, 0 to never fold
+     * @param checkpointInterval  number of actions between checkpoints of the board
+     */
+    public FileService(int rasterFoldThreshold, int checkpointInterval) {
+        this(rasterFoldThreshold, checkpointInterval, ActionLog::new);
+    }
+
+    /**
+     * @param rasterFoldThreshold number of draw and erase objects kept as actions before
+     *                            the oldest are folded into a raster, 0 to never fold
+     * @param checkpointInterval  number of actions between checkpoints of the board
+     * @param historyFactory      creates the history for a base sequence, e.g.
+     *                            {@link org.whiteboard.server.storage.OffHeapActionLog}
+     */
+    public FileService(int rasterFoldThreshold, int checkpointInterval, LongFunction<ActionLog> historyFactory) {
         super();
+        this.historyFactory = historyFactory;
+        this.actionHistory = historyFactory.apply(0);
+        this.rasterFoldThreshold = Math.max(0, rasterFoldThreshold);
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        this.projection = newProjection(0);
+        this.timeline = new BoardTimeline(actionHistory, this.checkpointInterval);
+    }
+
+    private BoardProjection newProjection(long baseSequence) {
+        if (rasterFoldThreshold == 0) {
+            return new BoardProjection(baseSequence);
+        }
+        return new BoardProjection(baseSequence, new BoardRaster(), rasterFoldThreshold);
     }
 
     /**
@@ -26,67 +185,500 @@ public class FileService extends Service {
      * @param action action
      */
     public void addAction(Action action) {
-        this.actionHistory.add(action);
+        ActionLog log = this.actionHistory;
+        log.append(action);
+        this.projection.apply(action);
+        if (log.size() % checkpointInterval == 0) {
+            scheduleCheckpoint();
+        }
+    }
+
+    /**
+     * Add a batch of actions
+     *
+     * @param actions actions in sequence order
+     */
+    public void addActions(List<Action> actions) {
+        ActionLog log = this.actionHistory;
+        BoardProjection board = this.projection;
+        long checkpoints = log.size() / checkpointInterval;
+        for (Action action : actions) {
+            log.append(action);
+            board.apply(action);
+        }
+        if (log.size() / checkpointInterval != checkpoints) {
+            scheduleCheckpoint();
+        }
+    }
+
+    private void scheduleCheckpoint() {
+        BoardTimeline board = this.timeline;
+        try {
+            checkpointWorker.execute(() -> {
+                try {
+                    board.catchUp();
+                } catch (IllegalStateException e) {
+                    // Replaced meanwhile, the new timeline takes its own checkpoints
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down, seeking catches up by itself
+        }
+    }
+
+    /**
+     * The current history. Its published prefix can be read without locks or copying.
+     */
+    public ActionLog getHistory() {
+        return actionHistory;
+    }
+
+    /**
+     * Checkpoints along the current history, replaced together with it.
+     */
+    public BoardTimeline getTimeline() {
+        return timeline;
     }
 
     /**
      * Get canvas data from the server.
      */
     public String getCanvasData() throws RemoteException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-            synchronized (actionHistory) {
-                oos.writeObject(new ArrayList<>(actionHistory));
+        return getSnapshot().canvasData();
+    }
+
+    /**
+     * What is currently on the board, compacted from the history.
+     */
+    public BoardProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * The actions on the board covering any point of a region, in history order, found
+     * through the projection's spatial index. Drawings folded into the raster are not included.
+     *
+     * @param region the region
+     */
+    public List<Action> queryRegion(Bounds region) {
+        return projection.query(region);
+    }
+
+    /**
+     * Get canvas data together with the sequence number it is consistent with.
+     * <p>
+     * Exported data must hold actions only, but the live projection may have folded old
+     * actions into its raster. The timeline's projection, without a raster, is used
+     * instead. It is encoded once per change of the history.
+     */
+    public CanvasSnapshot getSnapshot() throws RemoteException {
+        synchronized (snapshotLock) {
+            BoardTimeline board = timeline;
+            ActionLog log = board.getLog();
+            long size = log.size();
+            if (log == cachedLog && size == cachedSize) {
+                return cachedSnapshot;
+            }
+
+            // May cover a few more actions than counted, the next export encodes again then
+            BoardProjection.State state;
+            try {
+                state = board.current();
+            } catch (IllegalStateException e) {
+                throw replaced(e);
             }
-            oos.flush();
-            return Base64.getEncoder().encodeToString(bos.toByteArray());
+            cachedSnapshot = new CanvasSnapshot(encode(state.actions()), state.headSequence());
+            cachedLog = log;
+            cachedSize = size;
+            return cachedSnapshot;
+        }
+    }
+
+    /**
+     * Get canvas data as the board was right after an earlier action, replayed from the
+     * nearest checkpoint.
+     *
+     * @param sequence sequence number of the action, clamped to the current history
+     */
+    public CanvasSnapshot seek(long sequence) throws RemoteException {
+        try {
+            BoardProjection.State state = timeline.seek(sequence);
+            return new CanvasSnapshot(encode(state.actions()), state.headSequence());
+        } catch (IllegalStateException e) {
+            throw replaced(e);
+        }
+    }
+
+    /**
+     * Get canvas data as the board was at an earlier time, by the time the server received
+     * each action rather than the time its client created it.
+     *
+     * @param time point in time
+     */
+    public CanvasSnapshot seek(Instant time) throws RemoteException {
+        try {
+            BoardProjection.State state = timeline.seek(time);
+            return new CanvasSnapshot(encode(state.actions()), state.headSequence());
+        } catch (IllegalStateException e) {
+            throw replaced(e);
+        }
+    }
+
+    // The history was cleared or replaced by an import while it was read
+    private static RemoteException replaced(IllegalStateException e) {
+        return new RemoteException("Error: The board was replaced meanwhile, please try again", e);
+    }
+
+    private static String encode(List<Action> actions) throws RemoteException {
+        try {
+            return CanvasDataCodec.encodeSegment(actions);
         } catch (IOException ex) {
             throw new RemoteException("Error: Fail to export canvas data", ex);
         }
     }
 
+    /**
+     * Start a streamed export of the current board.
+     * <p>
+     * Only references to the board's actions are taken, from the timeline's projection of
+     * a prefix of the history; later actions don't change what the export reads. The
+     * actions are encoded when the segments are read, so neither end ever holds the whole
+     * encoded board.
+     *
+     * @return id to read the export with
+     * @throws RemoteException if the history was replaced while it was read
+     */
+    public long openExport() throws RemoteException {
+        List<Action> actions;
+        try {
+            actions = timeline.current().actions();
+        } catch (IllegalStateException e) {
+            throw replaced(e);
+        }
+        long exportId = nextExportId();
+        exports.put(exportId, new Export(actions));
+        return exportId;
+    }
+
+    /**
+     * Start a streamed export of the board as a {@link BoardFile}. Read like
+     * {@link #openExport()}, the segments are consecutive bytes of the file.
+     * <p>
+     * The board is taken at a mark of the sequencer, which first drains its ingest, so the
+     * file holds every action sequenced before the export was opened even when the ingest
+     * appends them to the history later; a standby copying the board reads on from there.
+     *
+     * @param mark the point of the history to export
+     * @return id to read the export with
+     * @throws RemoteException if the history was replaced after the mark
+     */
+    public long openBoardExport(ActionSequencer.CheckpointMark mark) throws RemoteException {
+        BoardProjection.State state;
+        try {
+            state = mark.timeline().seek(mark.sequence());
+        } catch (IllegalStateException e) {
+            throw replaced(e);
+        }
+        long exportId = nextExportId();
+        exports.put(exportId, new Export(state.actions(), state.headSequence()));
+        return exportId;
+    }
+
+    private long nextExportId() {
+        long now = System.nanoTime();
+        exports.values().removeIf(export -> now - export.lastRead > EXPORT_IDLE_TIMEOUT_NANOS);
+        return exportIds.incrementAndGet();
+    }
+
+    /**
+     * Read the next segment of a streamed export. The segments joined with
+     * {@link CanvasDataCodec#SEGMENT_SEPARATOR} are canvas data like {@link #getCanvasData()}.
+     *
+     * @param exportId id of the export
+     * @return the Base64 segment as ASCII bytes, or null once everything was read, which closes the export
+     * @throws RemoteException if the export is unknown, an action cannot be encoded or the
+     *                         history it reads was replaced meanwhile
+     */
+    public byte[] readExport(long exportId) throws RemoteException {
+        Export export = exports.get(exportId);
+        if (export == null) {
+            throw new RemoteException("Error: Unknown or expired export " + exportId);
+        }
+        synchronized (export) {
+            export.lastRead = System.nanoTime();
+            if (export.board != null) {
+                return readBoardExport(exportId, export);
+            }
+            if (export.started && export.position >= export.actions.size()) {
+                exports.remove(exportId);
+                return null;
+            }
+            export.started = true;
+            ByteArrayOutputStream segment = new ByteArrayOutputStream(EXPORT_SEGMENT_BYTES * 4 / 3 + 1024);
+            try {
+                export.position = CanvasDataCodec.encodeSegment(
+                        export.actions, export.position, EXPORT_SEGMENT_BYTES, segment);
+            } catch (IOException e) {
+                exports.remove(exportId);
+                throw new RemoteException("Error: Fail to export canvas data", e);
+            } catch (IllegalStateException e) {
+                exports.remove(exportId);
+                throw replaced(e);
+            }
+            return segment.toByteArray();
+        }
+    }
+
+    private byte[] readBoardExport(long exportId, Export export) throws RemoteException {
+        if (export.finished) {
+            exports.remove(exportId);
+            return null;
+        }
+        try {
+            while (export.pending.size() < EXPORT_SEGMENT_BYTES && export.position < export.actions.size()) {
+                export.board.write(export.actions.get(export.position++));
+            }
+            if (export.position >= export.actions.size()) {
+                export.board.finish();
+                export.finished = true;
+            }
+        } catch (IOException e) {
+            exports.remove(exportId);
+            throw new RemoteException("Error: Fail to export canvas data", e);
+        } catch (IllegalStateException e) {
+            exports.remove(exportId);
+            throw replaced(e);
+        }
+        byte[] segment = export.pending.toByteArray();
+        export.pending.reset();
+        return segment;
+    }
 
     /**
-     * Clean up the data on the server.
+     * Drop a streamed export before it was read to the end.
+     *
+     * @param exportId id of the export
      */
-    public void cleanData() {
-        this.actionHistory.clear();
+    public void closeExport(long exportId) {
+        exports.remove(exportId);
     }
 
     /**
-     * Upload a canvas data and import it to the server.
+     * Stream the current board to a client as a sync: a header, the PNG tiles of the raster,
+     * bounded size deflated chunks of the actions on top of it, then an end marker. The
+     * client applies each part as it arrives.
+     * <p>
+     * Only references to the board's actions are collected up front; each chunk is encoded,
+     * sent and dropped before the next one. With the raster, the number of actions is bounded
+     * too, so a join costs what the canvas size costs. A slow client holds back only its
+     * own sync, on the calling thread.
+     *
+     * @param client the client to sync
+     * @throws RemoteException if the client cannot be reached or the board was replaced
+     *                         while it was read
      */
-    public void importCanvas(String canvasData) throws RemoteException {
+    public void streamSync(IClientCallback client) throws RemoteException {
+        BoardProjection board = projection;
+        BoardProjection.State state;
+        try {
+            state = board.materialize();
+        } catch (IllegalStateException e) {
+            throw replaced(e);
+        }
+        long syncId = syncIds.incrementAndGet();
+
+        client.onSyncBegin(syncId, state.headSequence(), state.actions().size());
+        BoardRaster raster = board.getRaster();
+        for (BoardRaster.Tile tile : state.tiles()) {
+            try {
+                client.onSyncTile(syncId, tile.x(), tile.y(), raster.png(tile));
+            } catch (RemoteException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new RemoteException("Error: Fail to encode canvas tile", e);
+            }
+        }
+        try (SyncStreamWriter writer = new SyncStreamWriter(chunk -> client.onSyncChunk(syncId, chunk))) {
+            for (Action action : state.actions()) {
+                writer.write(action);
+            }
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Error: Fail to sync canvas data", e);
+        } catch (IllegalStateException e) {
+            throw replaced(e);
+        }
+        client.onSyncEnd(syncId);
+    }
+
+    /**
+     * Decode uploaded canvas data into a list of actions.
+     *
+     * @param canvasData Base64 encoded, serialized actions
+     * @return the decoded actions in history order
+     */
+    public List<Action> decodeCanvasData(String canvasData) throws RemoteException {
         if (canvasData == null || canvasData.isEmpty()) {
             throw new RemoteException("Error: Canvas data is empty");
         }
-        byte[] data = Base64.getDecoder().decode(canvasData);
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
-             ObjectInputStream ois = new ObjectInputStream(bis)) {
+        try {
+            return CanvasDataCodec.decode(canvasData);
+        } catch (IOException e) {
+            throw new RemoteException("Error: Fail to import canvas data", e);
+        }
+    }
+
+    /**
+     * Start an upload of a board file. The bytes go to a temporary file, so the upload is
+     * never held in memory as a whole.
+     *
+     * @return id to write the upload with
+     * @throws RemoteException if the temporary file cannot be created
+     */
+    public long openImport() throws RemoteException {
+        long now = System.nanoTime();
+        imports.values().removeIf(upload -> {
+            boolean idle = now - upload.lastWrite > IMPORT_IDLE_TIMEOUT_NANOS;
+            if (idle) {
+                upload.discard();
+            }
+            return idle;
+        });
 
-            @SuppressWarnings("unchecked")
-            List<Action> actions = (List<Action>) ois.readObject();
+        try {
+            Path file = Files.createTempFile("whiteboard-import-", ".wbd");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            long importId = importIds.incrementAndGet();
+            imports.put(importId, new Import(file, channel));
+            return importId;
+        } catch (IOException e) {
+            throw new RemoteException("Error: Fail to start canvas import", e);
+        }
+    }
 
-            List<Action> imported = new ArrayList<>();
-            for (Object item : actions) {
-                if (item instanceof Action action) {
-                    imported.add(action);
+    /**
+     * Append the next bytes of an uploaded board file.
+     *
+     * @param importId id of the upload
+     * @param chunk    the bytes following the previous chunk
+     * @throws RemoteException if the upload is unknown or cannot be written
+     */
+    public void writeImport(long importId, byte[] chunk) throws RemoteException {
+        Import upload = getImport(importId);
+        synchronized (upload) {
+            upload.lastWrite = System.nanoTime();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                while (buffer.hasRemaining()) {
+                    upload.channel.write(buffer);
                 }
+            } catch (IOException e) {
+                imports.remove(importId);
+                upload.discard();
+                throw new RemoteException("Error: Fail to import canvas data", e);
             }
+        }
+    }
 
-            synchronized (actionHistory) {
-                actionHistory.clear();
-                actionHistory.addAll(imported);
+    /**
+     * Open a completely uploaded board file and drop the upload.
+     * <p>
+     * The file is memory mapped and its index checked; the blocks are left to the caller,
+     * to check each against its CRC and decode it straight from the page cache, one at a
+     * time. The mapping stays readable after the upload is deleted.
+     *
+     * @param importId id of the upload
+     * @return a reader of the uploaded board
+     * @throws RemoteException if the upload is unknown or its index is not valid
+     */
+    public BoardFile.Reader finishImport(long importId) throws RemoteException {
+        Import upload = getImport(importId);
+        imports.remove(importId);
+        synchronized (upload) {
+            try {
+                long size = upload.channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Board file is too large: " + size + " bytes");
+                }
+                MappedByteBuffer mapped = upload.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return BoardFile.Reader.open(mapped);
+            } catch (IOException e) {
+                throw new RemoteException("Error: Fail to import canvas data: " + e.getMessage(), e);
+            } finally {
+                upload.discard();
             }
-        } catch (IOException | ClassNotFoundException e) {
-            throw new RemoteException("Error: Fail to import canvas data", e);
         }
     }
 
+    private Import getImport(long importId) throws RemoteException {
+        Import upload = imports.get(importId);
+        if (upload == null) {
+            throw new RemoteException("Error: Unknown or expired import " + importId);
+        }
+        return upload;
+    }
+
+    /**
+     * An empty history for a base sequence, on or off the heap like the current one, to
+     * be filled and then installed with {@link #replaceHistory(ActionLog)}.
+     *
+     * @param baseSequence sequence number the history starts at
+     */
+    public ActionLog newHistory(long baseSequence) {
+        return historyFactory.apply(baseSequence);
+    }
+
+    /**
+     * Replace the whole history, e.g. after clearing or importing a canvas.
+     *
+     * @param actions      the new history
+     * @param baseSequence sequence number the history is reset at
+     */
+    public void replaceHistory(List<Action> actions, long baseSequence) {
+        ActionLog log = newHistory(baseSequence);
+        BoardProjection board = newProjection(baseSequence);
+        for (Action action : actions) {
+            log.append(action);
+            board.apply(action);
+        }
+        install(log, board);
+    }
+
+    /**
+     * Replace the whole history with a filled one, e.g. an imported board.
+     *
+     * @param log the new history, from {@link #newHistory(long)}
+     */
+    public void replaceHistory(ActionLog log) {
+        BoardProjection board = newProjection(log.getBaseSequence());
+        for (long i = 0; i < log.size(); i++) {
+            board.apply(log.get(i));
+        }
+        install(log, board);
+    }
+
+    private void install(ActionLog log, BoardProjection board) {
+        ActionLog replaced = this.actionHistory;
+        this.timeline = new BoardTimeline(log, checkpointInterval);
+        this.actionHistory = log;
+        this.projection = board;
+        if (log.size() >= checkpointInterval) {
+            scheduleCheckpoint();
+        }
+        // Releases off-heap chunks with the checkpoints kept in them; a seek still reading
+        // the old history fails and can be retried on the new one
+        replaced.close();
+    }
+
 
     public void shutdown() {
         System.out.println("Shutting down FileService...");
-        actionHistory.clear();
+        checkpointWorker.shutdownNow();
+        exports.clear();
+        imports.values().forEach(Import::discard);
+        imports.clear();
+        replaceHistory(List.of(), actionHistory.getHeadSequence());
         System.out.println("FileService shut down.");
     }
 
@@ -0,0 +1,63 @@
+package org.whiteboard.server.service;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.server.event.ActionRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ingest backed by a pre-allocated {@link ActionRingBuffer}, which hands actions between
+ * threads without allocating a task per action. Appending to the history and encoding the
+ * action for fan-out still allocate, as on the direct path.
+ * <p>
+ * The sequencer is the single producer. One consumer appends each available batch to the
+ * history under a single lock acquisition; the fan-out consumer is gated behind it, so an
+ * action reaches clients only after it is part of the history a new joiner syncs.
+ */
+public class RingBufferActionIngest implements ActionIngest {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final ActionRingBuffer ringBuffer;
+
+    // Reused by the history consumer thread only
+    private final List<Action> historyBatch = new ArrayList<>();
+
+    /**
+     * @param fileService       the file service holding the history
+     * @param whiteboardService the whiteboard service delivering actions
+     * @param capacity          number of ring slots
+     */
+    public RingBufferActionIngest(FileService fileService, WhiteboardService whiteboardService, int capacity) {
+        this.ringBuffer = new ActionRingBuffer(capacity);
+
+        ActionRingBuffer.ConsumerWorker history = ringBuffer.addConsumer("Ingest-History", (action, endOfBatch) -> {
+            historyBatch.add(action);
+            if (endOfBatch) {
+                fileService.addActions(historyBatch);
+                historyBatch.clear();
+            }
+        });
+        ringBuffer.addConsumer(
+                "Ingest-FanOut",
+                (action, endOfBatch) -> whiteboardService.dispatchAction(action),
+                history
+        );
+    }
+
+    @Override
+    public void ingest(Action action) {
+        ringBuffer.publish(action);
+    }
+
+    @Override
+    public void drain() {
+        ringBuffer.drain();
+    }
+
+    @Override
+    public void shutdown() {
+        ringBuffer.shutdown();
+    }
+}
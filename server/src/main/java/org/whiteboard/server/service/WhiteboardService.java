@@ -7,29 +7,70 @@ import org.whiteboard.server.event.EventBus;
 
 import java.rmi.RemoteException;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 public class WhiteboardService extends Service {
 
     final EventBus<Action> eventBus;
     final AsyncActionBroadcaster actionBroadcaster;
 
+    // With several lanes, the broadcaster restores the publish order before fanning out
+    private final boolean orderedFanOut;
+
 
     public WhiteboardService(Map<String, IClientCallback> clients) {
+        this(clients, new AsyncActionBroadcaster(), 1);
+    }
+
+    /**
+     * @param clients           connected clients
+     * @param actionBroadcaster the broadcaster delivering actions to clients
+     * @param dispatchLanes     number of event bus lanes, actions are partitioned by sender
+     *                          and encoded in parallel, but still reach every client in
+     *                          sequence order
+     */
+    public WhiteboardService(
+            Map<String, IClientCallback> clients,
+            AsyncActionBroadcaster actionBroadcaster,
+            int dispatchLanes
+    ) {
         super();
         setClients(clients);
-        eventBus = new EventBus<>(clients);
-        actionBroadcaster = new AsyncActionBroadcaster();
+        // Partition by sender so each user's actions keep their order
+        eventBus = new EventBus<>(clients, dispatchLanes, Action::getUsername);
+        this.actionBroadcaster = actionBroadcaster;
+        this.orderedFanOut = dispatchLanes > 1;
         eventBus.register(actionBroadcaster);
     }
 
     /**
-     * Broadcast an action to all clients except the one who sent it.
+     * Publish an action on the event bus, to be broadcast to all clients except the one who sent it.
+     * Actions reach every client in the order they are published, so call in sequence order.
      *
      * @param action (drawing action, Erase action, Text action)
      */
-    public void broadcastAction(String username, Action action) throws RemoteException {
-        assertRegistered(username);
-        eventBus.publish(action);
+    public void publishAction(Action action) {
+        if (!orderedFanOut) {
+            eventBus.publish(action);
+            return;
+        }
+        actionBroadcaster.expect(action);
+        try {
+            eventBus.publish(action);
+        } catch (RejectedExecutionException e) {
+            // Its lane is shut down, don't let it hold up the actions announced after it
+            actionBroadcaster.cancel(action, getClients());
+            throw e;
+        }
+    }
+
+    /**
+     * Hand an action straight to the broadcaster on the calling thread, bypassing the event bus.
+     *
+     * @param action (drawing action, Erase action, Text action)
+     */
+    public void dispatchAction(Action action) {
+        actionBroadcaster.onEventReceived(action, getClients());
     }
 
     /**
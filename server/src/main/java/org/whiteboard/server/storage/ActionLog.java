@@ -0,0 +1,242 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.action.Action;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only log of actions stored in fixed-size array segments.
+ * <p>
+ * Writers claim a slot with a single atomic increment and take no lock. A slot becomes
+ * visible to readers once the published high-water mark passes it; the mark only advances in
+ * claim order, so readers always see a gap-free prefix. That makes publishing wait for the
+ * writer of the previous slot: writers spin, then yield, while an earlier one is still storing,
+ * so a descheduled writer holds up the ones behind it. With more writers than cores that wait
+ * costs far more than a lock would; the server appends from one thread at a time, under the
+ * sequencer's lock or from the ingest's history consumer. Readers never block writers and can
+ * iterate any published prefix without copying it, since published slots never change.
+ * <p>
+ * A slot whose action cannot be stored, e.g. because the log is full, fails the log: the
+ * prefix before it stays readable, but every append after it throws instead of waiting for
+ * a slot that will never be published.
+ * <p>
+ * Subclasses may keep the actions elsewhere by overriding {@link #store(long, Action)} and
+ * {@link #load(long)}; claiming and publishing stay the same.
+ */
+public class ActionLog {
+
+    private static final int SEGMENT_SHIFT = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    // Two-level directory: chunks of segments, both created lazily with CAS
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_CHUNKS = 1 << 12;
+
+    private static final int PUBLISH_SPIN_TRIES = 64;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Action[]>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+    // Next slot to hand out to a writer
+    private final AtomicLong claimed = new AtomicLong();
+
+    // Number of slots readers may see, always a gap-free prefix
+    private volatile long published;
+
+    // First slot whose action could not be stored, and why; no slot from there is published
+    private volatile long failedAt = Long.MAX_VALUE;
+    private volatile Throwable failure;
+
+    // Sequence number the log was started at, the head of an empty log
+    private final long baseSequence;
+
+    /**
+     * @param baseSequence sequence number the log starts at
+     */
+    public ActionLog(long baseSequence) {
+        this.baseSequence = baseSequence;
+    }
+
+    /**
+     * Append an action.
+     *
+     * @param action the action to append
+     * @return the index of the action in the log
+     * @throws IllegalStateException if an earlier append failed to store its action
+     */
+    public long append(Action action) {
+        long index = claimed.getAndIncrement();
+        checkFailed(index);
+        try {
+            store(index, action);
+        } catch (RuntimeException | Error e) {
+            fail(index, e);
+            throw e;
+        }
+
+        // Publish in claim order so readers never see a hole
+        int spins = 0;
+        while (published != index) {
+            checkFailed(index);
+            if (++spins < PUBLISH_SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                // The earlier writer may have been descheduled, give it the CPU
+                Thread.yield();
+            }
+        }
+        published = index + 1;
+        return index;
+    }
+
+    private synchronized void fail(long index, Throwable cause) {
+        if (index < failedAt) {
+            failure = cause;
+            failedAt = index;
+        }
+    }
+
+    private void checkFailed(long index) {
+        if (failedAt <= index) {
+            throw new IllegalStateException("Action log failed at index " + failedAt, failure);
+        }
+    }
+
+    /**
+     * Number of published actions.
+     */
+    public long size() {
+        return published;
+    }
+
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * Sequence number of the last published action, or the base sequence if the log is empty.
+     */
+    public long getHeadSequence() {
+        long size = published;
+        return size == 0 ? baseSequence : get(size - 1).getSequence();
+    }
+
+    /**
+     * Get a published action.
+     *
+     * @param index index below {@link #size()}
+     * @return the action
+     */
+    public Action get(long index) {
+        if (index < 0 || index >= published) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside published log of " + published);
+        }
+        return load(index);
+    }
+
+    /**
+     * Keep a list of actions derived from this log, e.g. a checkpoint of the board, the
+     * way the log keeps its own.
+     *
+     * @param actions the actions, not changed afterwards
+     * @return a list of the same actions
+     */
+    public List<Action> keep(List<Action> actions) {
+        return actions;
+    }
+
+    /**
+     * Release what the log holds outside the heap, once it was replaced. Reading the log or
+     * what it kept afterwards may throw {@link IllegalStateException}; the default keeps
+     * everything on the heap and releases nothing.
+     */
+    public void close() {
+    }
+
+    /**
+     * Keep an action in its claimed slot, before the slot is published. Called by the
+     * writer that claimed the slot, concurrently with other writers.
+     *
+     * @param index  the claimed slot
+     * @param action the action
+     */
+    protected void store(long index, Action action) {
+        segmentFor(index)[(int) (index & SEGMENT_MASK)] = action;
+    }
+
+    /**
+     * The action of a published slot.
+     *
+     * @param index a published slot
+     */
+    protected Action load(long index) {
+        return segmentAt(index)[(int) (index & SEGMENT_MASK)];
+    }
+
+    /**
+     * A read-only view of a published range, backed by the log without copying.
+     *
+     * @param from first index, inclusive
+     * @param to   last index, exclusive, at most {@link #size()}
+     * @return the view
+     */
+    public List<Action> view(long from, long to) {
+        if (from < 0 || from > to || to > published) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " outside published log of " + published);
+        }
+        int length = Math.toIntExact(to - from);
+        return new AbstractList<>() {
+            @Override
+            public Action get(int i) {
+                if (i < 0 || i >= length) {
+                    throw new IndexOutOfBoundsException(i);
+                }
+                return load(from + i);
+            }
+
+            @Override
+            public int size() {
+                return length;
+            }
+        };
+    }
+
+    /**
+     * A read-only view of everything published so far.
+     */
+    public List<Action> view() {
+        return view(0, published);
+    }
+
+    private Action[] segmentAt(long index) {
+        long segment = index >>> SEGMENT_SHIFT;
+        return chunks.get((int) (segment >>> CHUNK_SHIFT)).get((int) (segment & CHUNK_MASK));
+    }
+
+    private Action[] segmentFor(long index) {
+        long segment = index >>> SEGMENT_SHIFT;
+        int chunkIndex = (int) (segment >>> CHUNK_SHIFT);
+        if (chunkIndex >= MAX_CHUNKS) {
+            throw new IllegalStateException("Action log is full");
+        }
+
+        AtomicReferenceArray<Action[]> chunk = chunks.get(chunkIndex);
+        if (chunk == null) {
+            chunks.compareAndSet(chunkIndex, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = chunks.get(chunkIndex);
+        }
+
+        int segmentIndex = (int) (segment & CHUNK_MASK);
+        Action[] slots = chunk.get(segmentIndex);
+        if (slots == null) {
+            chunk.compareAndSet(segmentIndex, null, new Action[SEGMENT_SIZE]);
+            slots = chunk.get(segmentIndex);
+        }
+        return slots;
+    }
+}
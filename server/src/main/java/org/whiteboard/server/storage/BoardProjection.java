@@ -0,0 +1,638 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.Bounds;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.PointList;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.action.EraseAction;
+import org.whiteboard.common.action.TextAction;
+import org.whiteboard.common.action.UndoAction;
+import org.whiteboard.common.spatial.QuadTree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Materialized view of what is currently on the board, maintained beside the history.
+ * <p>
+ * Replaying the projection draws the same board as replaying the whole history, but
+ * redundant actions are folded away as they arrive:
+ * <ul>
+ *     <li>a text REMOVE cancels the matching ADD, and neither is kept</li>
+ *     <li>contiguous FREEHAND segments of one stroke are merged into a single action; clients
+ *     still draw its points segment by segment, so it looks as the segments did</li>
+ *     <li>a primitive whose ink has been completely erased is dropped, and so is an erase
+ *     once nothing it erased is left</li>
+ * </ul>
+ * An {@link UndoAction} takes the objects of a gesture off the board and keeps them aside
+ * until it is redone or can't be redone anymore; erasing goes on cutting them meanwhile,
+ * so a redo shows them as if they had never been undone. Gestures that can still be undone
+ * are never folded.
+ * <p>
+ * Objects are kept in history order, keyed by the sequence of the action that created them,
+ * and in a {@link QuadTree} by the area they cover, so erasing and region queries only look
+ * at nearby objects.
+ * <p>
+ * With a {@link BoardRaster}, the oldest draw and erase objects are folded into it once
+ * there are more than a threshold of them, so the number of objects a joiner replays on
+ * top of the raster stays bounded no matter how long the session runs.
+ */
+public class BoardProjection {
+
+    // Antialiasing may touch one pixel beyond the stroke
+    private static final double ANTIALIAS_MARGIN = 1;
+
+    // Stop tracking erased area of an object once it is this fragmented, the object is kept
+    private static final int MAX_FRAGMENTS = 256;
+
+    /**
+     * Snapshot of the projection.
+     *
+     * @param tiles        raster tiles to draw first, empty without a raster
+     * @param actions      actions drawing the current board on top of the tiles, in history order
+     * @param headSequence sequence of the last action applied
+     * @param version      changes whenever the projection changes
+     */
+    public record State(List<BoardRaster.Tile> tiles, List<Action> actions, long headSequence, long version) {
+    }
+
+    // Text elements are matched on what they look like, as clients do
+    private record TextKey(String text, Point position, Double scale, String color) {
+        static TextKey of(TextAction action) {
+            return new TextKey(action.getText(), action.getPosition(), action.getScale(), action.getColor());
+        }
+    }
+
+    private final NavigableMap<Long, LiveObject> objects = new TreeMap<>();
+    private final Map<TextKey, Deque<Long>> liveTexts = new HashMap<>();
+
+    // Objects by area: ink for draw and erase objects, the text box for text. Holds the
+    // objects themselves, a lookup in the tree map per hit would cost more than the query
+    private final QuadTree<LiveObject> index = new QuadTree<>(new Bounds(0, 0, BoardRaster.WIDTH, BoardRaster.HEIGHT));
+
+    // Last FREEHAND stroke of each user that may still be extended
+    private final Map<String, Long> openStrokes = new HashMap<>();
+
+    // Gestures per user, hidden ones keep their objects
+    private final UndoHistory<List<LiveObject>> undoHistory = new UndoHistory<>(UndoHistory.DEFAULT_DEPTH);
+
+    // Objects of undone gestures that may still be redone
+    private final Set<LiveObject> hidden = new HashSet<>();
+
+    private final BoardRaster raster;
+    private final int foldThreshold;
+
+    // Number of draw and erase objects, the ones that can be folded
+    private int foldableCount;
+
+    private long headSequence;
+    private long version;
+
+    /**
+     * @param baseSequence sequence number the projection starts at
+     */
+    public BoardProjection(long baseSequence) {
+        this(baseSequence, null, 0);
+    }
+
+    /**
+     * @param baseSequence  sequence number the projection starts at
+     * @param raster        raster to fold old draw and erase objects into, or null
+     * @param foldThreshold number of draw and erase objects that triggers a fold
+     */
+    public BoardProjection(long baseSequence, BoardRaster raster, int foldThreshold) {
+        if (raster != null && foldThreshold <= 0) {
+            throw new IllegalArgumentException("Fold threshold must be positive: " + foldThreshold);
+        }
+        this.headSequence = baseSequence;
+        this.raster = raster;
+        this.foldThreshold = foldThreshold;
+    }
+
+    /**
+     * Apply the next action in sequence order.
+     *
+     * @param action the action
+     */
+    public synchronized void apply(Action action) {
+        headSequence = action.getSequence();
+        version++;
+
+        if (action instanceof UndoAction undo) {
+            UndoHistory.Gesture<List<LiveObject>> gesture = undoHistory.record(undo, this::discard);
+            if (gesture != null && undo.isRedo()) {
+                show(gesture);
+            } else if (gesture != null) {
+                hide(gesture, undo.getUsername());
+            }
+            return;
+        }
+        undoHistory.record(action, this::discard);
+
+        // A stroke only goes on while its user does nothing else, as for undoing it
+        if (!(action instanceof DrawAction draw && draw.getShapeType() == DrawAction.ShapeType.FREEHAND)) {
+            openStrokes.remove(action.getUsername());
+        }
+
+        if (action instanceof TextAction text) {
+            applyText(text);
+        } else if (action instanceof EraseAction erase) {
+            applyErase(erase);
+        } else if (action instanceof DrawAction draw) {
+            applyDraw(draw);
+        } else {
+            add(action.getSequence(), new LiveObject(action, null, List.of()));
+        }
+
+        if (raster != null && foldableCount > foldThreshold) {
+            fold(foldableCount - foldThreshold / 2);
+        }
+    }
+
+    /**
+     * Paint the oldest draw and erase objects into the raster and drop them.
+     * Text objects stay, they are on a layer of their own, and so do gestures that can
+     * still be undone.
+     */
+    private void fold(int count) {
+        List<Long> folded = new ArrayList<>(count);
+        for (Map.Entry<Long, LiveObject> entry : objects.entrySet()) {
+            if (folded.size() == count) {
+                break;
+            }
+            LiveObject object = entry.getValue();
+            if (object.bounds != null && entry.getKey() < undoHistory.undoFloor(object.action.getUsername())) {
+                raster.paint(object.toAction(), object.bounds);
+                folded.add(entry.getKey());
+            }
+        }
+        for (Long key : folded) {
+            remove(key);
+        }
+    }
+
+    /**
+     * The actions drawing the current board, with the sequence they are consistent with.
+     */
+    public synchronized State materialize() {
+        List<Action> actions = new ArrayList<>(objects.size());
+        for (LiveObject object : objects.values()) {
+            actions.add(object.toAction());
+        }
+        List<BoardRaster.Tile> tiles = raster == null ? List.of() : raster.snapshotTiles();
+        return new State(tiles, actions, headSequence, version);
+    }
+
+    /**
+     * The objects covering any point of an area, in history order. Objects folded into the
+     * raster are not included, its tiles cover them.
+     *
+     * @param area the area
+     * @return actions drawing these objects
+     */
+    public synchronized List<Action> query(Bounds area) {
+        List<LiveObject> found = index.query(area);
+        found.sort(Comparator.comparingLong(object -> object.key));
+        List<Action> actions = new ArrayList<>(found.size());
+        for (LiveObject object : found) {
+            actions.add(object.toAction());
+        }
+        return actions;
+    }
+
+    /**
+     * The raster old objects are folded into, null if folding is off.
+     */
+    public BoardRaster getRaster() {
+        return raster;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized long getHeadSequence() {
+        return headSequence;
+    }
+
+    /**
+     * Number of objects currently on the board.
+     */
+    public synchronized int size() {
+        return objects.size();
+    }
+
+    /**
+     * Take the objects of an undone gesture off the board.
+     */
+    private void hide(UndoHistory.Gesture<List<LiveObject>> gesture, String username) {
+        List<LiveObject> stash = new ArrayList<>();
+        for (LiveObject object : objects.subMap(gesture.getFromSequence(), true, gesture.getToSequence(), true).values()) {
+            if (object.action.getUsername().equals(username)) {
+                stash.add(object);
+            }
+        }
+        for (LiveObject object : stash) {
+            remove(object.key);
+            hidden.add(object);
+            if (object.action instanceof TextAction text) {
+                Deque<Long> matches = liveTexts.get(TextKey.of(text));
+                if (matches != null) {
+                    matches.remove(object.key);
+                    if (matches.isEmpty()) {
+                        liveTexts.remove(TextKey.of(text));
+                    }
+                }
+            }
+        }
+        gesture.setStash(stash);
+    }
+
+    /**
+     * Put the objects of a redone gesture back, apart from those erased meanwhile.
+     */
+    private void show(UndoHistory.Gesture<List<LiveObject>> gesture) {
+        List<LiveObject> stash = gesture.getStash();
+        if (stash == null) {
+            return;
+        }
+        for (LiveObject object : stash) {
+            if (!hidden.remove(object)) {
+                continue;
+            }
+            add(object.key, object);
+            if (object.action instanceof TextAction text) {
+                // Clients add it back at the end of their text elements as well
+                liveTexts.computeIfAbsent(TextKey.of(text), k -> new ArrayDeque<>()).addLast(object.key);
+            }
+        }
+        gesture.setStash(null);
+    }
+
+    /**
+     * Forget the objects of a gesture that can't be redone anymore.
+     */
+    private void discard(UndoHistory.Gesture<List<LiveObject>> gesture) {
+        List<LiveObject> stash = gesture.getStash();
+        if (stash == null) {
+            return;
+        }
+        for (LiveObject object : stash) {
+            if (hidden.remove(object)) {
+                release(object);
+            }
+        }
+        gesture.setStash(null);
+    }
+
+    private void applyText(TextAction action) {
+        TextKey key = TextKey.of(action);
+        switch (action.getTextType()) {
+            case ADD -> {
+                add(action.getSequence(), new LiveObject(action, null, List.of()));
+                liveTexts.computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(action.getSequence());
+            }
+            case REMOVE -> {
+                // Clients remove the first equal element, do the same. Nothing to keep if there's no match
+                Deque<Long> matches = liveTexts.get(key);
+                if (matches != null) {
+                    remove(matches.pollFirst());
+                    if (matches.isEmpty()) {
+                        liveTexts.remove(key);
+                    }
+                }
+            }
+            default -> add(action.getSequence(), new LiveObject(action, null, List.of()));
+        }
+    }
+
+    private void applyDraw(DrawAction action) {
+        long sequence = action.getSequence();
+        PointList points = action.getPoints();
+        if (points.isEmpty()) {
+            return;
+        }
+
+        if (action.getShapeType() == DrawAction.ShapeType.FREEHAND && points.size() >= 2 && extendStroke(action)) {
+            return;
+        }
+
+        add(sequence, new LiveObject(action, inkBounds(action), inkFragments(action)));
+        if (action.getShapeType() == DrawAction.ShapeType.FREEHAND) {
+            openStrokes.put(action.getUsername(), sequence);
+        }
+    }
+
+    /**
+     * Append a FREEHAND segment to the user's open stroke if it continues it and
+     * nothing drawn since overlaps the new segment, so the merged stroke looks the same.
+     */
+    private boolean extendStroke(DrawAction segment) {
+        Long strokeKey = openStrokes.get(segment.getUsername());
+        LiveObject stroke = strokeKey == null ? null : objects.get(strokeKey);
+        if (stroke == null) {
+            return false;
+        }
+
+        DrawAction first = (DrawAction) stroke.action;
+        PointList points = segment.getPoints();
+        if (!first.getColor().equals(segment.getColor())
+                || first.getStrokeWidth() != segment.getStrokeWidth()
+                || !stroke.endsAt(points.getX(0), points.getY(0))) {
+            return false;
+        }
+
+        List<Bounds> added = inkFragments(segment);
+        Bounds addedBounds = inkBounds(segment);
+        for (LiveObject other : index.query(addedBounds)) {
+            if (other.key > strokeKey && other.bounds != null && other.bounds.intersects(addedBounds)) {
+                return false;
+            }
+        }
+
+        if (stroke.merged == null) {
+            stroke.merged = new PointList.Builder(first.getPoints().size() * 2).addAll(first.getPoints(), 0);
+        }
+        stroke.merged.addAll(points, 1);
+        index.remove(stroke, stroke.bounds);
+        stroke.bounds = stroke.bounds.union(addedBounds);
+        index.insert(stroke, stroke.bounds);
+        if (stroke.remaining != null) {
+            stroke.remaining.addAll(added);
+        }
+        stroke.materialized = null;
+        return true;
+    }
+
+    private void applyErase(EraseAction action) {
+        if (action.getErasePath().isEmpty()) {
+            return;
+        }
+        // Clients clear a square around the first point of the path
+        Bounds area = Bounds.square(action.getErasePath().getFirst(), action.getEraserSize());
+
+        LiveObject erase = new LiveObject(action, area, List.of());
+        erase.erased = new HashSet<>();
+
+        // Hidden objects are cut too, in case they are redone
+        List<LiveObject> candidates = index.query(area);
+        for (LiveObject object : hidden) {
+            if (object.bounds != null && object.bounds.intersects(area)) {
+                candidates.add(object);
+            }
+        }
+
+        List<LiveObject> fullyErased = new ArrayList<>();
+        for (LiveObject object : candidates) {
+            long key = object.key;
+            if (!(object.action instanceof DrawAction) || !object.bounds.intersects(area)) {
+                continue;
+            }
+            if (object.remaining == null) {
+                // Not tracked, assume the erase matters
+                erase.erased.add(key);
+                object.erasedBy.add(action.getSequence());
+                continue;
+            }
+            if (!object.cut(area)) {
+                continue;
+            }
+            if (object.remaining != null && object.remaining.isEmpty()) {
+                fullyErased.add(object);
+            } else {
+                erase.erased.add(key);
+                object.erasedBy.add(action.getSequence());
+            }
+        }
+
+        for (LiveObject object : fullyErased) {
+            if (hidden.remove(object)) {
+                release(object);
+            } else {
+                drop(object.key);
+            }
+        }
+
+        // Keep the erase only while something it erased is still on the board. An erase over
+        // the raster is kept for good, it may clear folded pixels
+        erase.pinned = raster != null && raster.isPainted(area);
+        if (erase.pinned || !erase.erased.isEmpty()) {
+            add(action.getSequence(), erase);
+        }
+    }
+
+    /**
+     * Remove an object, and every erase only kept because of it.
+     */
+    private void drop(long key) {
+        LiveObject object = remove(key);
+        if (object != null) {
+            release(object);
+        }
+    }
+
+    /**
+     * Remove every erase only kept because of an object that left the board for good.
+     */
+    private void release(LiveObject object) {
+        for (Long eraseKey : object.erasedBy) {
+            LiveObject erase = objects.get(eraseKey);
+            if (erase != null && erase.erased != null) {
+                erase.erased.remove(object.key);
+                if (erase.erased.isEmpty() && !erase.pinned) {
+                    remove(eraseKey);
+                }
+            }
+        }
+    }
+
+    private void add(long key, LiveObject object) {
+        object.key = key;
+        objects.put(key, object);
+        Bounds area = object.area();
+        if (area != null) {
+            index.insert(object, area);
+        }
+        if (object.bounds != null) {
+            foldableCount++;
+        }
+    }
+
+    private LiveObject remove(long key) {
+        LiveObject object = objects.remove(key);
+        if (object == null) {
+            return null;
+        }
+        Bounds area = object.area();
+        if (area != null) {
+            index.remove(object, area);
+        }
+        if (object.bounds != null) {
+            foldableCount--;
+        }
+        return object;
+    }
+
+    /**
+     * Area a draw action may paint, used to find overlapping objects.
+     */
+    static Bounds inkBounds(DrawAction action) {
+        return action.getInkBounds();
+    }
+
+    /**
+     * Rectangles covering the ink of a draw action, tighter than its bounds for lines and
+     * outlines. The object is fully erased once all of them are erased.
+     */
+    static List<Bounds> inkFragments(DrawAction action) {
+        PointList points = action.getPoints();
+        double margin = action.getInkMargin();
+        List<Bounds> fragments = new ArrayList<>();
+        switch (action.getShapeType()) {
+            case FREEHAND -> {
+                for (int i = 1; i < points.size(); i++) {
+                    double x0 = points.getX(i - 1), y0 = points.getY(i - 1);
+                    double x1 = points.getX(i), y1 = points.getY(i);
+                    fragments.add(new Bounds(
+                            Math.min(x0, x1) - margin,
+                            Math.min(y0, y1) - margin,
+                            Math.max(x0, x1) + margin,
+                            Math.max(y0, y1) + margin
+                    ));
+                }
+            }
+            case LINE -> fragments.add(Bounds.of(points.getFirst(), points.getLast()).inflate(margin));
+            case RECTANGLE -> {
+                // Only the outline is stroked
+                Bounds r = Bounds.of(points.getFirst(), points.getLast());
+                fragments.add(new Bounds(r.minX(), r.minY(), r.maxX(), r.minY()).inflate(margin));
+                fragments.add(new Bounds(r.minX(), r.maxY(), r.maxX(), r.maxY()).inflate(margin));
+                fragments.add(new Bounds(r.minX(), r.minY(), r.minX(), r.maxY()).inflate(margin));
+                fragments.add(new Bounds(r.maxX(), r.minY(), r.maxX(), r.maxY()).inflate(margin));
+            }
+            case POINT -> fragments.add(Bounds.square(points.getFirst(), action.getStrokeWidth())
+                    .inflate(ANTIALIAS_MARGIN));
+            default -> fragments.add(inkBounds(action));
+        }
+        return fragments;
+    }
+
+    /**
+     * One object on the board. Text and erase objects wrap their action as is; FREEHAND
+     * strokes collect the points of all merged segments.
+     */
+    private static final class LiveObject {
+        private final Action action;
+        // For FREEHAND strokes: the points of all merged segments, null until a segment is merged
+        private PointList.Builder merged;
+        private final List<Long> erasedBy = new ArrayList<>(0);
+
+        // Key in the objects map, set when added
+        private long key;
+
+        // Painted area, null for objects not affected by erasing (text)
+        private Bounds bounds;
+
+        // Ink not yet erased, null when not tracked
+        private List<Bounds> remaining;
+
+        // For erase objects: keys of the objects this erase still affects
+        private Set<Long> erased;
+
+        // For erase objects: kept regardless of the objects above
+        private boolean pinned;
+
+        private Action materialized;
+
+        private LiveObject(Action action, Bounds bounds, List<Bounds> ink) {
+            this.action = action;
+            this.bounds = bounds;
+            if (action instanceof DrawAction draw) {
+                this.remaining = new ArrayList<>(ink);
+            }
+        }
+
+        /**
+         * Area the object is indexed by.
+         */
+        private Bounds area() {
+            if (bounds != null) {
+                return bounds;
+            }
+            if (action instanceof TextAction text) {
+                return new Bounds(
+                        text.getMinX(),
+                        text.getMinY(),
+                        text.getMinX() + text.getWidth(),
+                        text.getMinY() + text.getHeight()
+                );
+            }
+            return null;
+        }
+
+        /**
+         * Cut an erased area out of the remaining ink.
+         *
+         * @return whether any ink was erased
+         */
+        private boolean cut(Bounds area) {
+            List<Bounds> next = new ArrayList<>(remaining.size());
+            boolean hit = false;
+            for (Bounds fragment : remaining) {
+                if (fragment.intersects(area)) {
+                    hit = true;
+                    fragment.subtract(area, next);
+                } else {
+                    next.add(fragment);
+                }
+            }
+            if (hit) {
+                // Too fragmented to be worth tracking, keep the object for good
+                remaining = next.size() > MAX_FRAGMENTS ? null : next;
+            }
+            return hit;
+        }
+
+        private boolean endsAt(double x, double y) {
+            if (merged != null) {
+                int last = merged.size() - 1;
+                return merged.getX(last) == x && merged.getY(last) == y;
+            }
+            PointList points = ((DrawAction) action).getPoints();
+            int last = points.size() - 1;
+            return points.getX(last) == x && points.getY(last) == y;
+        }
+
+        private Action toAction() {
+            if (!(action instanceof DrawAction draw) || merged == null) {
+                return action;
+            }
+            if (materialized == null) {
+                DrawAction stroke = new DrawAction(
+                        draw.getActionId(),
+                        draw.getUsername(),
+                        draw.getTimestampMillis(),
+                        draw.getShapeType(),
+                        merged.build(),
+                        draw.getColor(),
+                        draw.getStrokeWidth()
+                );
+                // Keep the identity and place in history order of the stroke's first segment
+                stroke.assignSequence(draw.getSequence(), draw.getPreviousSequence());
+                stroke.assignReceivedMillis(draw.getReceivedMillis());
+                materialized = stroke;
+            }
+            return materialized;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.Bounds;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.PointList;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.action.EraseAction;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Headless raster of the drawing layer of the board, holding old draw and erase actions
+ * folded out of the {@link BoardProjection}.
+ * <p>
+ * Actions are painted the way clients paint them on their canvas: square caps, miter
+ * joins, antialiased, erasing clears to transparent. Text lives on a separate layer on
+ * clients and is never folded. The raster is cut into square tiles, each compressed to
+ * PNG once per change and only when a client needs it; tiles nothing was painted on are
+ * never sent. Only used under the projection's lock, apart from PNG encoding.
+ */
+public class BoardRaster {
+
+    // Size of the client canvas
+    public static final int WIDTH = 1200;
+    public static final int HEIGHT = 800;
+
+    public static final int TILE_SIZE = 256;
+
+    private static final int TILE_COLUMNS = (WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+    private static final int TILE_ROWS = (HEIGHT + TILE_SIZE - 1) / TILE_SIZE;
+
+    /**
+     * A tile as of a snapshot. Either the PNG is already known, or the pixels were copied
+     * and are encoded on demand outside the projection's lock.
+     *
+     * @param x       left edge on the canvas
+     * @param y       top edge on the canvas
+     * @param index   tile index
+     * @param version changes whenever the tile is painted on
+     */
+    public record Tile(int x, int y, int index, long version, byte[] png, BufferedImage pixels) {
+    }
+
+    // Created by the first fold, a board that never folds doesn't hold a canvas sized image
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    private final long[] tileVersions = new long[TILE_COLUMNS * TILE_ROWS];
+    private final boolean[] painted = new boolean[TILE_COLUMNS * TILE_ROWS];
+
+    // Encoded tiles, guarded by pngLock
+    private final Object pngLock = new Object();
+    private final byte[][] pngs = new byte[TILE_COLUMNS * TILE_ROWS][];
+    private final long[] pngVersions = new long[TILE_COLUMNS * TILE_ROWS];
+
+    private long foldedCount;
+
+    public BoardRaster() {
+        Arrays.fill(pngVersions, -1);
+    }
+
+    private Graphics2D graphics() {
+        if (graphics == null) {
+            image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            graphics = image.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        }
+        return graphics;
+    }
+
+    /**
+     * Paint a draw or erase action on top of the raster.
+     *
+     * @param action the action, other actions are ignored
+     * @param area   area the action may touch
+     */
+    public void paint(Action action, Bounds area) {
+        if (action instanceof DrawAction draw) {
+            paintDraw(draw);
+        } else if (action instanceof EraseAction erase) {
+            Bounds square = Bounds.square(erase.getErasePath().getFirst(), erase.getEraserSize());
+            Graphics2D canvas = graphics();
+            canvas.setComposite(AlphaComposite.Clear);
+            canvas.fill(new Rectangle2D.Double(square.minX(), square.minY(), square.width(), square.height()));
+            canvas.setComposite(AlphaComposite.SrcOver);
+        } else {
+            return;
+        }
+        foldedCount++;
+        touch(area, action instanceof DrawAction);
+    }
+
+    private void paintDraw(DrawAction action) {
+        PointList points = action.getPoints();
+        Point start = points.getFirst();
+        Point end = points.getLast();
+        float width = (float) action.getStrokeWidth();
+
+        Graphics2D canvas = graphics();
+        canvas.setColor(parseColor(action.getColor()));
+        canvas.setStroke(new BasicStroke(width, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10f));
+
+        double x = Math.min(start.getX(), end.getX());
+        double y = Math.min(start.getY(), end.getY());
+        double w = Math.abs(start.getX() - end.getX());
+        double h = Math.abs(start.getY() - end.getY());
+
+        switch (action.getShapeType()) {
+            case FREEHAND -> {
+                if (points.size() < 2) {
+                    return;
+                }
+                Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, points.size());
+                path.moveTo(start.getX(), start.getY());
+                for (int i = 1; i < points.size(); i++) {
+                    path.lineTo(points.getX(i), points.getY(i));
+                }
+                canvas.draw(path);
+            }
+            case POINT -> canvas.fill(new Rectangle2D.Double(
+                    start.getX() - width / 2, start.getY() - width / 2, width, width));
+            case LINE -> canvas.draw(new Line2D.Double(start.getX(), start.getY(), end.getX(), end.getY()));
+            case RECTANGLE -> canvas.draw(new Rectangle2D.Double(x, y, w, h));
+            case OVAL -> canvas.draw(new Ellipse2D.Double(x, y, w, h));
+            case TRIANGLE -> {
+                Path2D.Double path = new Path2D.Double();
+                path.moveTo((start.getX() + end.getX()) / 2, start.getY());
+                path.lineTo(start.getX(), end.getY());
+                path.lineTo(end.getX(), end.getY());
+                path.closePath();
+                canvas.draw(path);
+            }
+            default -> {
+                // Not drawn by clients either
+            }
+        }
+    }
+
+    private void touch(Bounds area, boolean paints) {
+        int fromColumn = Math.max(0, (int) Math.floor(area.minX() / TILE_SIZE));
+        int toColumn = Math.min(TILE_COLUMNS - 1, (int) Math.floor(area.maxX() / TILE_SIZE));
+        int fromRow = Math.max(0, (int) Math.floor(area.minY() / TILE_SIZE));
+        int toRow = Math.min(TILE_ROWS - 1, (int) Math.floor(area.maxY() / TILE_SIZE));
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int index = row * TILE_COLUMNS + column;
+                if (paints || painted[index]) {
+                    painted[index] = true;
+                    tileVersions[index]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether anything may have been painted within the area.
+     */
+    public boolean isPainted(Bounds area) {
+        int fromColumn = Math.max(0, (int) Math.floor(area.minX() / TILE_SIZE));
+        int toColumn = Math.min(TILE_COLUMNS - 1, (int) Math.floor(area.maxX() / TILE_SIZE));
+        int fromRow = Math.max(0, (int) Math.floor(area.minY() / TILE_SIZE));
+        int toRow = Math.min(TILE_ROWS - 1, (int) Math.floor(area.maxY() / TILE_SIZE));
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                if (painted[row * TILE_COLUMNS + column]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of actions folded into the raster so far.
+     */
+    public long getFoldedCount() {
+        return foldedCount;
+    }
+
+    /**
+     * Capture the painted tiles. Tiles changed since they were last encoded are copied.
+     */
+    public List<Tile> snapshotTiles() {
+        List<Tile> tiles = new ArrayList<>();
+        for (int index = 0; index < painted.length; index++) {
+            if (!painted[index]) {
+                continue;
+            }
+            int x = (index % TILE_COLUMNS) * TILE_SIZE;
+            int y = (index / TILE_COLUMNS) * TILE_SIZE;
+            long version = tileVersions[index];
+
+            byte[] png;
+            synchronized (pngLock) {
+                png = pngVersions[index] == version ? pngs[index] : null;
+            }
+            BufferedImage pixels = null;
+            if (png == null) {
+                int w = Math.min(TILE_SIZE, WIDTH - x);
+                int h = Math.min(TILE_SIZE, HEIGHT - y);
+                pixels = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                pixels.setRGB(0, 0, w, h, image.getRGB(x, y, w, h, null, 0, w), 0, w);
+            }
+            tiles.add(new Tile(x, y, index, version, png, pixels));
+        }
+        return tiles;
+    }
+
+    /**
+     * The PNG of a captured tile, encoded now if needed and cached for later snapshots.
+     */
+    public byte[] png(Tile tile) throws IOException {
+        if (tile.png() != null) {
+            return tile.png();
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(tile.pixels(), "png", bos);
+        byte[] png = bos.toByteArray();
+        synchronized (pngLock) {
+            if (tile.version() > pngVersions[tile.index()]) {
+                pngs[tile.index()] = png;
+                pngVersions[tile.index()] = tile.version();
+            }
+        }
+        return png;
+    }
+
+    /**
+     * Parse a color as written by clients, "0xrrggbbaa", also accepting "#rrggbb[aa]".
+     * Unknown formats paint black.
+     */
+    static Color parseColor(String color) {
+        String hex;
+        if (color.startsWith("0x") || color.startsWith("0X")) {
+            hex = color.substring(2);
+        } else if (color.startsWith("#")) {
+            hex = color.substring(1);
+        } else {
+            return Color.BLACK;
+        }
+        try {
+            if (hex.length() == 6) {
+                return new Color(Integer.parseInt(hex, 16));
+            }
+            if (hex.length() == 8) {
+                int rgba = Integer.parseUnsignedInt(hex, 16);
+                return new Color(rgba >>> 24, (rgba >>> 16) & 0xFF, (rgba >>> 8) & 0xFF, rgba & 0xFF);
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        return Color.BLACK;
+    }
+}
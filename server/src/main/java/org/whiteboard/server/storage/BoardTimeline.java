@@ -0,0 +1,195 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.action.Action;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checkpoints of the board along one {@link ActionLog}, to look at the board as it was at
+ * any earlier sequence number or point in time.
+ * <p>
+ * A projection without raster follows the log and records its compacted board every
+ * {@code interval} actions. Seeking starts a fresh projection from the nearest checkpoint
+ * at or before the target and replays the actions from there. Checkpoints are taken when
+ * {@link #catchUp()} passes them, which callers can run in the background.
+ * <p>
+ * Every checkpoint holds a whole board, so keeping them all would cost memory quadratic in
+ * the history. They thin out as they age instead: the latest {@code density} checkpoints
+ * are {@code interval} actions apart, the {@code density} before them twice as far apart,
+ * and so on. A history of n actions keeps about {@code density / 2 * log2(n / interval)}
+ * boards, and seeking replays fewer than {@code interval} actions near the tip and a share
+ * of about {@code 2 / density} of its distance from the tip further back.
+ */
+public class BoardTimeline {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 4096;
+    public static final int DEFAULT_CHECKPOINT_DENSITY = 16;
+
+    /**
+     * @param size     number of log entries applied
+     * @param sequence sequence of the last of them, the log's base if none
+     * @param board    the compacted board at that point
+     */
+    private record Checkpoint(long size, long sequence, List<Action> board) {
+    }
+
+    private final ActionLog log;
+    private final int interval;
+    private final int density;
+
+    // By size, the first covers no entries and is always kept
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    // Follows the log, guarded by this
+    private final BoardProjection tip;
+    private long tipSize;
+
+    /**
+     * @param log      the history to follow
+     * @param interval number of actions between checkpoints
+     */
+    public BoardTimeline(ActionLog log, int interval) {
+        this(log, interval, DEFAULT_CHECKPOINT_DENSITY);
+    }
+
+    /**
+     * @param log      the history to follow
+     * @param interval number of actions between the latest checkpoints
+     * @param density  number of checkpoints kept at each spacing before it doubles
+     */
+    public BoardTimeline(ActionLog log, int interval, int density) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        if (density <= 0) {
+            throw new IllegalArgumentException("Checkpoint density must be positive: " + density);
+        }
+        this.log = log;
+        this.interval = interval;
+        this.density = density;
+        this.tip = new BoardProjection(log.getBaseSequence());
+        checkpoints.add(new Checkpoint(0, log.getBaseSequence(), List.of()));
+    }
+
+    public ActionLog getLog() {
+        return log;
+    }
+
+    /**
+     * Apply what was appended to the log since the last call, taking the checkpoints passed.
+     */
+    public synchronized void catchUp() {
+        long size = log.size();
+        while (tipSize < size) {
+            Action action = log.get(tipSize++);
+            tip.apply(action);
+            if (tipSize % interval == 0) {
+                checkpoints.add(new Checkpoint(tipSize, action.getSequence(), log.keep(tip.materialize().actions())));
+                thin(tipSize / interval);
+            }
+        }
+    }
+
+    /**
+     * Drop the checkpoints that aged out once checkpoint {@code latest} was taken.
+     * Checkpoint j is kept while it is one of the latest {@code density} multiples of the
+     * largest power of two dividing j; once dropped, it would never be kept again.
+     */
+    private void thin(long latest) {
+        checkpoints.removeIf(checkpoint -> {
+            long j = checkpoint.size() / interval;
+            return j != 0 && latest - j >= (long) density << Long.numberOfTrailingZeros(j);
+        });
+    }
+
+    /**
+     * The compacted board after everything appended to the log so far.
+     */
+    public synchronized BoardProjection.State current() {
+        catchUp();
+        return tip.materialize();
+    }
+
+    /**
+     * The board right after the action with the given sequence number.
+     *
+     * @param sequence target sequence, clamped to the history of the log
+     */
+    public synchronized BoardProjection.State seek(long sequence) {
+        catchUp();
+        return replayTo(countUpTo(sequence));
+    }
+
+    /**
+     * The board after the last action the server accepted at or before a point in time.
+     * <p>
+     * Searches the server's receive times, which never go back along the history, unlike
+     * the creation times taken by the clients. Actions accepted before servers stamped them
+     * count as accepted before any time.
+     *
+     * @param time target time
+     */
+    public synchronized BoardProjection.State seek(Instant time) {
+        catchUp();
+
+        // Number of leading entries accepted at or before the time
+        long millis = time.toEpochMilli();
+        long low = 0, high = tipSize;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (log.get(mid).getReceivedMillis() > millis) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return replayTo(low);
+    }
+
+    /**
+     * Number of leading log entries with a sequence up to the given one.
+     */
+    private long countUpTo(long sequence) {
+        long low = 0, high = tipSize;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (log.get(mid).getSequence() > sequence) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private BoardProjection.State replayTo(long count) {
+        // The last checkpoint at or before the target
+        int low = 0, high = checkpoints.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (checkpoints.get(mid).size() > count) {
+                high = mid - 1;
+            } else {
+                low = mid;
+            }
+        }
+        Checkpoint checkpoint = checkpoints.get(low);
+
+        // Seeding with a compacted board gives the same board, it has nothing left to fold away
+        BoardProjection board = new BoardProjection(checkpoint.sequence());
+        for (Action action : checkpoint.board()) {
+            board.apply(action);
+        }
+        long sequence = checkpoint.sequence();
+        for (long i = checkpoint.size(); i < count; i++) {
+            Action action = log.get(i);
+            board.apply(action);
+            sequence = action.getSequence();
+        }
+
+        BoardProjection.State state = board.materialize();
+        return new BoardProjection.State(List.of(), state.actions(), sequence, state.version());
+    }
+}
@@ -0,0 +1,266 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.codec.BinaryActionCodec;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link ActionLog} keeping its actions outside the heap, in {@link BinaryActionCodec} form.
+ * <p>
+ * Actions are encoded when appended and written to chunks, temporary files deleted as soon
+ * as they are open; the page cache holds them and the OS can write them out. The heap only
+ * keeps one long per action, its position. Reading an action reads and decodes a new copy
+ * of it each time, so a history can be larger than the heap, and full collections don't
+ * trace the actions, points and strings it holds. A decoded copy equals the appended
+ * action, coordinates included. Lists kept with {@link #keep(List)}, such as the timeline's
+ * checkpoints, go into the same chunks together with their positions, so a kept list
+ * costs the heap nothing but its handle.
+ * <p>
+ * Only the history leaves the heap, not the board: the timeline's tip projection and the
+ * board's projection still hold the actions that are on the board as objects, the latter
+ * up to its raster fold. Heap use stays flat while actions are erased, overdrawn, undone
+ * or cleared, and grows with a board whose actions all stay on it.
+ * <p>
+ * {@link #close()} closes the chunks when a clear or import replaced the log, which frees
+ * them right away; reading it afterwards throws {@link IllegalStateException}.
+ * <p>
+ * Off the heap is not off the RAM everywhere: the default directory, {@code java.io.tmpdir},
+ * is often a tmpfs, where the chunks stay in memory (or swap) like the heap would. Put the
+ * chunks on a disk with room for the history; once it is full, appending fails.
+ */
+public class OffHeapActionLog extends ActionLog {
+
+    public static final int DEFAULT_CHUNK_BYTES = 64 * 1024 * 1024;
+
+    private static final int SEGMENT_SHIFT = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final Path directory;
+    private final int chunkBytes;
+
+    // Grown by writers under this, read by readers once a slot is published. Reads and
+    // writes of a chunk are guarded by the chunk; unlike a FileChannel, a RandomAccessFile
+    // is not closed for everyone when a thread reading it is interrupted
+    private volatile RandomAccessFile[] chunks = new RandomAccessFile[0];
+    private volatile long[][] positions = new long[0][];
+
+    // Guarded by this
+    private int chunkPosition;
+    private final List<Path> undeleted = new ArrayList<>();
+
+    // Set under this
+    private volatile boolean closed;
+
+    /**
+     * @param baseSequence sequence number the log starts at
+     */
+    public OffHeapActionLog(long baseSequence) {
+        this(baseSequence, Path.of(System.getProperty("java.io.tmpdir")), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param baseSequence sequence number the log starts at
+     * @param directory    directory of the temporary chunk files
+     * @param chunkBytes   size of a chunk, larger actions get a chunk of their own
+     */
+    public OffHeapActionLog(long baseSequence, Path directory, int chunkBytes) {
+        super(baseSequence);
+        this.directory = directory;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Keep the actions off the heap as well, in the log's chunks, followed by a table of
+     * their positions, and read them back like the log's actions. They are released with
+     * the log.
+     */
+    @Override
+    public List<Action> keep(List<Action> actions) {
+        ByteBuffer table = ByteBuffer.allocate(Long.BYTES * actions.size());
+        for (Action action : actions) {
+            table.putLong(write(encode(action)));
+        }
+        long tablePosition = write(table.array());
+        int size = actions.size();
+        return new AbstractList<>() {
+            @Override
+            public Action get(int i) {
+                if (i < 0 || i >= size) {
+                    throw new IndexOutOfBoundsException(i);
+                }
+                byte[] position = new byte[Long.BYTES];
+                readAt(tablePosition, 4 + (long) Long.BYTES * i, position);
+                return read(ByteBuffer.wrap(position).getLong(), i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    protected void store(long index, Action action) {
+        byte[] encoded = encode(action);
+        synchronized (this) {
+            long position = write(encoded);
+            int segment = (int) (index >>> SEGMENT_SHIFT);
+            long[][] table = positions;
+            if (segment >= table.length) {
+                table = Arrays.copyOf(table, Math.max(segment + 1, table.length * 2));
+            }
+            if (table[segment] == null) {
+                table[segment] = new long[SEGMENT_SIZE];
+            }
+            table[segment][(int) (index & SEGMENT_MASK)] = position;
+            positions = table;
+        }
+    }
+
+    @Override
+    protected Action load(long index) {
+        return read(positions[(int) (index >>> SEGMENT_SHIFT)][(int) (index & SEGMENT_MASK)], index);
+    }
+
+    /**
+     * Close and free the chunks. Reads still copying from them and later reads throw.
+     */
+    @Override
+    public void close() {
+        RandomAccessFile[] open;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            open = chunks;
+            chunks = new RandomAccessFile[0];
+        }
+        for (RandomAccessFile chunk : open) {
+            try {
+                chunk.close();
+            } catch (IOException e) {
+                System.err.println("Error: Fail to close a history chunk: " + e.getMessage());
+            }
+        }
+        for (Path file : undeleted) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("Error: Fail to delete history chunk " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static byte[] encode(Action action) {
+        try {
+            return BinaryActionCodec.encode(action);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Fail to encode action " + action, e);
+        }
+    }
+
+    /**
+     * Append a length prefixed record to the chunks.
+     *
+     * @return its position, chunk index in the high 32 bits and offset in the low
+     */
+    private synchronized long write(byte[] record) {
+        if (closed) {
+            throw new IllegalStateException("History was replaced");
+        }
+        int length = 4 + record.length;
+        RandomAccessFile[] current = chunks;
+        if (current.length == 0 || chunkPosition > 0 && chunkPosition + length > chunkBytes) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = openChunk();
+            chunks = current;
+            chunkPosition = 0;
+        }
+        RandomAccessFile chunk = current[current.length - 1];
+        ByteBuffer buffer = ByteBuffer.allocate(length).putInt(record.length).put(record);
+        synchronized (chunk) {
+            try {
+                chunk.seek(chunkPosition);
+                chunk.write(buffer.array());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Fail to write a history chunk in " + directory, e);
+            }
+        }
+
+        long position = (long) (current.length - 1) << 32 | chunkPosition;
+        chunkPosition += length;
+        return position;
+    }
+
+    private Action read(long position, long index) {
+        byte[] length = new byte[4];
+        readAt(position, 0, length);
+        byte[] encoded = new byte[ByteBuffer.wrap(length).getInt()];
+        readAt(position, 4, encoded);
+
+        try {
+            List<Action> decoded = BinaryActionCodec.decode(encoded);
+            return decoded.get(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Fail to decode action " + index, e);
+        }
+    }
+
+    /**
+     * Read bytes of a record.
+     *
+     * @param position position of the record
+     * @param offset   offset of the bytes from the position
+     * @param bytes    filled with the bytes
+     */
+    private void readAt(long position, long offset, byte[] bytes) {
+        RandomAccessFile[] current = chunks;
+        int chunkIndex = (int) (position >>> 32);
+        if (chunkIndex >= current.length) {
+            throw new IllegalStateException("History was replaced");
+        }
+        RandomAccessFile chunk = current[chunkIndex];
+        synchronized (chunk) {
+            try {
+                chunk.seek((position & 0xFFFFFFFFL) + offset);
+                chunk.readFully(bytes);
+            } catch (IOException e) {
+                if (closed) {
+                    throw new IllegalStateException("History was replaced", e);
+                }
+                throw new UncheckedIOException("Fail to read a history chunk in " + directory, e);
+            }
+        }
+    }
+
+    private RandomAccessFile openChunk() {
+        try {
+            Files.createDirectories(directory);
+            Path file = Files.createTempFile(directory, "whiteboard-history-", ".chunk");
+            RandomAccessFile chunk = new RandomAccessFile(file.toFile(), "rw");
+            try {
+                // Stays readable while open, and freed once closed
+                Files.delete(file);
+            } catch (IOException e) {
+                // Not on every platform while the file is open, delete it on close
+                undeleted.add(file);
+            }
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Fail to create a history chunk in " + directory, e);
+        }
+    }
+}
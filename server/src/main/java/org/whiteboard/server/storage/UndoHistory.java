@@ -0,0 +1,212 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.action.TextAction;
+import org.whiteboard.common.action.UndoAction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Per-user undo and redo stacks of gestures, fed with the actions in sequence order.
+ * <p>
+ * A gesture is a shape, a point, a text, or a freehand stroke: the run of FREEHAND segments
+ * of one user that continue each other with nothing else from that user in between. Erasing
+ * is not undoable, the projection and the raster drop erased ink for good. Each user keeps
+ * up to {@code depth} gestures to undo; a new action of the user discards what could be
+ * redone. Everything is found through the user's stacks, so nothing here depends on the size
+ * of the board or the history. Owners that see the same actions in the same order, like the
+ * sequencer and the projections, agree on every stack. Not thread safe.
+ *
+ * @param <T> what the owner keeps with a hidden gesture
+ */
+public class UndoHistory<T> {
+
+    public static final int DEFAULT_DEPTH = 32;
+
+    /**
+     * One gesture of a user.
+     */
+    public static final class Gesture<T> {
+        private final List<Action> actions = new ArrayList<>();
+        private T stash;
+
+        private Gesture(Action first) {
+            actions.add(first);
+        }
+
+        /**
+         * The actions of the gesture in history order.
+         */
+        public List<Action> getActions() {
+            return actions;
+        }
+
+        public long getFromSequence() {
+            return actions.getFirst().getSequence();
+        }
+
+        public long getToSequence() {
+            return actions.getLast().getSequence();
+        }
+
+        /**
+         * What the owner kept when the gesture was hidden, null while it is shown.
+         */
+        public T getStash() {
+            return stash;
+        }
+
+        public void setStash(T stash) {
+            this.stash = stash;
+        }
+
+        /**
+         * A tombstone undoing or redoing this gesture.
+         */
+        public UndoAction toUndoAction(String username, boolean redo) {
+            return new UndoAction(
+                    username,
+                    redo,
+                    getFromSequence(),
+                    getToSequence(),
+                    actions.getFirst().getActionId(),
+                    actions.getLast().getActionId(),
+                    redo ? actions : List.of()
+            );
+        }
+    }
+
+    private static final class UserStacks<T> {
+        private final Deque<Gesture<T>> undo = new ArrayDeque<>();
+        private final Deque<Gesture<T>> redo = new ArrayDeque<>();
+
+        // Whether the user's last action was the last segment of the top gesture
+        private boolean strokeOpen;
+    }
+
+    private final int depth;
+    private final Map<String, UserStacks<T>> users = new HashMap<>();
+
+    /**
+     * @param depth number of gestures each user can undo
+     */
+    public UndoHistory(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Undo depth must be positive: " + depth);
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * Record the next action in sequence order.
+     *
+     * @param action    the action, an {@link UndoAction} moves its gesture between the stacks
+     * @param discarded receives the hidden gestures a new action drops from the redo stack
+     * @return for an undo or redo, the gesture it moved; null otherwise or if it matched none
+     */
+    public Gesture<T> record(Action action, Consumer<Gesture<T>> discarded) {
+        UserStacks<T> stacks = users.computeIfAbsent(action.getUsername(), k -> new UserStacks<>());
+
+        if (action instanceof UndoAction undo) {
+            stacks.strokeOpen = false;
+            Deque<Gesture<T>> from = undo.isRedo() ? stacks.redo : stacks.undo;
+            Deque<Gesture<T>> to = undo.isRedo() ? stacks.undo : stacks.redo;
+            Gesture<T> gesture = from.peekFirst();
+            if (gesture == null || gesture.getFromSequence() != undo.getFromSequence()) {
+                return null;
+            }
+            from.removeFirst();
+            to.addFirst(gesture);
+            return gesture;
+        }
+
+        for (Gesture<T> gesture : stacks.redo) {
+            discarded.accept(gesture);
+        }
+        stacks.redo.clear();
+
+        if (action instanceof DrawAction draw && !draw.getPoints().isEmpty()) {
+            Gesture<T> top = stacks.undo.peekFirst();
+            if (stacks.strokeOpen && top != null && continues((DrawAction) top.actions.getLast(), draw)) {
+                top.actions.add(draw);
+                return null;
+            }
+            stacks.undo.addFirst(new Gesture<>(draw));
+            stacks.strokeOpen = draw.getShapeType() == DrawAction.ShapeType.FREEHAND;
+        } else if (action instanceof TextAction text && text.getTextType() == TextAction.TextType.ADD) {
+            stacks.undo.addFirst(new Gesture<>(text));
+            stacks.strokeOpen = false;
+        } else {
+            stacks.strokeOpen = false;
+            return null;
+        }
+        if (stacks.undo.size() > depth) {
+            stacks.undo.removeLast();
+        }
+        return null;
+    }
+
+    /**
+     * Record the next action in sequence order, for owners that keep nothing with hidden gestures.
+     */
+    public Gesture<T> record(Action action) {
+        return record(action, gesture -> {
+        });
+    }
+
+    /**
+     * Whether a FREEHAND segment continues the previous one of the same stroke.
+     */
+    private static boolean continues(DrawAction previous, DrawAction segment) {
+        if (segment.getShapeType() != DrawAction.ShapeType.FREEHAND) {
+            return false;
+        }
+        Point end = previous.getPoints().getLast();
+        return previous.getColor().equals(segment.getColor())
+                && previous.getStrokeWidth() == segment.getStrokeWidth()
+                && end.equals(segment.getPoints().getFirst());
+    }
+
+    /**
+     * The gesture the user would undo next, null if none.
+     */
+    public Gesture<T> peekUndo(String username) {
+        UserStacks<T> stacks = users.get(username);
+        return stacks == null ? null : stacks.undo.peekFirst();
+    }
+
+    /**
+     * The gesture the user would redo next, null if none.
+     */
+    public Gesture<T> peekRedo(String username) {
+        UserStacks<T> stacks = users.get(username);
+        return stacks == null ? null : stacks.redo.peekFirst();
+    }
+
+    /**
+     * Sequence of the first action of the oldest gesture the user can still undo,
+     * {@link Long#MAX_VALUE} if none. Objects of the user from there on may still be hidden.
+     */
+    public long undoFloor(String username) {
+        UserStacks<T> stacks = users.get(username);
+        if (stacks == null || stacks.undo.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        return stacks.undo.peekLast().getFromSequence();
+    }
+
+    /**
+     * Forget every gesture, e.g. when the history is replaced.
+     */
+    public void clear() {
+        users.clear();
+    }
+}
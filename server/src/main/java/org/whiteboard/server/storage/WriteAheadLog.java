@@ -0,0 +1,463 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.codec.BinaryActionCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, durable log of the board history in numbered segment files of a directory.
+ * <p>
+ * A record is its length, a CRC32 and a kind byte followed by either one action in
+ * {@link BinaryActionCodec} form, written as a stream of its own so any record can be read
+ * alone, or the base sequence of a history that starts over, on clear or import.
+ * <p>
+ * Appending only queues the record. A single flusher thread writes everything queued since
+ * its last round and forces it to disk with one fsync, so concurrent writers share fsyncs:
+ * the more writers wait, the larger each commit. Writers wait with {@link #awaitDurable(long)}
+ * for the ticket {@link #append(Action)} returned. A record torn by a crash fails its CRC
+ * and ends the recovered history.
+ * <p>
+ * Once a commit fails the log stays failed: nothing more is queued, and every wait
+ * throws. Callers check {@link #ensureWritable()} before they act on a record, so they
+ * stop taking changes the log can no longer make durable.
+ * <p>
+ * Once a checkpoint holds the board up to a ticket, {@link #truncate(long)} deletes the
+ * segments holding nothing after it, so the log only grows between checkpoints.
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final byte KIND_ACTION = 1;
+    private static final byte KIND_RESET = 2;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // Length, CRC and kind
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + 1;
+
+    /**
+     * A queued record: an action, or a reset to a base sequence if the action is null.
+     */
+    private record Entry(Action action, long baseSequence) {
+    }
+
+    /**
+     * The history found in a log directory.
+     *
+     * @param baseSequence sequence number the history starts at
+     * @param actions      the actions after the last reset, in log order
+     * @param segments     number of segment files read
+     */
+    public record Recovery(long baseSequence, List<Action> actions, int segments) {
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+
+    // Guards the fields below, the flusher waits on it for records and writers for commits
+    private final Object lock = new Object();
+    private List<Entry> pending = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+    private boolean stopped;
+
+    // Full segments by index, with the ticket of their last record
+    private final TreeMap<Long, Long> closedSegments = new TreeMap<>();
+
+    // Flusher thread only
+    private FileChannel segment;
+    private long segmentIndex;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream(64 * 1024);
+
+    private final Thread flusher;
+
+    /**
+     * Open a log for appending. New records go to a new segment after the existing ones,
+     * which should have been recovered first.
+     *
+     * @param directory    directory of the segment files, created if missing
+     * @param segmentBytes size after which the next segment is started
+     * @throws IOException if the directory or the segment cannot be created
+     */
+    public WriteAheadLog(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> segments = listSegments(directory);
+        this.segmentIndex = segments.isEmpty() ? 0 : segments.lastKey();
+        // Recovered before the first ticket, so the first checkpoint covers them
+        for (long index : segments.keySet()) {
+            closedSegments.put(index, 0L);
+        }
+        openNextSegment();
+
+        this.flusher = new Thread(this::flushLoop, "WriteAheadLog-Flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queue an action.
+     *
+     * @return ticket to wait for with {@link #awaitDurable(long)}
+     */
+    public long append(Action action) {
+        return enqueue(new Entry(action, 0));
+    }
+
+    /**
+     * Queue the start of a new history, e.g. before the actions of an import.
+     *
+     * @param baseSequence sequence number the new history starts at
+     * @return ticket to wait for with {@link #awaitDurable(long)}
+     */
+    public long reset(long baseSequence) {
+        return enqueue(new Entry(null, baseSequence));
+    }
+
+    private long enqueue(Entry entry) {
+        synchronized (lock) {
+            if (failure != null || closed) {
+                // Past every ticket that can still be committed, waiting for it throws
+                return appended + 1;
+            }
+            pending.add(entry);
+            if (pending.size() == 1) {
+                lock.notifyAll();
+            }
+            return ++appended;
+        }
+    }
+
+    /**
+     * Check that records can still be made durable.
+     *
+     * @throws IOException if the log failed or was closed
+     */
+    public void ensureWritable() throws IOException {
+        synchronized (lock) {
+            if (failure != null) {
+                throw new IOException("Write-ahead log failed", failure);
+            }
+            if (closed) {
+                throw new IOException("Write-ahead log is closed");
+            }
+        }
+    }
+
+    /**
+     * Wait until a record and everything before it is on disk.
+     *
+     * @param ticket ticket of the record
+     * @throws IOException if the log failed or was closed before the record was written
+     */
+    public void awaitDurable(long ticket) throws IOException {
+        synchronized (lock) {
+            while (durable < ticket) {
+                if (failure != null) {
+                    throw new IOException("Write-ahead log failed", failure);
+                }
+                if (stopped) {
+                    throw new IOException("Write-ahead log is closed");
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the write-ahead log", e);
+                }
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<Entry> entries;
+            long upTo;
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    stopped = true;
+                    lock.notifyAll();
+                    return;
+                }
+                entries = pending;
+                pending = new ArrayList<>(entries.size());
+                upTo = appended;
+            }
+
+            try {
+                commit(entries, upTo);
+                synchronized (lock) {
+                    durable = upTo;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                System.err.println("Error: Write-ahead log failed: " + e.getMessage());
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void commit(List<Entry> entries, long lastTicket) throws IOException {
+        batch.reset();
+        DataOutputStream out = new DataOutputStream(batch);
+        CRC32 crc = new CRC32();
+        for (Entry entry : entries) {
+            record.reset();
+            if (entry.action() != null) {
+                record.write(KIND_ACTION);
+                BinaryActionCodec.Writer writer = new BinaryActionCodec.Writer(record);
+                writer.write(entry.action());
+            } else {
+                record.write(KIND_RESET);
+                new DataOutputStream(record).writeLong(entry.baseSequence());
+            }
+            crc.reset();
+            crc.update(record.toByteArray());
+            out.writeInt(record.size() - 1);
+            out.writeInt((int) crc.getValue());
+            record.writeTo(out);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segment.force(false);
+        if (segment.position() >= segmentBytes) {
+            segment.close();
+            synchronized (lock) {
+                closedSegments.put(segmentIndex, lastTicket);
+            }
+            openNextSegment();
+        }
+    }
+
+    /**
+     * Delete the full segments whose records all have tickets up to the given one, once a
+     * checkpoint holds everything they hold. The segment being written is kept.
+     *
+     * @param ticket ticket of the last record the checkpoint covers
+     * @return number of segments deleted
+     */
+    public int truncate(long ticket) {
+        List<Long> covered = new ArrayList<>();
+        synchronized (lock) {
+            for (Map.Entry<Long, Long> closedSegment : closedSegments.entrySet()) {
+                if (closedSegment.getValue() <= ticket) {
+                    covered.add(closedSegment.getKey());
+                }
+            }
+        }
+        int deleted = 0;
+        for (long index : covered) {
+            try {
+                Files.deleteIfExists(segmentPath(directory, index));
+                synchronized (lock) {
+                    closedSegments.remove(index);
+                }
+                deleted++;
+            } catch (IOException e) {
+                System.err.println("Error: Fail to delete write-ahead log segment " + index + ": " + e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentIndex++;
+        segment = FileChannel.open(
+                segmentPath(directory, segmentIndex),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE
+        );
+        // Records forced into the segment are lost with it if its directory entry is
+        forceDirectory(directory);
+    }
+
+    // Make created and renamed entries durable, not supported on every platform
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The entries are still there, they may only be lost on power loss
+        }
+    }
+
+    /**
+     * Write what is queued and close the log. Writers still waiting fail.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+            segment.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error: Fail to close write-ahead log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the history from the segments of a log directory, in order. A record that is
+     * cut short or fails its CRC ends the history: its segment is truncated before it, and
+     * any later segment is renamed aside so it is never replayed after new records.
+     *
+     * @param directory directory of the segment files, may not exist
+     * @return the recovered history, empty if there is no log
+     * @throws IOException if a segment cannot be read
+     */
+    public static Recovery recover(Path directory) throws IOException {
+        return recover(directory, 0, List.of());
+    }
+
+    /**
+     * Read the history on top of a checkpoint. Records the checkpoint already holds are
+     * skipped: actions sequenced up to its head and resets to an earlier base.
+     *
+     * @param directory    directory of the segment files, may not exist
+     * @param headSequence sequence number the checkpoint is consistent with
+     * @param board        the actions of the checkpoint
+     * @return the recovered history
+     * @throws IOException if a segment cannot be read
+     */
+    public static Recovery recover(Path directory, long headSequence, List<Action> board) throws IOException {
+        long baseSequence = headSequence;
+        List<Action> actions = new ArrayList<>(board);
+        if (!Files.isDirectory(directory)) {
+            return new Recovery(baseSequence, actions, 0);
+        }
+
+        TreeMap<Long, Path> segments = listSegments(directory);
+        int read = 0;
+        boolean torn = false;
+        boolean movedAside = false;
+        for (Path path : segments.values()) {
+            if (torn) {
+                Path aside = path.resolveSibling(path.getFileName() + ".corrupt");
+                Files.move(path, aside, StandardCopyOption.REPLACE_EXISTING);
+                System.err.println("Warning: Write-ahead log segment after a torn record moved to " + aside);
+                movedAside = true;
+                continue;
+            }
+            read++;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+                while (data.hasRemaining() && channel.read(data) >= 0) {
+                    // Read the whole segment
+                }
+                data.flip();
+
+                CRC32 crc = new CRC32();
+                while (data.hasRemaining()) {
+                    int start = data.position();
+                    if (data.remaining() < RECORD_HEADER_BYTES) {
+                        torn = true;
+                    } else {
+                        int length = data.getInt();
+                        int checksum = data.getInt();
+                        if (length < 0 || length + 1 > data.remaining()) {
+                            torn = true;
+                        } else {
+                            ByteBuffer body = data.slice(data.position(), length + 1);
+                            crc.reset();
+                            crc.update(body.duplicate());
+                            torn = (int) crc.getValue() != checksum;
+                            if (!torn) {
+                                data.position(data.position() + length + 1);
+                                byte kind = body.get();
+                                if (kind == KIND_RESET) {
+                                    long base = body.getLong();
+                                    if (base >= headSequence) {
+                                        baseSequence = base;
+                                        actions.clear();
+                                    }
+                                } else if (kind == KIND_ACTION) {
+                                    byte[] encoded = new byte[length];
+                                    body.get(encoded);
+                                    for (Action action : BinaryActionCodec.decode(encoded)) {
+                                        if (action.getSequence() > headSequence) {
+                                            actions.add(action);
+                                        }
+                                    }
+                                } else {
+                                    throw new IOException("Unknown record kind " + kind + " in " + path);
+                                }
+                            }
+                        }
+                    }
+                    if (torn) {
+                        System.err.println("Warning: Write-ahead log " + path + " is torn at byte "
+                                + start + ", truncating it there");
+                        channel.truncate(start);
+                        channel.force(true);
+                        break;
+                    }
+                }
+            }
+        }
+        if (movedAside) {
+            // Otherwise a crash could bring the segments back behind the new records
+            forceDirectory(directory);
+        }
+        return new Recovery(baseSequence, actions, read);
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String index = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    segments.put(Long.parseLong(index), file);
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static Path segmentPath(Path directory, long index) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+}
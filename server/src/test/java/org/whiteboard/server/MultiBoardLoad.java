@@ -0,0 +1,215 @@
+package org.whiteboard.server;
+
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.rmi.IBoardDirectory;
+import org.whiteboard.common.rmi.IClientCallback;
+import org.whiteboard.common.rmi.IWhiteboardServer;
+import org.whiteboard.server.replication.ReplicationLog;
+import org.whiteboard.server.service.ActionIngest;
+import org.whiteboard.server.service.DirectActionIngest;
+import org.whiteboard.server.service.FileService;
+import org.whiteboard.server.service.WhiteboardService;
+import org.whiteboard.server.storage.ActionLog;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+
+/**
+ * Many boards in one server, created the way {@link Main} creates them: threads and heap
+ * per open board, then a load of 32 senders on the boards while a probe times actions
+ * sent to the other boards. Most threads per board are RMI's, for the users' callbacks;
+ * the dispatch lanes are counted apart. Run it alone, e.g. with a given number of cores:
+ * <pre>
+ * mvn -P bench test-compile exec:exec -Dbench.main=org.whiteboard.server.MultiBoardLoad \
+ *     -Dbench.jvm="-XX:ActiveProcessorCount=4 -Dwhiteboard.dispatch.lanes=1" -Dbench.args="200 spread 8"
+ * </pre>
+ * Arguments: the number of boards, {@code spread} to send to every board or
+ * {@code single} to send to the first only, and the number of users drawing on a board.
+ */
+public class MultiBoardLoad {
+
+    private static final int PORT = 3099;
+    private static final int SENDERS = 32;
+    private static final long LOAD_MILLIS = 10_000;
+
+    // Exported callbacks must stay reachable
+    private static final List<Object> callbacks = new ArrayList<>();
+
+    // All callbacks share one listener here, unlike clients of their own; the default
+    // backlog of 50 resets connections once hundreds of queues connect to it at once
+    private static final RMIServerSocketFactory CALLBACK_SOCKETS = new CallbackSockets();
+
+    private record CallbackSockets() implements RMIServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return new ServerSocket(port, 4096);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int boardCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String mode = args.length > 1 ? args[1] : "spread";
+        int users = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        System.setProperty("java.awt.headless", "true");
+
+        Method createBoard = Main.class.getDeclaredMethod(
+                "createBoard", String.class, Path.class, LongFunction.class, BiFunction.class, ReplicationLog.Feed.class
+        );
+        createBoard.setAccessible(true);
+        LongFunction<ActionLog> history = ActionLog::new;
+        BiFunction<FileService, WhiteboardService, ActionIngest> ingest = DirectActionIngest::new;
+        // Boards without a log are never unloaded, make room for all of them
+        BoardDirectory.CreateDirectory(PORT, id -> {
+            try {
+                return (Board) createBoard.invoke(null, id, null, history, ingest, null);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }, boardCount + 1, BoardDirectory.DEFAULT_IDLE_MILLIS);
+        int threadsBefore = Thread.getAllStackTraces().size();
+        long heapBefore = usedHeap();
+
+        IBoardDirectory directory = (IBoardDirectory) LocateRegistry.getRegistry("127.0.0.1", PORT)
+                .lookup(IBoardDirectory.SERVICE_NAME);
+        IWhiteboardServer[] boards = new IWhiteboardServer[boardCount];
+        long start = System.nanoTime();
+        for (int i = 0; i < boardCount; i++) {
+            boards[i] = directory.openBoard("b" + i);
+            boards[i].registerClient(true, user(0), callback());
+            for (int u = 1; u < users; u++) {
+                boards[i].registerClient(false, user(u), callback());
+                boards[i].acceptUserJoin(user(u));
+            }
+            // Starts the board's lanes and broadcaster
+            boards[i].broadcastAction(user(0), stroke(user(0), new Random(i)));
+        }
+        long openMillis = (System.nanoTime() - start) / 1_000_000;
+        Thread.sleep(1000);
+        int threadsAfter = Thread.getAllStackTraces().size();
+        long heapAfter = usedHeap();
+        System.out.printf(
+                "%d boards on %d cores opened in %d ms; threads %d -> %d (%.1f per board); heap %.0f KB per board%n",
+                boardCount,
+                Runtime.getRuntime().availableProcessors(),
+                openMillis,
+                threadsBefore,
+                threadsAfter,
+                (threadsAfter - threadsBefore) / (double) boardCount,
+                (heapAfter - heapBefore) / 1024.0 / boardCount
+        );
+
+        ExecutorService pool = Executors.newFixedThreadPool(SENDERS + 1);
+        AtomicLong sent = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Future<?>> running = new ArrayList<>();
+        for (int s = 0; s < SENDERS; s++) {
+            int sender = s;
+            running.add(pool.submit(() -> {
+                Random random = new Random(sender);
+                for (int i = 0; !stop.get(); i++) {
+                    String user = user((sender + i) % users);
+                    int board = mode.equals("single") ? 0 : (sender + SENDERS * i) % boardCount;
+                    boards[board].broadcastAction(user, stroke(user, random));
+                    sent.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        // Latency of a lightly used board while the others are loaded
+        long[] latencies = new long[100_000];
+        AtomicInteger probes = new AtomicInteger();
+        running.add(pool.submit(() -> {
+            Random random = new Random(-1);
+            for (int i = 0; !stop.get() && probes.get() < latencies.length; i++) {
+                int board = 1 + i % (boardCount - 1);
+                long sentAt = System.nanoTime();
+                boards[board].broadcastAction(user(0), stroke(user(0), random));
+                latencies[probes.getAndIncrement()] = System.nanoTime() - sentAt;
+                Thread.sleep(2);
+            }
+            return null;
+        }));
+        Thread.sleep(LOAD_MILLIS);
+        stop.set(true);
+        for (Future<?> future : running) {
+            future.get();
+        }
+
+        // Lanes start their thread on first use, so count them once every sender was seen
+        int threadsLoaded = Thread.getAllStackTraces().size() - SENDERS - 1;
+        long lanes = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("EventBus-Lane-"))
+                .count();
+        long[] probed = Arrays.copyOf(latencies, probes.get());
+        Arrays.sort(probed);
+        System.out.printf(
+                "%s: %d actions/s from %d senders; %.1f threads per board, %.1f of them lanes; probe p50 %d us, p99 %d us, max %d us%n",
+                mode,
+                sent.get() * 1000 / LOAD_MILLIS,
+                SENDERS,
+                (threadsLoaded - threadsBefore) / (double) boardCount,
+                lanes / (double) boardCount,
+                probed[probed.length / 2] / 1000,
+                probed[probed.length * 99 / 100] / 1000,
+                probed[probed.length - 1] / 1000
+        );
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static String user(int index) {
+        return index == 0 ? "admin" : "user" + index;
+    }
+
+    private static IClientCallback callback() throws Exception {
+        IClientCallback callback = (IClientCallback) Proxy.newProxyInstance(
+                MultiBoardLoad.class.getClassLoader(),
+                new Class<?>[]{IClientCallback.class},
+                (proxy, method, arguments) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == arguments[0];
+                    default -> null;
+                }
+        );
+        callbacks.add(callback);
+        return (IClientCallback) UnicastRemoteObject.exportObject(callback, 0, null, CALLBACK_SOCKETS);
+    }
+
+    private static DrawAction stroke(String user, Random random) {
+        List<Point> path = new ArrayList<>();
+        double x = random.nextDouble() * 1100, y = random.nextDouble() * 700;
+        for (int k = 0; k < 8; k++) {
+            path.add(new Point(x += random.nextGaussian(), y += random.nextGaussian()));
+        }
+        return new DrawAction(user, DrawAction.ShapeType.FREEHAND, path, "0x000000ff", 3);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
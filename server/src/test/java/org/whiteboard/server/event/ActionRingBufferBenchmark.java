@@ -0,0 +1,93 @@
+package org.whiteboard.server.event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of handing actions to another thread: the {@link ActionRingBuffer} against the
+ * {@link EventBus}, with a consumer that does nothing. Run with {@code -prof gc} to see the
+ * bytes allocated per action by the hand-over itself.
+ * <p>
+ * Each invocation publishes a burst of actions and waits until the consumer has handled
+ * them, so neither queue grows without bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActionRingBufferBenchmark {
+
+    private static final int BURST = 1000;
+
+    private final Action[] actions = new Action[BURST];
+    private final AtomicLong handled = new AtomicLong();
+    private long published;
+
+    private ActionRingBuffer ringBuffer;
+    private EventBus<Action> eventBus;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < BURST; i++) {
+            actions[i] = new DrawAction(
+                    "user" + (i % 8),
+                    DrawAction.ShapeType.FREEHAND,
+                    List.of(new Point(i, 10), new Point(i + 2, 12)),
+                    "0x000000ff",
+                    2.0
+            );
+        }
+        ringBuffer = new ActionRingBuffer(8192);
+        ringBuffer.addConsumer("Bench-Consumer", (action, endOfBatch) -> handled.lazySet(handled.get() + 1));
+        eventBus = new EventBus<>(new ConcurrentHashMap<>(), 1, Action::getUsername);
+        eventBus.register((action, clients) -> handled.lazySet(handled.get() + 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ringBuffer.shutdown();
+        eventBus.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void ringBuffer() {
+        for (Action action : actions) {
+            ringBuffer.publish(action);
+        }
+        ringBuffer.drain();
+        published += BURST;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void eventBus() {
+        for (Action action : actions) {
+            eventBus.publish(action);
+        }
+        published += BURST;
+        while (handled.get() < published) {
+            Thread.onSpinWait();
+        }
+    }
+}
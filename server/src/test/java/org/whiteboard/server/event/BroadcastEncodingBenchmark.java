@@ -0,0 +1,85 @@
+package org.whiteboard.server.event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU per broadcast against the number of recipients: marshalling the action for every
+ * recipient, as RMI did when callbacks took the action objects, against encoding it once
+ * with {@link EncodedAction} and marshalling only the shared bytes per recipient.
+ * <p>
+ * Each recipient gets a stream of its own, as every RMI call does. The network is left out.
+ * <p>
+ * Encoding is the only part of a broadcast that several dispatch lanes run in parallel;
+ * enqueueing the encoded action for every recipient is serialized across lanes by the
+ * broadcaster's fan-out lock, to keep the publish order, and is not measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastEncodingBenchmark {
+
+    @Param({"1", "10", "50", "200"})
+    public int clients;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+    private Action action;
+
+    @Setup
+    public void setUp() {
+        // A short freehand segment, the most common action on a busy board
+        action = new DrawAction(
+                "alice",
+                DrawAction.ShapeType.FREEHAND,
+                List.of(new Point(120.5, 340.25), new Point(123.75, 338.5)),
+                "0x1e90ffff",
+                2.0
+        );
+        action.assignSequence(1000, 990);
+    }
+
+    @Benchmark
+    public void serializePerRecipient(Blackhole blackhole) throws IOException {
+        for (int i = 0; i < clients; i++) {
+            blackhole.consume(marshal(List.of(action)));
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce(Blackhole blackhole) throws IOException {
+        EncodedAction encoded = EncodedAction.of(action);
+        for (int i = 0; i < clients; i++) {
+            blackhole.consume(marshal(List.of(encoded.payload())));
+        }
+    }
+
+    private int marshal(Object arguments) throws IOException {
+        buffer.reset();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(arguments);
+        }
+        return buffer.size();
+    }
+}
@@ -0,0 +1,80 @@
+package org.whiteboard.server.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append throughput of the {@link ActionLog} against the synchronized list it replaced,
+ * with 1 to 32 writers appending at once. The main method runs every writer count; a single
+ * count can also be run through JMH with {@code -t}.
+ * <p>
+ * Both logs start empty every iteration, so short iterations keep the heap they fill small.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ActionLogBenchmark {
+
+    private static final int[] WRITERS = {1, 2, 4, 8, 16, 32};
+
+    private final Action action = new DrawAction(
+            "alice",
+            DrawAction.ShapeType.FREEHAND,
+            List.of(new Point(1, 2), new Point(3, 4)),
+            "0x000000ff",
+            2.0
+    );
+
+    private ActionLog actionLog;
+    private List<Action> synchronizedList;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        actionLog = new ActionLog(0);
+        synchronizedList = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @Benchmark
+    public long actionLog() {
+        return actionLog.append(action);
+    }
+
+    @Benchmark
+    public boolean synchronizedList() {
+        return synchronizedList.add(action);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int writers : WRITERS) {
+            Options options = new OptionsBuilder()
+                    .include(ActionLogBenchmark.class.getSimpleName())
+                    .threads(writers)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
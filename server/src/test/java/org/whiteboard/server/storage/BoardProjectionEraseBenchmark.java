@@ -0,0 +1,84 @@
+package org.whiteboard.server.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.common.action.EraseAction;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying a 20 px erase to a {@link BoardProjection} of 10k, 100k and 1M short lines, which
+ * only visits the objects its index finds near the erased square.
+ * <p>
+ * Each erase removes ink, so the board is rebuilt before every iteration and an iteration
+ * applies a fixed number of erases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class BoardProjectionEraseBenchmark {
+
+    private static final int ERASES = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int objects;
+
+    private BoardProjection projection;
+    private EraseAction[] erases;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Random random = new Random(objects);
+        projection = new BoardProjection(0);
+        long sequence = 0;
+        for (int i = 0; i < objects; i++) {
+            double x = random.nextDouble() * 1190;
+            double y = random.nextDouble() * 790;
+            DrawAction line = new DrawAction(
+                    "alice",
+                    DrawAction.ShapeType.LINE,
+                    List.of(new Point(x, y), new Point(x + random.nextDouble() * 10, y + random.nextDouble() * 10)),
+                    "0x000000ff",
+                    2.0
+            );
+            line.assignSequence(++sequence, 0);
+            projection.apply(line);
+        }
+        erases = new EraseAction[ERASES];
+        for (int i = 0; i < ERASES; i++) {
+            erases[i] = new EraseAction(
+                    "bob",
+                    List.of(new Point(random.nextDouble() * 1200, random.nextDouble() * 800)),
+                    20
+            );
+            erases[i].assignSequence(++sequence, 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ERASES)
+    public int erase() {
+        for (EraseAction erase : erases) {
+            projection.apply(erase);
+        }
+        return projection.size();
+    }
+}
@@ -0,0 +1,112 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.DrawAction;
+import org.whiteboard.server.service.FileService;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongFunction;
+
+/**
+ * Heap retained by a board's history and the full collection pause it causes, kept on the
+ * heap against off it in {@link OffHeapActionLog}, then the history chunks still open
+ * after the board was cleared a few times. The strokes are never erased, so the board
+ * grows with the history and its projections weigh on the heap in both stores. Run it alone, once per store:
+ * <pre>
+ * mvn -P bench test-compile exec:exec -Dbench.main=org.whiteboard.server.storage.HistoryGcFootprint \
+ *     -Dbench.args="offheap 1000000 /var/tmp/whiteboard"
+ * </pre>
+ * Arguments: {@code heap} or {@code offheap}, the number of strokes, and the directory of
+ * the chunks, the temporary directory by default.
+ */
+public class HistoryGcFootprint {
+
+    private static final int POINTS = 20;
+    private static final int CLEARS = 8;
+
+    public static void main(String[] args) throws IOException {
+        boolean offHeap = args.length > 0 && args[0].equals("offheap");
+        int strokes = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Path directory = Path.of(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+        LongFunction<ActionLog> history = offHeap
+                ? base -> new OffHeapActionLog(base, directory, OffHeapActionLog.DEFAULT_CHUNK_BYTES)
+                : ActionLog::new;
+        FileService fileService = new FileService(
+                FileService.DEFAULT_RASTER_FOLD_THRESHOLD,
+                BoardTimeline.DEFAULT_CHECKPOINT_INTERVAL,
+                history
+        );
+
+        String store = offHeap ? "offheap" : "heap";
+        long sequence = fill(fileService, 0, strokes, store);
+        fileService.getTimeline().catchUp();
+        report(store + " after checkpoints", strokes);
+
+        for (int i = 0; i < CLEARS; i++) {
+            fileService.replaceHistory(List.of(), sequence);
+            sequence = fill(fileService, sequence, strokes / CLEARS, null);
+            fileService.getTimeline().catchUp();
+        }
+        System.out.printf("%s after %d clears: %d MB of history chunks open%n", store, CLEARS, openChunkBytes() >> 20);
+        fileService.shutdown();
+    }
+
+    private static long fill(FileService fileService, long sequence, int strokes, String store) {
+        Random random = new Random(sequence);
+        for (int i = 0; i < strokes; i++) {
+            List<Point> path = new ArrayList<>(POINTS);
+            double x = random.nextDouble() * 1100, y = random.nextDouble() * 700;
+            for (int k = 0; k < POINTS; k++) {
+                path.add(new Point(x += random.nextGaussian() * 3, y += random.nextGaussian() * 3));
+            }
+            DrawAction action = new DrawAction("user" + i % 8, DrawAction.ShapeType.FREEHAND, path, "0x000000ff", 3);
+            action.assignSequence(++sequence, 0);
+            fileService.addAction(action);
+            if (store != null && (i + 1) % (strokes / 4) == 0) {
+                report(store, i + 1);
+            }
+        }
+        return sequence;
+    }
+
+    private static void report(String store, int strokes) {
+        long start = System.nanoTime();
+        System.gc();
+        long pause = (System.nanoTime() - start) / 1_000_000;
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf(
+                "%s %d strokes: heap %d MB, full GC %d ms%n",
+                store,
+                strokes,
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20,
+                pause
+        );
+    }
+
+    // Linux only: sizes of the deleted chunk files the process still holds open
+    private static long openChunkBytes() throws IOException {
+        Path descriptors = Path.of("/proc/self/fd");
+        if (!Files.isDirectory(descriptors)) {
+            return -1;
+        }
+        long bytes = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(descriptors)) {
+            for (Path descriptor : files) {
+                try {
+                    if (Files.readSymbolicLink(descriptor).toString().contains("whiteboard-history-")) {
+                        bytes += Files.size(descriptor);
+                    }
+                } catch (IOException e) {
+                    // Closed meanwhile
+                }
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,131 @@
+package org.whiteboard.server.storage;
+
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * What the write-ahead log costs: append throughput of concurrent writers with and without
+ * it, then the time to recover logs of growing size. Writers append the way the sequencer
+ * does, queueing under one lock and waiting for their record to be durable outside it.
+ * Run it alone, on the disk the server logs to:
+ * <pre>
+ * mvn -P bench test-compile exec:exec -Dbench.main=org.whiteboard.server.storage.WriteAheadLogLoad \
+ *     -Dbench.args="8 200000 /var/tmp/whiteboard"
+ * </pre>
+ * Arguments: the number of writers, the number of actions of the largest log, and the
+ * directory of the logs, the temporary directory by default.
+ */
+public class WriteAheadLogLoad {
+
+    private static final int POINTS = 20;
+    private static final int APPENDS_PER_WRITER = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int largest = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        Path parent = Path.of(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+
+        Path directory = Files.createTempDirectory(parent, "wal-load");
+        try {
+            appends(writers, null);
+            try (WriteAheadLog wal = new WriteAheadLog(directory.resolve("appends"), WriteAheadLog.DEFAULT_SEGMENT_BYTES)) {
+                appends(writers, wal);
+            }
+            for (int size = Math.max(1, largest / 100); size <= largest; size *= 10) {
+                recovery(directory.resolve("recover-" + size), size);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void appends(int writers, WriteAheadLog wal) throws InterruptedException {
+        ActionLog log = new ActionLog(0);
+        Object sequencer = new Object();
+        long[] sequence = {0};
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int w = 0; w < writers; w++) {
+            String username = "user" + w;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(username.hashCode());
+                for (int i = 0; i < APPENDS_PER_WRITER; i++) {
+                    Action action = stroke(random, username);
+                    long ticket = 0;
+                    synchronized (sequencer) {
+                        action.assignSequence(++sequence[0], 0);
+                        log.append(action);
+                        if (wal != null) {
+                            ticket = wal.append(action);
+                        }
+                    }
+                    if (wal != null) {
+                        try {
+                            wal.awaitDurable(ticket);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %d writers, %.0f appends/s%n",
+                wal == null ? "without log" : "with log", writers, writers * APPENDS_PER_WRITER / seconds);
+    }
+
+    private static void recovery(Path directory, int size) throws IOException {
+        Random random = new Random(size);
+        try (WriteAheadLog wal = new WriteAheadLog(directory, WriteAheadLog.DEFAULT_SEGMENT_BYTES)) {
+            long ticket = 0;
+            for (int i = 0; i < size; i++) {
+                Action action = stroke(random, "user" + i % 8);
+                action.assignSequence(i + 1, 0);
+                ticket = wal.append(action);
+            }
+            wal.awaitDurable(ticket);
+        }
+        long bytes;
+        try (Stream<Path> files = Files.list(directory)) {
+            bytes = files.mapToLong(file -> file.toFile().length()).sum();
+        }
+
+        long start = System.nanoTime();
+        WriteAheadLog.Recovery recovery = WriteAheadLog.recover(directory);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("recover %d actions, %d MB in %d segments: %d ms%n",
+                recovery.actions().size(), bytes >> 20, recovery.segments(), millis);
+    }
+
+    private static Action stroke(Random random, String username) {
+        List<Point> path = new ArrayList<>(POINTS);
+        double x = random.nextDouble() * 1100, y = random.nextDouble() * 700;
+        for (int k = 0; k < POINTS; k++) {
+            path.add(new Point(x += random.nextGaussian() * 3, y += random.nextGaussian() * 3));
+        }
+        return new DrawAction(username, DrawAction.ShapeType.FREEHAND, path, "0x000000ff", 3);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.whiteboard.server.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.whiteboard.common.Point;
+import org.whiteboard.common.action.Action;
+import org.whiteboard.common.action.DrawAction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversWhatWasWritten() throws IOException {
+        write(WriteAheadLog.DEFAULT_SEGMENT_BYTES, 1, 2, 3);
+
+        WriteAheadLog.Recovery recovery = WriteAheadLog.recover(directory);
+
+        assertEquals(0, recovery.baseSequence());
+        assertEquals(List.of(1L, 2L, 3L), sequences(recovery.actions()));
+    }
+
+    @Test
+    void truncatesTornTail() throws IOException {
+        write(WriteAheadLog.DEFAULT_SEGMENT_BYTES, 1, 2, 3);
+        Path segment = segments().get(0);
+        long written = Files.size(segment);
+        // A crash in the middle of the next record's header
+        Files.write(segment, new byte[]{0, 0, 0, 42, 1}, StandardOpenOption.APPEND);
+
+        WriteAheadLog.Recovery recovery = WriteAheadLog.recover(directory);
+
+        assertEquals(List.of(1L, 2L, 3L), sequences(recovery.actions()));
+        assertEquals(written, Files.size(segment));
+    }
+
+    @Test
+    void endsHistoryAtCrcMismatch() throws IOException {
+        write(WriteAheadLog.DEFAULT_SEGMENT_BYTES, 1, 2);
+        Path segment = segments().get(0);
+        long firstTwo = Files.size(segment);
+        write(WriteAheadLog.DEFAULT_SEGMENT_BYTES, 3);
+        segment = segments().get(1);
+        flipLastByte(segment);
+
+        WriteAheadLog.Recovery recovery = WriteAheadLog.recover(directory);
+
+        assertEquals(List.of(1L, 2L), sequences(recovery.actions()));
+        assertEquals(firstTwo, Files.size(segments().get(0)));
+        assertEquals(0, Files.size(segment));
+    }
+
+    @Test
+    void movesSegmentsAfterCorruptRecordAside() throws IOException {
+        // Every commit fills a segment, so each action gets one of its own
+        write(1, 1, 2, 3);
+        List<Path> written = segments();
+        assertTrue(written.size() >= 3);
+        flipLastByte(written.get(0));
+
+        WriteAheadLog.Recovery recovery = WriteAheadLog.recover(directory);
+
+        assertEquals(List.of(), recovery.actions());
+        assertEquals(1, recovery.segments());
+        assertEquals(List.of(written.get(0)), segments());
+        for (Path later : written.subList(1, written.size())) {
+            assertTrue(Files.exists(later.resolveSibling(later.getFileName() + ".corrupt")), later + " moved aside");
+        }
+    }
+
+    @Test
+    void skipsRecordsCheckpointHolds() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(directory, WriteAheadLog.DEFAULT_SEGMENT_BYTES)) {
+            wal.append(action(1));
+            wal.append(action(2));
+            wal.reset(2);
+            wal.append(action(3));
+            wal.awaitDurable(wal.append(action(4)));
+        }
+        List<Action> checkpoint = List.of(action(3), action(4));
+
+        WriteAheadLog.Recovery recovery = WriteAheadLog.recover(directory, 4, checkpoint);
+
+        // The reset to 2 is older than the checkpoint and must not drop its board
+        assertEquals(4, recovery.baseSequence());
+        assertEquals(List.of(3L, 4L), sequences(recovery.actions()));
+    }
+
+    @Test
+    void appliesResetsAfterCheckpoint() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(directory, WriteAheadLog.DEFAULT_SEGMENT_BYTES)) {
+            wal.append(action(4));
+            wal.append(action(5));
+            wal.reset(5);
+            wal.awaitDurable(wal.append(action(6)));
+        }
+
+        WriteAheadLog.Recovery recovery = WriteAheadLog.recover(directory, 4, List.of(action(3), action(4)));
+
+        assertEquals(5, recovery.baseSequence());
+        assertEquals(List.of(6L), sequences(recovery.actions()));
+    }
+
+    @Test
+    void rejectsRecordsOnceClosed() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(directory, WriteAheadLog.DEFAULT_SEGMENT_BYTES);
+        wal.awaitDurable(wal.append(action(1)));
+        wal.close();
+
+        assertThrows(IOException.class, wal::ensureWritable);
+        long ticket = wal.append(action(2));
+        assertThrows(IOException.class, () -> wal.awaitDurable(ticket));
+        assertEquals(List.of(1L), sequences(WriteAheadLog.recover(directory).actions()));
+    }
+
+    private void write(long segmentBytes, long... sequences) throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(directory, segmentBytes)) {
+            for (long sequence : sequences) {
+                wal.awaitDurable(wal.append(action(sequence)));
+            }
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static void flipLastByte(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) (last.get(0) ^ 1));
+            last.rewind();
+            channel.write(last, channel.size() - 1);
+        }
+    }
+
+    private static Action action(long sequence) {
+        DrawAction action = new DrawAction(
+                "alice",
+                DrawAction.ShapeType.LINE,
+                List.of(new Point(sequence, 0), new Point(sequence, 10)),
+                "0x000000ff",
+                2
+        );
+        action.assignSequence(sequence, sequence - 1);
+        return action;
+    }
+
+    private static List<Long> sequences(List<Action> actions) {
+        return actions.stream().map(Action::getSequence).toList();
+    }
+}